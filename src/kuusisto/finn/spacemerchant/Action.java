@@ -1,6 +1,9 @@
 package kuusisto.finn.spacemerchant;
 /**
- * The Action class represents an action requested by the user.
+ * The Action class represents an action requested by the user.  An Action
+ * made by a CommandParser can be filled in again for each command, in which
+ * case its name is kept as a range of the parsed characters until it is
+ * asked for as a String.
  * 
  * @author Finn Kuusisto
  */
@@ -26,24 +29,43 @@ public class Action {
 	 * Value of the "quit" action
 	 */
 	public static final int QUIT = 5;
+	/**
+	 * Value of the "resume [token]" action, which only a server answers
+	 */
+	public static final int RESUME = 6;
 	
 	/**
 	 * This field holds a value indicating what action the user has requested.
 	 */
-	private final int ACTION_VAL;
+	private int ACTION_VAL;
 	
 	/**
 	 * This field holds a value indicating a quantity specified by the user
 	 * (only used with "buy" and "sell" actions).
 	 */
-	private final int QUANTITY;
+	private int QUANTITY;
 	
 	/**
 	 * This field holds text indicating a destination, list or commodity the
-	 * user has requested (only used with "travel", "list", "buy" and "sell"
-	 * actions).
+	 * user has requested (only used with "travel", "list", "buy", "sell" and
+	 * "resume" actions).
+	 */
+	private String NAME;
+	
+	/**
+	 * These fields hold the characters from which the name was parsed, and
+	 * where in them it is, until NAME is made from them.
+	 */
+	private CharSequence nameSource;
+	private int nameStart;
+	private int nameEnd;
+	
+	/**
+	 * Construct a new, empty Action to be filled in by a CommandParser.
 	 */
-	private final String NAME;
+	public Action() {
+		this(0, -1, null);
+	}
 	
 	/**
 	 * Construct a new Action object with the specified action, a quantity and
@@ -110,7 +132,58 @@ public class Action {
 	 * @return The commodity name, destination or list specified by the user
 	 */
 	public String getName() {
+		if (this.NAME == null && this.nameSource != null) {
+			this.NAME = this.nameSource.subSequence(this.nameStart,
+				this.nameEnd).toString();
+		}
 		return this.NAME;
 	}
-
+	
+	/**
+	 * Get the characters from which the name was parsed, which avoids making
+	 * a String of it.  The name is from <tt>getNameStart</tt> to
+	 * <tt>getNameEnd</tt>.
+	 * @return The characters holding the name, or null if there is no name
+	 */
+	public CharSequence getNameSource() {
+		return (this.nameSource != null) ? this.nameSource : this.NAME;
+	}
+	
+	/**
+	 * Get the index of the first character of the name in
+	 * <tt>getNameSource</tt>.
+	 * @return The index where the name starts
+	 */
+	public int getNameStart() {
+		return (this.nameSource != null) ? this.nameStart : 0;
+	}
+	
+	/**
+	 * Get the index after the last character of the name in
+	 * <tt>getNameSource</tt>.
+	 * @return The index where the name ends
+	 */
+	public int getNameEnd() {
+		if (this.nameSource != null) { return this.nameEnd; }
+		return (this.NAME != null) ? this.NAME.length() : 0;
+	}
+	
+	/**
+	 * Fills in this Action for a newly parsed command.
+	 * @param action The action issued
+	 * @param quantity The quantity specified, or -1
+	 * @param source The characters holding the name, or null
+	 * @param start The index of the first character of the name
+	 * @param end The index after the last character of the name
+	 */
+	void set(int action, int quantity, CharSequence source, int start,
+		int end) {
+		this.ACTION_VAL = action;
+		this.QUANTITY = quantity;
+		this.NAME = null;
+		this.nameSource = source;
+		this.nameStart = start;
+		this.nameEnd = end;
+	}
+	
 }
\ No newline at end of file
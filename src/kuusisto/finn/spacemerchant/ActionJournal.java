@@ -0,0 +1,719 @@
+package kuusisto.finn.spacemerchant;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The ActionJournal class keeps a write-ahead log of the Actions played in
+ * game sessions, so that the sessions can be rebuilt after a crash and what
+ * happened in them can be checked later.  Each session is started in the
+ * journal with the seed of its World, and every Action is logged before it
+ * is carried out, with the id of the Location or the ordinal of the
+ * Commodity it names.  Since a World's prices and random numbers all come
+ * from its seed, replaying the Actions with <tt>Player.travel</tt>,
+ * <tt>buy</tt> and <tt>sell</tt> rebuilds exactly the same state.  Sessions
+ * also log a SessionSnapshot every so often (see <tt>SNAPSHOT_INTERVAL</tt>)
+ * and a replay starts each session from its last snapshot, so replay time
+ * is bounded however long a session has been played.
+ * <br>
+ * Logging an Action only copies it into a buffer in memory.  A single
+ * thread writes the buffer to the file and forces it to disk, while another
+ * buffer takes the Actions that arrive in the meantime, so every force makes
+ * a whole batch of Actions durable at once.  A batch is written as soon as
+ * the previous one is done, after waiting up to <tt>COMMIT_INTERVAL</tt> for
+ * more Actions to join it, or right away if someone is waiting for it with
+ * <tt>sync</tt>.  A thread that mustn't block, such as one serving many
+ * connections, can instead ask to be called back by the writer once the
+ * records it needs are on disk (see <tt>whenDurable</tt>).
+ * <br>
+ * All values are big-endian and the file is laid out as:<br>
+ * <tt>magic, version (ints), world content hash (32 bytes)</tt><br>
+ * then records, each of which is:<br>
+ * <tt>body length, CRC-32 of the body, kind (ints), session id (long)</tt>
+ * <br>
+ * followed by, for each kind:<br>
+ * <tt>START: seed (long)</tt><br>
+ * <tt>ACTION: Action value, quantity, name id or -1 (ints)</tt><br>
+ * <tt>SNAPSHOT: a SessionSnapshot</tt><br>
+ * <tt>END: nothing</tt><br>
+ * A record cut short by a crash fails its checksum, and it and anything
+ * after it are dropped when the journal is read or reopened.
+ * <br>
+ * It can also be run to replay a journal and list its sessions:<br>
+ * <tt>java kuusisto.finn.spacemerchant.ActionJournal world_file
+ * journal_file</tt>
+ * 
+ * @author Finn Kuusisto
+ */
+public class ActionJournal {
+	
+	/**
+	 * The first four bytes of every action journal ("SMAJ").
+	 */
+	public static final int MAGIC = 0x534D414A;
+	/**
+	 * The version of the format written by this class.
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * The number of Actions a session logs between its snapshots.
+	 */
+	public static final int SNAPSHOT_INTERVAL = 256;
+	/**
+	 * The longest a logged Action waits to be written, in milliseconds, if
+	 * nobody is waiting for it.
+	 */
+	public static final long COMMIT_INTERVAL = 10;
+	
+	//kinds of record
+	private static final int START = 1;
+	private static final int ACTION = 2;
+	private static final int SNAPSHOT = 3;
+	private static final int END = 4;
+	
+	private static final int HEADER_SIZE = 4 + 4 + 32;
+	//length and checksum, then kind and session
+	private static final int RECORD_HEADER_SIZE = 4 + 4;
+	private static final int BODY_HEADER_SIZE = 4 + 8;
+	//the size of each of the two buffers
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private final WorldTemplate template;
+	private final FileChannel channel;
+	private final CRC32 crc;
+	private final Thread writer;
+	//the buffer Actions are logged to, and the one being written
+	private ByteBuffer current;
+	private ByteBuffer spare;
+	//where in the current buffer the record being added starts
+	private int recordStart;
+	//file positions up to which records are logged and forced to disk
+	private long logged;
+	private long durable;
+	//callbacks waiting for records to be written, in the order they came
+	private final List<Callback> callbacks;
+	//threads waiting for records to be written, or for room to add them
+	private int syncWaiters;
+	private int roomWaiters;
+	private boolean closed;
+	private IOException failure;
+	
+	/**
+	 * Opens a journal file for a game world, creating it if it doesn't exist
+	 * and otherwise adding to the end of it, and starts the thread that
+	 * writes it.
+	 * @param template The game world in which the sessions are played
+	 * @param filename The name of the journal file
+	 * @throws IOException If the file can't be opened, or holds a journal of
+	 * another world
+	 */
+	public ActionJournal(WorldTemplate template, String filename)
+		throws IOException {
+		this.template = template;
+		this.channel = FileChannel.open(Paths.get(filename),
+			StandardOpenOption.CREATE, StandardOpenOption.READ,
+			StandardOpenOption.WRITE);
+		this.crc = new CRC32();
+		this.callbacks = new ArrayList<Callback>();
+		this.current = ByteBuffer.allocate(BUFFER_SIZE);
+		this.spare = ByteBuffer.allocate(BUFFER_SIZE);
+		try {
+			this.logged = this.openFile();
+		}
+		catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+		this.durable = this.logged;
+		this.writer = new Thread(new Runnable() {
+			public void run() {
+				ActionJournal.this.writeLoop();
+			}
+		}, "ActionJournal-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+	
+	/**
+	 * Opens a journal file (see the constructor) that is closed, with
+	 * everything logged to it written out, when the Java runtime shuts down.
+	 * @param template The game world in which the sessions are played
+	 * @param filename The name of the journal file
+	 * @return The open journal
+	 * @throws IOException If the file can't be opened, or holds a journal of
+	 * another world
+	 */
+	public static ActionJournal open(WorldTemplate template, String filename)
+		throws IOException {
+		final ActionJournal journal = new ActionJournal(template, filename);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				try {
+					journal.close();
+				}
+				catch (IOException e) {
+					System.out.println("Failed closing journal: " +
+						e.getMessage());
+				}
+			}
+		}));
+		return journal;
+	}
+	
+	/**
+	 * Checks the header of the file, or writes one if the file is empty, and
+	 * cuts off any torn record at the end.
+	 * @return The position at which to add records
+	 */
+	private long openFile() throws IOException {
+		long size = this.channel.size();
+		if (size == 0) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(ActionJournal.MAGIC);
+			header.putInt(ActionJournal.VERSION);
+			header.put(this.template.contentHash());
+			header.flip();
+			while (header.hasRemaining()) { this.channel.write(header); }
+			this.channel.force(true);
+			return HEADER_SIZE;
+		}
+		ByteBuffer buf = ActionJournal.map(this.channel);
+		ActionJournal.checkHeader(buf, this.template);
+		int end = ActionJournal.validEnd(buf, new CRC32());
+		if (end < size) {
+			this.channel.truncate(end);
+			this.channel.force(true);
+		}
+		this.channel.position(end);
+		return end;
+	}
+	
+	/**
+	 * Indicates whether a session is played in the game world this journal
+	 * is for.  A session that has moved to another version of its world (see
+	 * <tt>World.migrate</tt>) can't be replayed from this journal.
+	 * @param world The session's World
+	 * @return true if the World is in this journal's game world
+	 */
+	public boolean isFor(World world) {
+		return world.getTemplate() == this.template;
+	}
+	
+	/**
+	 * Indicates whether this journal is for a game world.
+	 * @param template The game world
+	 * @return true if it is this journal's game world
+	 */
+	public boolean isFor(WorldTemplate template) {
+		return template == this.template;
+	}
+	
+	/**
+	 * Logs the start of a session.
+	 * @param session The id of the session, unique within the journal
+	 * @param seed The seed of the session's SplitMixRandom
+	 */
+	public synchronized void start(long session, long seed) {
+		ByteBuffer buf = this.begin(START, session, 8);
+		if (buf == null) { return; }
+		buf.putLong(seed);
+		this.finish();
+	}
+	
+	/**
+	 * Logs an Action of a session, before it is carried out.
+	 * @param session The id of the session
+	 * @param action The Action value
+	 * @param quantity The quantity of the Action, or -1 if it has none
+	 * @param nameId The id of the Location or the ordinal of the Commodity
+	 * the Action names, or -1 if the name isn't one
+	 */
+	public synchronized void record(long session, int action, int quantity,
+		int nameId) {
+		ByteBuffer buf = this.begin(ACTION, session, 12);
+		if (buf == null) { return; }
+		buf.putInt(action);
+		buf.putInt(quantity);
+		buf.putInt(nameId);
+		this.finish();
+	}
+	
+	/**
+	 * Logs a snapshot of a session, from which a replay can start instead
+	 * of replaying the Actions before it.
+	 * @param session The id of the session
+	 * @param world The session's World as it stands
+	 */
+	public synchronized void snapshot(long session, World world) {
+		ByteBuffer buf = this.begin(SNAPSHOT, session,
+			SessionSnapshot.size(world));
+		if (buf == null) { return; }
+		SessionSnapshot.save(world, buf);
+		this.finish();
+	}
+	
+	/**
+	 * Logs the end of a session, which a replay then leaves out.
+	 * @param session The id of the session
+	 */
+	public synchronized void end(long session) {
+		ByteBuffer buf = this.begin(END, session, 0);
+		if (buf == null) { return; }
+		this.finish();
+	}
+	
+	/**
+	 * Waits until everything logged so far is on disk.  Everyone waiting
+	 * shares the same write and force.
+	 * @throws IOException If the journal can't be written
+	 */
+	public synchronized void sync() throws IOException {
+		long target = this.logged;
+		this.syncWaiters++;
+		this.notifyAll();
+		try {
+			while (this.durable < target && this.failure == null) {
+				this.wait();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for the journal");
+		}
+		finally {
+			this.syncWaiters--;
+		}
+		if (this.failure != null) { throw this.failure; }
+	}
+	
+	/**
+	 * Get the file position up to which records have been logged.  Once the
+	 * journal is durable up to it, everything logged before this was asked
+	 * for is on disk.
+	 * @return The end of the records logged so far
+	 */
+	public synchronized long getLogged() {
+		return this.logged;
+	}
+	
+	/**
+	 * Indicates whether everything logged up to a file position is on disk.
+	 * @param position The position, from <tt>getLogged</tt>
+	 * @return true if the records before the position are durable, false if
+	 * they aren't yet or the journal has failed
+	 */
+	public synchronized boolean isDurable(long position) {
+		return this.durable >= position;
+	}
+	
+	/**
+	 * Calls back once everything logged up to a file position is on disk, or
+	 * once the journal has failed, without waiting for it.  The callback is
+	 * run on the writer thread, so it must be quick and mustn't log to or
+	 * sync the journal; it can tell a failure by <tt>isDurable</tt> being
+	 * false.  If the records are already durable, or the journal has
+	 * already failed, it is run straight away on this thread.
+	 * @param position The position, from <tt>getLogged</tt>
+	 * @param done The callback
+	 */
+	public void whenDurable(long position, Runnable done) {
+		synchronized (this) {
+			if (this.durable < position && this.failure == null) {
+				this.callbacks.add(new Callback(position, done));
+				//someone is waiting, so the batch needn't
+				this.notifyAll();
+				return;
+			}
+		}
+		done.run();
+	}
+	
+	/**
+	 * Takes the callbacks that are due, all of them if the journal failed.
+	 */
+	private List<Callback> takeDueCallbacks() {
+		List<Callback> due = null;
+		for (int i = 0; i < this.callbacks.size(); i++) {
+			Callback c = this.callbacks.get(i);
+			if (this.failure != null || c.position <= this.durable) {
+				if (due == null) { due = new ArrayList<Callback>(); }
+				due.add(c);
+				this.callbacks.remove(i--);
+			}
+		}
+		return due;
+	}
+	
+	/**
+	 * Writes out everything logged so far and closes the journal.  Nothing
+	 * more is logged once it is closed.
+	 * @throws IOException If the journal can't be written or closed
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			this.closed = true;
+			this.notifyAll();
+		}
+		try {
+			this.writer.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.channel.close();
+		synchronized (this) {
+			if (this.failure != null) { throw this.failure; }
+		}
+	}
+	
+	/**
+	 * Starts a record in the current buffer, waiting for the writer to make
+	 * room if there isn't enough.
+	 * @return The buffer to which to add the rest of the record, or null if
+	 * the journal is closed or has failed
+	 */
+	private ByteBuffer begin(int kind, long session, int size) {
+		int total = RECORD_HEADER_SIZE + BODY_HEADER_SIZE + size;
+		if (this.current.remaining() < total && this.current.position() > 0) {
+			this.roomWaiters++;
+			this.notifyAll();
+			try {
+				while (!this.closed && this.failure == null &&
+					this.current.remaining() < total &&
+					this.current.position() > 0) {
+					this.wait();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			finally {
+				this.roomWaiters--;
+			}
+		}
+		if (this.closed || this.failure != null) { return null; }
+		if (this.current.remaining() < total) {
+			//a record bigger than the buffer gets a buffer of its own
+			this.current = ByteBuffer.allocate(total);
+		}
+		ByteBuffer buf = this.current;
+		this.recordStart = buf.position();
+		buf.putInt(BODY_HEADER_SIZE + size);
+		buf.putInt(0);
+		buf.putInt(kind);
+		buf.putLong(session);
+		return buf;
+	}
+	
+	/**
+	 * Fills in the checksum of the record just added to the current buffer.
+	 */
+	private void finish() {
+		ByteBuffer buf = this.current;
+		int start = this.recordStart;
+		this.crc.reset();
+		this.crc.update(buf.array(), start + RECORD_HEADER_SIZE,
+			buf.position() - start - RECORD_HEADER_SIZE);
+		buf.putInt(start + 4, (int)this.crc.getValue());
+		this.logged += buf.position() - start;
+		if (buf.position() > buf.capacity() / 2) {
+			//don't wait for the interval when the buffer is filling up
+			this.notifyAll();
+		}
+	}
+	
+	/**
+	 * Writes out batches of records until the journal is closed and
+	 * everything in it is written, or writing fails.
+	 */
+	private void writeLoop() {
+		while (true) {
+			ByteBuffer batch;
+			long target;
+			synchronized (this) {
+				try {
+					while (this.current.position() == 0 && !this.closed) {
+						this.wait();
+					}
+					if (this.current.position() == 0) { return; }
+					//give more records a moment to join the batch
+					ByteBuffer filling = this.current;
+					if (!this.closed && this.syncWaiters == 0 &&
+						this.roomWaiters == 0 && this.callbacks.isEmpty() &&
+						filling.position() <= filling.capacity() / 2) {
+						this.wait(COMMIT_INTERVAL);
+					}
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				batch = this.current;
+				this.current = this.spare;
+				this.spare = null;
+				target = this.logged;
+				//there is room again for anyone waiting for it
+				this.notifyAll();
+			}
+			IOException failed = null;
+			try {
+				batch.flip();
+				while (batch.hasRemaining()) { this.channel.write(batch); }
+				this.channel.force(false);
+			}
+			catch (IOException e) {
+				failed = e;
+			}
+			List<Callback> due;
+			synchronized (this) {
+				batch.clear();
+				if (batch.capacity() > BUFFER_SIZE) {
+					batch = ByteBuffer.allocate(BUFFER_SIZE);
+				}
+				this.spare = batch;
+				if (failed != null) {
+					System.out.println("Journal failed: " +
+						failed.getMessage());
+					this.failure = failed;
+				}
+				else {
+					this.durable = target;
+				}
+				this.notifyAll();
+				due = this.takeDueCallbacks();
+			}
+			if (due != null) {
+				for (Callback c : due) {
+					c.done.run();
+				}
+			}
+			if (failed != null) { return; }
+		}
+	}
+	
+	/**
+	 * A Callback is run once the journal is durable up to its position.
+	 */
+	private static class Callback {
+		
+		private final long position;
+		private final Runnable done;
+		
+		public Callback(long position, Runnable done) {
+			this.position = position;
+			this.done = done;
+		}
+	
+	}
+	
+	/**
+	 * Replays a journal, rebuilding the sessions that hadn't ended.  Each
+	 * session starts from its last snapshot, or from its seed if it has none,
+	 * and the Actions logged after that are carried out again.
+	 * @param template The game world in which the sessions were played
+	 * @param filename The name of the journal file
+	 * @return The Worlds of the sessions by their ids, in the order they
+	 * started
+	 * @throws IOException If the file can't be read, or isn't a journal of
+	 * the given world
+	 */
+	public static Map<Long,World> replay(WorldTemplate template,
+		String filename) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(filename),
+			StandardOpenOption.READ);
+		try {
+			return ActionJournal.replay(template, ActionJournal.map(channel));
+		}
+		finally {
+			channel.close();
+		}
+	}
+	
+	private static Map<Long,World> replay(WorldTemplate template,
+		ByteBuffer buf) throws IOException {
+		ActionJournal.checkHeader(buf, template);
+		int end = ActionJournal.validEnd(buf, new CRC32());
+		//first find where each session's last snapshot is
+		Map<Long,Integer> lastSnapshots = new HashMap<Long,Integer>();
+		for (int pos = HEADER_SIZE; pos < end; pos = next(buf, pos)) {
+			if (buf.getInt(pos + RECORD_HEADER_SIZE) == SNAPSHOT) {
+				lastSnapshots.put(buf.getLong(pos + RECORD_HEADER_SIZE + 4),
+					pos);
+			}
+		}
+		//then replay only what comes after it
+		Map<Long,World> sessions = new LinkedHashMap<Long,World>();
+		for (int pos = HEADER_SIZE; pos < end; pos = next(buf, pos)) {
+			int body = pos + RECORD_HEADER_SIZE;
+			int kind = buf.getInt(body);
+			Long session = buf.getLong(body + 4);
+			Integer snapshot = lastSnapshots.get(session);
+			if (snapshot != null && pos < snapshot) { continue; }
+			int data = body + BODY_HEADER_SIZE;
+			switch (kind) {
+				case START:
+					World world = new World(template,
+						new SplitMixRandom(buf.getLong(data)));
+					world.getPlayer().setMission(world.getNextMission());
+					sessions.put(session, world);
+					break;
+				case SNAPSHOT:
+					ByteBuffer bytes = buf.duplicate();
+					bytes.limit(next(buf, pos));
+					bytes.position(data);
+					sessions.put(session,
+						SessionSnapshot.restore(template, bytes));
+					break;
+				case ACTION:
+					world = sessions.get(session);
+					if (world != null) {
+						ActionJournal.apply(world, buf.getInt(data),
+							buf.getInt(data + 4), buf.getInt(data + 8));
+					}
+					break;
+				case END:
+					sessions.remove(session);
+					break;
+				default:
+					throw new IOException("Bad action journal: unknown " +
+						"record kind " + kind);
+			}
+		}
+		return sessions;
+	}
+	
+	/**
+	 * Carries out a logged Action again.  Actions that named nothing
+	 * changed nothing, and neither did listing or quitting.
+	 */
+	private static void apply(World world, int action, int quantity,
+		int nameId) throws IOException {
+		if (nameId == -1) { return; }
+		WorldTemplate template = world.getTemplate();
+		Player player = world.getPlayer();
+		switch (action) {
+			case Action.TRAVEL:
+				check(nameId >= 0 && nameId < template.getLocationCount(),
+					"Bad location " + nameId);
+				player.travel(template.getLocation(nameId).getName());
+				break;
+			case Action.BUY:
+			case Action.SELL:
+				check(nameId >= 0 && nameId < template.getCommodityCount(),
+					"Bad commodity " + nameId);
+				String name = template.getCommodity(nameId).getName();
+				if (action == Action.BUY) {
+					player.buy(name, quantity);
+				}
+				else {
+					player.sell(name, quantity);
+				}
+				break;
+		}
+	}
+	
+	private static ByteBuffer map(FileChannel channel) throws IOException {
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Action journal too large to map");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+	}
+	
+	private static void checkHeader(ByteBuffer buf, WorldTemplate template)
+		throws IOException {
+		check(buf.limit() >= HEADER_SIZE, "Truncated header");
+		check(buf.getInt(0) == ActionJournal.MAGIC, "Not an action journal");
+		int version = buf.getInt(4);
+		check(version == ActionJournal.VERSION,
+			"Unsupported action journal version " + version);
+		byte[] hash = new byte[32];
+		ByteBuffer header = buf.duplicate();
+		header.position(8);
+		header.get(hash);
+		check(Arrays.equals(hash, template.contentHash()),
+			"Written for a different world");
+	}
+	
+	/**
+	 * Finds the end of the last whole record whose checksum is right.
+	 */
+	private static int validEnd(ByteBuffer buf, CRC32 crc) {
+		int pos = HEADER_SIZE;
+		byte[] scratch = new byte[256];
+		while (buf.limit() - pos >= RECORD_HEADER_SIZE + BODY_HEADER_SIZE) {
+			int length = buf.getInt(pos);
+			if (length < BODY_HEADER_SIZE ||
+				length > buf.limit() - pos - RECORD_HEADER_SIZE) {
+				break;
+			}
+			if (length > scratch.length) {
+				scratch = new byte[Math.max(length, scratch.length * 2)];
+			}
+			ByteBuffer body = buf.duplicate();
+			body.position(pos + RECORD_HEADER_SIZE);
+			body.get(scratch, 0, length);
+			crc.reset();
+			crc.update(scratch, 0, length);
+			if ((int)crc.getValue() != buf.getInt(pos + 4)) { break; }
+			pos += RECORD_HEADER_SIZE + length;
+		}
+		return pos;
+	}
+	
+	private static int next(ByteBuffer buf, int pos) {
+		return pos + RECORD_HEADER_SIZE + buf.getInt(pos);
+	}
+	
+	private static void check(boolean ok, String message) throws IOException {
+		if (!ok) {
+			throw new IOException("Bad action journal: " + message);
+		}
+	}
+	
+	/**
+	 * Replays a journal and lists the sessions that hadn't ended.
+	 * @param args The name of the world file and the name of the journal
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.out.println("Usage: ActionJournal <world file> " +
+				"<journal file>");
+			System.exit(1);
+		}
+		try {
+			WorldTemplate template = WorldTemplate.load(args[0]);
+			Map<Long,World> sessions = ActionJournal.replay(template,
+				args[1]);
+			for (Map.Entry<Long,World> e : sessions.entrySet()) {
+				Player player = e.getValue().getPlayer();
+				Mission mission = player.getMission();
+				System.out.println("Session " + e.getKey() + ": " +
+					player.getLocation().getName() + ", " +
+					player.getMoney() + " money, " +
+					((mission == null) ? "no mission" : mission.getTitle()));
+			}
+			System.out.println(sessions.size() + " sessions");
+		}
+		catch (IOException e) {
+			System.out.println("Failed replaying " + args[1] + ": " +
+				e.getMessage());
+			System.exit(1);
+		}
+		catch (WorldParseException e) {
+			System.out.println("Failed parsing " + args[0] + "! " +
+				e.getMessage());
+			System.exit(1);
+		}
+	}
+	
+}
@@ -0,0 +1,296 @@
+package kuusisto.finn.spacemerchant;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * The BatchRunner class carries out Actions for the Player of a World and
+ * renders their results as text.  Actions can be run one at a time, as the
+ * interactive game does, or in batches, such as from a script of commands;
+ * the text of a whole batch is gathered and written out in one go, with a
+ * single flush, rather than a line at a time.  Once the Player quits or
+ * completes every Mission the game is over and later Actions are ignored.
+ * <br>
+ * A BatchRunner can also log every Action to an ActionJournal before
+ * carrying it out, along with a snapshot of the session every
+ * <tt>ActionJournal.SNAPSHOT_INTERVAL</tt> Actions and the end of the
+ * session once the game is over, or once the session has moved to a
+ * reloaded game world that the journal can't replay it in.  The results of
+ * a batch are only written once everything it logged is on disk (see
+ * <tt>sync</tt>), so a player is never told of an Action that a crash could
+ * undo.
+ * 
+ * @author Finn Kuusisto
+ */
+public class BatchRunner {
+	
+	/**
+	 * The number of script lines run as one batch.
+	 */
+	public static final int SCRIPT_BATCH_SIZE = 1024;
+	//the replies to lines that aren't valid commands, each used in turn
+	private static final String[] INVALID = {"Huh?\n\n", "What?\n\n",
+		"Pardon?\n\n", "Say again?\n\n", "I don't understand.\n\n"};
+	
+	private World world;
+	private Player player;
+	private TextRenderer renderer;
+	private boolean quit;
+	private ActionJournal journal;
+	private long session;
+	//whether the session is logged to the journal and hasn't ended there
+	private boolean started;
+	//whether anything has been logged since the journal was last synced
+	private boolean unsynced;
+	//the number of Actions logged to the journal
+	private int logged;
+	//the number of lines answered by invalid
+	private int invalid;
+	
+	/**
+	 * Constructs a new BatchRunner for a game session.
+	 * @param world The game session in which to carry out Actions
+	 */
+	public BatchRunner(World world) {
+		this(world, null, 0);
+	}
+	
+	/**
+	 * Constructs a new BatchRunner for a game session that logs its Actions
+	 * to a journal.  If the journal is for the session's game world, the
+	 * start of the session must already be logged (see
+	 * <tt>ActionJournal.start</tt>); otherwise nothing is logged.
+	 * @param world The game session in which to carry out Actions
+	 * @param journal The journal to which to log Actions, or null for none
+	 * @param session The id of the session in the journal
+	 */
+	public BatchRunner(World world, ActionJournal journal, long session) {
+		this.world = world;
+		this.player = world.getPlayer();
+		this.renderer = new TextRenderer();
+		this.journal = journal;
+		this.session = session;
+		this.started = journal != null && journal.isFor(world);
+	}
+	
+	/**
+	 * Indicates whether the game is over, either because the Player quit or
+	 * because every Mission is complete.
+	 * @return true if the game is over, false otherwise
+	 */
+	public boolean isOver() {
+		return this.quit || this.world.allMissionsComplete();
+	}
+	
+	/**
+	 * Get the reply to a line of input that isn't a valid command.  Each of a
+	 * few replies is used in turn, rather than one drawn from Math.random,
+	 * which every session of a server would share, so every front end
+	 * answers the same input with the same text.
+	 * @param count The number of invalid lines already answered in the
+	 * session
+	 * @return The reply, ending with a blank line
+	 */
+	public static String invalidReply(int count) {
+		return INVALID[Math.floorMod(count, INVALID.length)];
+	}
+	
+	/**
+	 * Appends the reply to this session's next line of input that isn't a
+	 * valid command (see <tt>invalidReply</tt>).
+	 * @param out The text to which to append
+	 */
+	public void invalid(StringBuilder out) {
+		out.append(invalidReply(this.invalid++));
+	}
+	
+	/**
+	 * Carries out a single Action and appends the text of its result.  If
+	 * the Action completes the last Mission, the winning message and the
+	 * Player's final status are appended as well.
+	 * @param action The Action to carry out
+	 * @param out The text to which to append
+	 */
+	public void execute(Action action, StringBuilder out) {
+		if (this.isOver()) { return; }
+		if (this.started) { this.log(action); }
+		switch (action.getActionValue()) {
+			case Action.TRAVEL:
+				this.renderer.render(this.player.travel(action.getNameSource(),
+					action.getNameStart(), action.getNameEnd()), out);
+				break;
+			case Action.BUY:
+				this.renderer.render(this.player.buy(action.getNameSource(),
+					action.getNameStart(), action.getNameEnd(),
+					action.getQuantity()), out);
+				break;
+			case Action.SELL:
+				this.renderer.render(this.player.sell(action.getNameSource(),
+					action.getNameStart(), action.getNameEnd(),
+					action.getQuantity()), out);
+				break;
+			case Action.LIST:
+				this.renderer.render(this.player.list(action.getName()), out);
+				break;
+			case Action.QUIT:
+				out.append("Bye!\n");
+				this.quit = true;
+				return;
+			case Action.RESUME:
+				//only a server keeps games to resume (see ServerSession)
+				out.append("There are no saved games to resume here.\n\n");
+				return;
+		}
+		if (this.world.allMissionsComplete()) {
+			out.append("Finally!  You won!\n");
+			this.renderer.render(this.player.list("status"), out);
+			this.end();
+		}
+	}
+	
+	/**
+	 * Logs the end of the session to the journal, unless it wasn't logged
+	 * there or has already ended, such as when a server loses the connection
+	 * the session was played on.
+	 */
+	public void end() {
+		if (!this.started) { return; }
+		this.journal.end(this.session);
+		this.started = false;
+		this.unsynced = true;
+	}
+	
+	/**
+	 * Indicates whether everything logged to the journal is known to be on
+	 * disk, so that results can be shown without a <tt>sync</tt>.
+	 * @return true if nothing has been logged since the last sync
+	 */
+	public boolean isSynced() {
+		return !this.unsynced;
+	}
+	
+	/**
+	 * Waits until everything logged to the journal so far is on disk, which
+	 * must be done before the results of the logged Actions are shown.
+	 * @throws IOException If the journal can't be written
+	 */
+	public void sync() throws IOException {
+		if (!this.unsynced) { return; }
+		this.journal.sync();
+		this.unsynced = false;
+	}
+	
+	/**
+	 * Marks everything logged as on disk, for a caller that has seen the
+	 * journal made durable without waiting on <tt>sync</tt> (see
+	 * <tt>ActionJournal.whenDurable</tt>).
+	 */
+	public void synced() {
+		this.unsynced = false;
+	}
+	
+	/**
+	 * Logs an Action to the journal before it is carried out, with the id of
+	 * the Location or the ordinal of the Commodity it names.  Listing changes
+	 * nothing, so it isn't logged.
+	 */
+	private void log(Action action) {
+		if (!this.journal.isFor(this.world)) {
+			this.end();
+			return;
+		}
+		int value = action.getActionValue();
+		int nameId = -1;
+		switch (value) {
+			case Action.TRAVEL:
+				Location location = this.world.findLocation(
+					action.getNameSource(), action.getNameStart(),
+					action.getNameEnd());
+				if (location != null) { nameId = location.getId(); }
+				break;
+			case Action.BUY:
+			case Action.SELL:
+				Commodity commodity = this.world.findCommodity(
+					action.getNameSource(), action.getNameStart(),
+					action.getNameEnd());
+				if (commodity != null) { nameId = commodity.getOrdinal(); }
+				break;
+			case Action.QUIT:
+				this.end();
+				return;
+			default:
+				return;
+		}
+		if (this.logged > 0 &&
+			this.logged % ActionJournal.SNAPSHOT_INTERVAL == 0) {
+			this.journal.snapshot(this.session, this.world);
+		}
+		this.logged++;
+		this.journal.record(this.session, value, action.getQuantity(),
+			nameId);
+		this.unsynced = true;
+	}
+	
+	/**
+	 * Carries out a batch of Actions in order, stopping early if the game
+	 * ends.  The text of all of their results is written with a single write
+	 * and the Writer is flushed once, after the journal is synced.
+	 * @param actions The Actions to carry out
+	 * @param out The Writer to which to write the results
+	 * @return true if the game is still going, false if it is over
+	 * @throws IOException If the results can't be written
+	 */
+	public boolean run(List<Action> actions, Writer out) throws IOException {
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; i < actions.size() && !this.isOver(); i++) {
+			this.execute(actions.get(i), str);
+		}
+		this.sync();
+		out.append(str);
+		out.flush();
+		return !this.isOver();
+	}
+	
+	/**
+	 * Carries out a script of commands, one per line, in batches of
+	 * <tt>SCRIPT_BATCH_SIZE</tt> lines, each written once the journal is
+	 * synced.  Blank lines are skipped and lines
+	 * that aren't valid commands are answered as by <tt>invalid</tt>.  The
+	 * script is read until its end or until the game is over.
+	 * @param script The script from which to read commands
+	 * @param out The Writer to which to write the results
+	 * @return true if the game is still going, false if it is over
+	 * @throws IOException If the script can't be read or the results can't
+	 * be written
+	 */
+	public boolean runScript(BufferedReader script, Writer out)
+		throws IOException {
+		StringBuilder str = new StringBuilder();
+		Action action = new Action();
+		String line;
+		int lines = 0;
+		while (!this.isOver() && (line = script.readLine()) != null) {
+			if (line.trim().length() > 0) {
+				if (CommandParser.parse(line, action)) {
+					this.execute(action, str);
+				}
+				else {
+					this.invalid(str);
+				}
+			}
+			if (++lines == SCRIPT_BATCH_SIZE) {
+				this.sync();
+				out.append(str);
+				out.flush();
+				str.setLength(0);
+				lines = 0;
+			}
+		}
+		this.sync();
+		out.append(str);
+		out.flush();
+		return !this.isOver();
+	}
+	
+}
@@ -0,0 +1,653 @@
+package kuusisto.finn.spacemerchant;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The BinaryWorld class reads and writes game worlds in a compact binary
+ * format, so that a world can be loaded without parsing any text.  It can
+ * also be run to convert a text world file into a binary one:<br>
+ * <tt>java kuusisto.finn.spacemerchant.BinaryWorld universe.world
+ * universe.smw</tt><br>
+ * or to check that text worlds load to the same world in both forms, and
+ * with both text loaders (see <tt>compare</tt> and <tt>checkLoaders</tt>):
+ * <br>
+ * <tt>java kuusisto.finn.spacemerchant.BinaryWorld -check universe.world
+ * tiny.world</tt><br>
+ * All values are big-endian 32-bit ints and the file is laid out as:<br>
+ * <tt>magic, version</tt><br>
+ * <tt>string count, then each string as a byte length and UTF-8 bytes</tt>
+ * <br>
+ * <tt>commodity count, name indexes, description indexes</tt><br>
+ * <tt>location count, name indexes, description indexes, x coordinates,
+ * y coordinates</tt><br>
+ * <tt>price count, location offsets (location count + 1), commodity
+ * ordinals, lowest prices, highest prices</tt><br>
+ * <tt>mission count, then title, description, location id, commodity
+ * ordinal, quantity and reward for each</tt><br>
+ * <tt>start location id, money, cargo capacity, fuel capacity</tt><br>
+ * Commodities and Locations are stored in the order of their ordinals and ids
+ * and strings are referred to by their index in the string table.  The prices
+ * of Location <tt>i</tt> are entries <tt>offsets[i]</tt> up to
+ * <tt>offsets[i+1]</tt> of the price arrays.
+ * 
+ * @author Finn Kuusisto
+ */
+public class BinaryWorld {
+	
+	/**
+	 * The first four bytes of every binary world file ("SMWB").
+	 */
+	public static final int MAGIC = 0x534D5742;
+	/**
+	 * The version of the format written by this class.
+	 */
+	public static final int VERSION = 1;
+	
+	/**
+	 * Writes a game world in the binary format.  The stream is flushed but
+	 * not closed.
+	 * @param template The game world to write
+	 * @param out The stream to which to write the world
+	 * @throws IOException If the stream can't be written
+	 */
+	public static void write(WorldTemplate template, OutputStream out)
+		throws IOException {
+		DataOutputStream data =
+			new DataOutputStream(new BufferedOutputStream(out));
+		List<Commodity> commodities = template.getCommodities();
+		List<Location> locations = template.getLocations();
+		List<Mission> missions = template.getMissions();
+		
+		//gather every string into the table first
+		List<String> strings = new ArrayList<String>();
+		Map<String,Integer> stringIds = new HashMap<String,Integer>();
+		for (Commodity c : commodities) {
+			BinaryWorld.stringId(c.getName(), strings, stringIds);
+			BinaryWorld.stringId(c.getDescription(), strings, stringIds);
+		}
+		for (Location l : locations) {
+			BinaryWorld.stringId(l.getName(), strings, stringIds);
+			BinaryWorld.stringId(l.getDescription(), strings, stringIds);
+		}
+		for (Mission m : missions) {
+			BinaryWorld.stringId(m.getTitle(), strings, stringIds);
+			BinaryWorld.stringId(m.getDescription(), strings, stringIds);
+		}
+		
+		data.writeInt(BinaryWorld.MAGIC);
+		data.writeInt(BinaryWorld.VERSION);
+		data.writeInt(strings.size());
+		for (String s : strings) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			data.writeInt(bytes.length);
+			data.write(bytes);
+		}
+		
+		data.writeInt(commodities.size());
+		for (Commodity c : commodities) {
+			data.writeInt(stringIds.get(c.getName()));
+		}
+		for (Commodity c : commodities) {
+			data.writeInt(stringIds.get(c.getDescription()));
+		}
+		
+		data.writeInt(locations.size());
+		for (Location l : locations) {
+			data.writeInt(stringIds.get(l.getName()));
+		}
+		for (Location l : locations) {
+			data.writeInt(stringIds.get(l.getDescription()));
+		}
+		for (int i = 0; i < locations.size(); i++) {
+			data.writeInt(template.getX(i));
+		}
+		for (int i = 0; i < locations.size(); i++) {
+			data.writeInt(template.getY(i));
+		}
+		
+		int priceCount = 0;
+		for (Location l : locations) {
+			priceCount += l.getCommodities().size();
+		}
+		data.writeInt(priceCount);
+		int offset = 0;
+		data.writeInt(offset);
+		for (Location l : locations) {
+			offset += l.getCommodities().size();
+			data.writeInt(offset);
+		}
+		for (Location l : locations) {
+			for (Commodity c : l.getCommodities()) {
+				data.writeInt(c.getOrdinal());
+			}
+		}
+		for (Location l : locations) {
+			for (Commodity c : l.getCommodities()) {
+				data.writeInt(l.getMinPrice(c));
+			}
+		}
+		for (Location l : locations) {
+			for (Commodity c : l.getCommodities()) {
+				data.writeInt(l.getMaxPrice(c));
+			}
+		}
+		
+		data.writeInt(missions.size());
+		for (Mission m : missions) {
+			data.writeInt(stringIds.get(m.getTitle()));
+			data.writeInt(stringIds.get(m.getDescription()));
+			data.writeInt(m.getLocation().getId());
+			data.writeInt(m.getCommodity().getOrdinal());
+			data.writeInt(m.getQuantity());
+			data.writeInt(m.getReward());
+		}
+		
+		data.writeInt(template.getStartLocation().getId());
+		data.writeInt(template.getStartMoney());
+		data.writeInt(template.getStartCargoCapacity());
+		data.writeInt(template.getStartFuelCapacity());
+		data.flush();
+	}
+	
+	private static int stringId(String s, List<String> strings,
+		Map<String,Integer> stringIds) {
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = strings.size();
+			strings.add(s);
+			stringIds.put(s, id);
+		}
+		return id;
+	}
+	
+	/**
+	 * Determines whether a file holds a binary world by checking its first
+	 * four bytes.
+	 * @param filename The name of the file to check
+	 * @return true if the file starts with <tt>MAGIC</tt>, false otherwise
+	 * @throws IOException If the file can't be opened or read
+	 */
+	public static boolean isBinary(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(filename));
+		try {
+			return in.available() >= 4 && in.readInt() == BinaryWorld.MAGIC;
+		}
+		finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Loads a binary world file into a new WorldTemplate.  The file is
+	 * memory-mapped and read in place.
+	 * @param filename The name of the binary world file to load
+	 * @return The newly loaded WorldTemplate
+	 * @throws IOException If the file can't be read or isn't a valid binary
+	 * world
+	 */
+	public static WorldTemplate load(String filename) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(filename),
+			StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("World file too large to map: " +
+					filename);
+			}
+			return BinaryWorld.read(
+				channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+		}
+		finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Reads a binary world from the remaining bytes of a ByteBuffer into a
+	 * new WorldTemplate.
+	 * @param buf The bytes from which to read the world
+	 * @return The newly loaded WorldTemplate
+	 * @throws IOException If the bytes aren't a valid binary world
+	 */
+	public static WorldTemplate read(ByteBuffer buf) throws IOException {
+		try {
+			return BinaryWorld.readChecked(buf);
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("Truncated binary world");
+		}
+	}
+	
+	private static WorldTemplate readChecked(ByteBuffer buf)
+		throws IOException {
+		check(buf.getInt() == BinaryWorld.MAGIC, "Not a binary world");
+		int version = buf.getInt();
+		check(version == BinaryWorld.VERSION,
+			"Unsupported binary world version " + version);
+		WorldTemplate template = new WorldTemplate();
+		
+		String[] strings = new String[BinaryWorld.readCount(buf, 4)];
+		byte[] scratch = new byte[256];
+		for (int i = 0; i < strings.length; i++) {
+			int length = BinaryWorld.readCount(buf, 1);
+			if (length > scratch.length) {
+				scratch = new byte[Math.max(length, scratch.length * 2)];
+			}
+			buf.get(scratch, 0, length);
+			strings[i] = new String(scratch, 0, length,
+				StandardCharsets.UTF_8);
+		}
+		
+		int commodityCount = BinaryWorld.readCount(buf, 8);
+		int[] names = BinaryWorld.readInts(buf, commodityCount);
+		int[] descriptions = BinaryWorld.readInts(buf, commodityCount);
+		Commodity[] commodities = new Commodity[commodityCount];
+		for (int i = 0; i < commodityCount; i++) {
+			String name = BinaryWorld.string(strings, names[i]);
+			check(template.getCommodity(name) == null,
+				"Duplicate commodity " + name);
+			commodities[i] = template.addCommodity(name,
+				BinaryWorld.string(strings, descriptions[i]));
+		}
+		
+		int locationCount = BinaryWorld.readCount(buf, 16);
+		names = BinaryWorld.readInts(buf, locationCount);
+		descriptions = BinaryWorld.readInts(buf, locationCount);
+		int[] xs = BinaryWorld.readInts(buf, locationCount);
+		int[] ys = BinaryWorld.readInts(buf, locationCount);
+		Location[] locations = new Location[locationCount];
+		for (int i = 0; i < locationCount; i++) {
+			String name = BinaryWorld.string(strings, names[i]);
+			check(template.getLocation(name) == null,
+				"Duplicate location " + name);
+			locations[i] = template.addLocation(name,
+				BinaryWorld.string(strings, descriptions[i]), xs[i], ys[i]);
+		}
+		
+		int priceCount = BinaryWorld.readCount(buf, 12);
+		int[] offsets = BinaryWorld.readInts(buf, locationCount + 1);
+		int[] ordinals = BinaryWorld.readInts(buf, priceCount);
+		int[] mins = BinaryWorld.readInts(buf, priceCount);
+		int[] maxs = BinaryWorld.readInts(buf, priceCount);
+		check(offsets[0] == 0 && offsets[locationCount] == priceCount,
+			"Bad price offsets");
+		for (int i = 0; i < locationCount; i++) {
+			check(offsets[i] <= offsets[i + 1], "Bad price offsets");
+			for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+				check(mins[j] >= 0 && maxs[j] >= mins[j], "Bad price range");
+				locations[i].addCommodity(
+					BinaryWorld.element(commodities, ordinals[j]),
+					mins[j], maxs[j]);
+			}
+		}
+		
+		int missionCount = BinaryWorld.readCount(buf, 24);
+		for (int i = 0; i < missionCount; i++) {
+			String title = BinaryWorld.string(strings, buf.getInt());
+			String description = BinaryWorld.string(strings, buf.getInt());
+			Location location = BinaryWorld.element(locations, buf.getInt());
+			Commodity commodity =
+				BinaryWorld.element(commodities, buf.getInt());
+			int quantity = buf.getInt();
+			int reward = buf.getInt();
+			template.addMission(title, description, location, commodity,
+				quantity, reward);
+		}
+		
+		Location start = BinaryWorld.element(locations, buf.getInt());
+		int money = buf.getInt();
+		int cargoCapacity = buf.getInt();
+		int fuelCapacity = buf.getInt();
+		template.setStart(start, money, cargoCapacity, fuelCapacity);
+		template.finish();
+		return template;
+	}
+	
+	private static int readCount(ByteBuffer buf, int bytesEach)
+		throws IOException {
+		int count = buf.getInt();
+		check(count >= 0 && (long)count * bytesEach <= buf.remaining(),
+			"Bad count " + count);
+		return count;
+	}
+	
+	private static int[] readInts(ByteBuffer buf, int count) {
+		int[] ints = new int[count];
+		buf.asIntBuffer().get(ints);
+		buf.position(buf.position() + count * 4);
+		return ints;
+	}
+	
+	private static String string(String[] strings, int id)
+		throws IOException {
+		return BinaryWorld.element(strings, id);
+	}
+	
+	private static <T> T element(T[] array, int index) throws IOException {
+		check(index >= 0 && index < array.length, "Bad reference " + index);
+		return array[index];
+	}
+	
+	private static void check(boolean ok, String message) throws IOException {
+		if (!ok) {
+			throw new IOException("Bad binary world: " + message);
+		}
+	}
+	
+	/**
+	 * Checks that two game worlds are the same, field by field: every
+	 * Commodity's name and description, every Location's name, description,
+	 * coordinates and price ranges, every Mission, the Player's start and
+	 * finally the content hash (see <tt>WorldTemplate.getContentHash</tt>).
+	 * This is how a world loaded from its binary form is checked against the
+	 * same world loaded from text.
+	 * @param expected The world as it should be
+	 * @param actual The world to check
+	 * @throws IOException If the worlds differ, saying where first
+	 */
+	public static void compare(WorldTemplate expected, WorldTemplate actual)
+		throws IOException {
+		same("commodity count", expected.getCommodityCount(),
+			actual.getCommodityCount());
+		for (int i = 0; i < expected.getCommodityCount(); i++) {
+			Commodity e = expected.getCommodity(i);
+			Commodity a = actual.getCommodity(i);
+			same("commodity " + i + " name", e.getName(), a.getName());
+			same("commodity " + i + " description", e.getDescription(),
+				a.getDescription());
+		}
+		same("location count", expected.getLocationCount(),
+			actual.getLocationCount());
+		for (int i = 0; i < expected.getLocationCount(); i++) {
+			Location e = expected.getLocation(i);
+			Location a = actual.getLocation(i);
+			String where = "location " + e.getName();
+			same(where + " name", e.getName(), a.getName());
+			same(where + " description", e.getDescription(),
+				a.getDescription());
+			same(where + " x", expected.getX(i), actual.getX(i));
+			same(where + " y", expected.getY(i), actual.getY(i));
+			List<Commodity> prices = e.getCommodities();
+			same(where + " price count", prices.size(),
+				a.getCommodities().size());
+			for (int j = 0; j < prices.size(); j++) {
+				Commodity ec = prices.get(j);
+				Commodity ac = a.getCommodities().get(j);
+				same(where + " commodity " + j, ec.getOrdinal(),
+					ac.getOrdinal());
+				same(where + " " + ec.getName() + " lowest price",
+					e.getMinPrice(ec), a.getMinPrice(ac));
+				same(where + " " + ec.getName() + " highest price",
+					e.getMaxPrice(ec), a.getMaxPrice(ac));
+			}
+		}
+		List<Mission> missions = expected.getMissions();
+		same("mission count", missions.size(), actual.getMissions().size());
+		for (int i = 0; i < missions.size(); i++) {
+			Mission e = missions.get(i);
+			Mission a = actual.getMissions().get(i);
+			String where = "mission " + i;
+			same(where + " id", e.getId(), a.getId());
+			same(where + " title", e.getTitle(), a.getTitle());
+			same(where + " description", e.getDescription(),
+				a.getDescription());
+			same(where + " location", e.getLocation().getId(),
+				a.getLocation().getId());
+			same(where + " commodity", e.getCommodity().getOrdinal(),
+				a.getCommodity().getOrdinal());
+			same(where + " quantity", e.getQuantity(), a.getQuantity());
+			same(where + " reward", e.getReward(), a.getReward());
+		}
+		same("start location", expected.getStartLocation().getId(),
+			actual.getStartLocation().getId());
+		same("start money", expected.getStartMoney(),
+			actual.getStartMoney());
+		same("start cargo capacity", expected.getStartCargoCapacity(),
+			actual.getStartCargoCapacity());
+		same("start fuel capacity", expected.getStartFuelCapacity(),
+			actual.getStartFuelCapacity());
+		if (!Arrays.equals(expected.contentHash(), actual.contentHash())) {
+			throw new IOException("Worlds differ in content hash");
+		}
+	}
+	
+	private static void same(String what, Object expected, Object actual)
+		throws IOException {
+		if (!expected.equals(actual)) {
+			throw new IOException("Worlds differ in " + what + ": " +
+				expected + " and " + actual);
+		}
+	}
+	
+	/**
+	 * Loads a text world file both as text and, after converting it, as a
+	 * binary world file, and compares the two (see <tt>compare</tt>).  The
+	 * text is loaded both streamed and memory-mapped, which must agree too.
+	 * @param filename The name of the text world file
+	 * @return The size of the binary form, in bytes
+	 * @throws IOException If the file can't be read, or the two forms differ
+	 * @throws WorldParseException If the file isn't a valid world
+	 */
+	public static int checkRoundTrip(String filename) throws IOException,
+		WorldParseException {
+		WorldTemplate text;
+		InputStream in = new FileInputStream(filename);
+		try {
+			text = WorldTemplate.load(in);
+		}
+		finally {
+			in.close();
+		}
+		BinaryWorld.compare(text, WorldTemplate.loadMapped(filename));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryWorld.write(text, bytes);
+		//through a file, as the binary form is normally loaded
+		File file = File.createTempFile("world", ".smw");
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				bytes.writeTo(out);
+			}
+			finally {
+				out.close();
+			}
+			BinaryWorld.compare(text,
+				WorldTemplate.load(file.getPath()));
+		}
+		finally {
+			file.delete();
+		}
+		return bytes.size();
+	}
+	
+	/**
+	 * Checks that the streaming and memory-mapped loaders of text world
+	 * files agree about the order of sections, with the sections of a text
+	 * world file rearranged: with its MISSIONS section moved before PRICES,
+	 * which both loaders must accept and load to the same world, and with
+	 * its sections reversed, so that names are used before they are defined,
+	 * which both must reject with the same error.
+	 * @param filename The name of the text world file
+	 * @throws IOException If the file can't be read, or the loaders disagree
+	 */
+	public static void checkLoaders(String filename) throws IOException {
+		byte[] bytes = Files.readAllBytes(Paths.get(filename));
+		List<String> sections = BinaryWorld.splitSections(
+			new String(bytes, StandardCharsets.UTF_8));
+		List<String> early = new ArrayList<String>(sections);
+		int prices = BinaryWorld.findSection(early, "PRICES:");
+		int missions = BinaryWorld.findSection(early, "MISSIONS:");
+		if (prices < 0 || missions < 0) {
+			throw new IOException("No PRICES and MISSIONS sections to move");
+		}
+		early.add(prices, early.remove(missions));
+		List<String> reversed = new ArrayList<String>(sections.subList(1,
+			sections.size()));
+		Collections.reverse(reversed);
+		reversed.add(0, sections.get(0));
+		String[] loaded = new String[2];
+		for (int i = 0; i < 2; i++) {
+			List<String> order = (i == 0) ? early : reversed;
+			StringBuilder text = new StringBuilder();
+			for (String section : order) { text.append(section); }
+			File file = File.createTempFile("world", ".world");
+			try {
+				Files.write(file.toPath(),
+					text.toString().getBytes(StandardCharsets.UTF_8));
+				WorldTemplate streamed = null;
+				WorldTemplate mapped = null;
+				String streamError = null;
+				String mapError = null;
+				InputStream in = new FileInputStream(file);
+				try {
+					streamed = WorldTemplate.load(in);
+				}
+				catch (WorldParseException e) {
+					streamError = e.getMessage();
+				}
+				finally {
+					in.close();
+				}
+				try {
+					mapped = WorldTemplate.loadMapped(file.getPath());
+				}
+				catch (WorldParseException e) {
+					mapError = e.getMessage();
+				}
+				if (streamed != null && mapped != null) {
+					BinaryWorld.compare(streamed, mapped);
+					loaded[i] = "loaded";
+				}
+				else if (streamError != null &&
+					streamError.equals(mapError)) {
+					loaded[i] = "rejected";
+				}
+				else {
+					throw new IOException("Loaders disagree on sections in " +
+						((i == 0) ? "another" : "reverse") + " order: " +
+						((streamError == null) ? "loaded" : streamError) +
+						" and " + ((mapError == null) ? "loaded" : mapError));
+				}
+			}
+			finally {
+				file.delete();
+			}
+		}
+		if (!loaded[0].equals("loaded") || !loaded[1].equals("rejected")) {
+			throw new IOException("Sections in another order were " +
+				loaded[0] + " and in reverse order were " + loaded[1]);
+		}
+	}
+	
+	/**
+	 * Splits the text of a world file into whatever comes before the first
+	 * section, then each section from its header line to the next header.
+	 */
+	private static List<String> splitSections(String text) {
+		List<String> sections = new ArrayList<String>();
+		int start = 0;
+		int line = 0;
+		while (line < text.length()) {
+			int end = text.indexOf('\n', line);
+			end = (end < 0) ? text.length() : end + 1;
+			if (text.substring(line, end).trim().matches("[A-Z]+:")) {
+				sections.add(text.substring(start, line));
+				start = line;
+			}
+			line = end;
+		}
+		sections.add(text.substring(start));
+		return sections;
+	}
+	
+	private static int findSection(List<String> sections, String header) {
+		for (int i = 1; i < sections.size(); i++) {
+			if (sections.get(i).trim().startsWith(header)) { return i; }
+		}
+		return -1;
+	}
+	
+	/**
+	 * Converts a text world file into a binary world file, or with
+	 * <tt>-check</tt> checks that each of some text world files loads to
+	 * the same world in both forms.
+	 * @param args The name of the text world file to read and the name of
+	 * the binary world file to write, or <tt>-check</tt> and the names of
+	 * the text world files to check
+	 */
+	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("-check")) {
+			BinaryWorld.checkAll(args);
+			return;
+		}
+		if (args.length != 2) {
+			System.out.println("Usage: BinaryWorld <text world> " +
+				"<binary world>\n       BinaryWorld -check <text world>...");
+			System.exit(1);
+		}
+		try {
+			WorldTemplate template = WorldTemplate.load(args[0]);
+			OutputStream out = new FileOutputStream(args[1]);
+			try {
+				BinaryWorld.write(template, out);
+			}
+			finally {
+				out.close();
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Failed converting " + args[0] + ": " +
+				e.getMessage());
+			System.exit(1);
+		}
+		catch (WorldParseException e) {
+			System.out.println("Failed parsing " + args[0] + "! " +
+				e.getMessage());
+			System.exit(1);
+		}
+	}
+	
+	private static void checkAll(String[] args) {
+		boolean failed = false;
+		for (int i = 1; i < args.length; i++) {
+			try {
+				int size = BinaryWorld.checkRoundTrip(args[i]);
+				BinaryWorld.checkLoaders(args[i]);
+				System.out.println(args[i] + ": same as text and binary (" +
+					size + " bytes), and with both text loaders");
+			}
+			catch (IOException e) {
+				System.out.println(args[i] + ": " + e.getMessage());
+				failed = true;
+			}
+			catch (WorldParseException e) {
+				System.out.println("Failed parsing " + args[i] + "! " +
+					e.getMessage());
+				failed = true;
+			}
+		}
+		if (failed) { System.exit(1); }
+	}
+	
+}
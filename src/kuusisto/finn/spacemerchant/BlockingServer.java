@@ -0,0 +1,369 @@
+package kuusisto.finn.spacemerchant;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The BlockingServer class plays the game with many users at once over TCP,
+ * with a thread for each connection that plays the game just as the console
+ * game does: it waits for a command with a UserInterface on the connection's
+ * streams, carries it out with a BatchRunner and writes the result.  This is
+ * simpler than the GameServer's Selectors.  On a Java runtime with virtual
+ * threads every session gets one of those, which should make an idle
+ * player cheap, though that hasn't been measured yet.  On older runtimes the
+ * sessions fall back to ordinary threads, which works the same but costs a
+ * platform thread and its stack for every player; <tt>usesVirtualThreads</tt>
+ * tells which, and IdleLoadTest measures what idle sessions cost.
+ * <br>
+ * A session whose connection is lost before the game is over is kept in a
+ * SessionStore, from which the player can resume it by connecting again
+ * (see ServerSession), even after the server restarts if the store keeps a
+ * file (see <tt>setSessionStore</tt>).
+ * <br>
+ * Sessions can be logged to an ActionJournal (see <tt>setJournal</tt>),
+ * each by its seed, which is as good as unique.  When run on a world file,
+ * the file is reloaded whenever it changes, and each session moves to the
+ * new world at its next travel (see TemplateHolder), except while sessions
+ * are logged to a journal: a journal is only for the world the server
+ * started with, so the world is then frozen, and a change to the file is
+ * reported with a warning but not played until the server is restarted.
+ * <br>
+ * It can also be run on a world file:<br>
+ * <tt>java kuusisto.finn.spacemerchant.BlockingServer world_file
+ * [port [journal_file [store_file]]]</tt>
+ * 
+ * @author Finn Kuusisto
+ */
+public class BlockingServer {
+	
+	/**
+	 * The port on which the server listens when none is given.
+	 */
+	public static final int DEFAULT_PORT = 4041;
+	
+	//connections waiting to be accepted; the usual 50 is soon filled when
+	//thousands of players connect at once
+	private static final int BACKLOG = 1024;
+	//how long to stop accepting, in milliseconds, when accepting fails
+	private static final long ACCEPT_PAUSE = 100;
+	
+	private final TemplateHolder holder;
+	private final long seed;
+	private final ServerSocket server;
+	private final ExecutorService sessions;
+	private final boolean virtualThreads;
+	private final Set<Socket> sockets;
+	private SessionStore store;
+	private Thread acceptor;
+	private ActionJournal journal;
+	
+	/**
+	 * Constructs a new BlockingServer and binds it to an address.  It
+	 * doesn't accept any connections until it is started.
+	 * @param template The game world in which every session is played
+	 * @param address The address on which to listen, with port 0 for any
+	 * free port
+	 * @param seed The base seed from which every session's seed is made
+	 * @throws IOException If the address can't be bound
+	 */
+	public BlockingServer(WorldTemplate template, InetSocketAddress address,
+		long seed) throws IOException {
+		this(new TemplateHolder(template), address, seed);
+	}
+	
+	/**
+	 * Constructs a new BlockingServer for a game world that may be reloaded,
+	 * and binds it to an address.  New sessions start in the current version
+	 * of the world.
+	 * @param holder The holder of the game world in which sessions are played
+	 * @param address The address on which to listen, with port 0 for any
+	 * free port
+	 * @param seed The base seed from which every session's seed is made
+	 * @throws IOException If the address can't be bound
+	 */
+	public BlockingServer(TemplateHolder holder, InetSocketAddress address,
+		long seed) throws IOException {
+		this.holder = holder;
+		this.seed = seed;
+		this.server = new ServerSocket();
+		this.server.bind(address, BACKLOG);
+		ExecutorService virtual = BlockingServer.newVirtualThreadExecutor();
+		this.virtualThreads = virtual != null;
+		this.sessions = this.virtualThreads ? virtual :
+			Executors.newCachedThreadPool();
+		this.sockets = ConcurrentHashMap.newKeySet();
+		this.store = new SessionStore();
+	}
+	
+	/**
+	 * Get the port on which the server is listening.
+	 * @return The local port
+	 */
+	public int getPort() {
+		return this.server.getLocalPort();
+	}
+	
+	/**
+	 * Indicates whether each session runs on a virtual thread, or on a
+	 * pooled ordinary thread because the Java runtime has no virtual threads.
+	 * @return true if sessions run on virtual threads
+	 */
+	public boolean usesVirtualThreads() {
+		return this.virtualThreads;
+	}
+	
+	/**
+	 * Logs every session to a journal from now on.  This must be set before
+	 * the server is started.  A journal is only for one version of the game
+	 * world, so this freezes the server's TemplateHolder, and the world is
+	 * never reloaded again (see <tt>TemplateHolder.freeze</tt>).
+	 * @param journal The journal to which to log sessions, or null for none
+	 * @throws IllegalArgumentException If the journal isn't for the current
+	 * version of the game world
+	 */
+	public void setJournal(ActionJournal journal) {
+		if (journal != null) {
+			this.holder.freeze("sessions are logged to a journal, which is " +
+				"only for the world the server started with");
+			if (!journal.isFor(this.holder.get())) {
+				throw new IllegalArgumentException(
+					"The journal is for another world");
+			}
+		}
+		this.journal = journal;
+	}
+	
+	/**
+	 * Saves cut-off sessions to a store, such as one that keeps them in a
+	 * file so that they can be resumed after the server restarts, instead of
+	 * the store in memory that the server starts with.  This must be set
+	 * before the server is started.
+	 * @param store The store to which to save sessions
+	 */
+	public void setSessionStore(SessionStore store) {
+		this.store = store;
+	}
+	
+	/**
+	 * Starts the thread that accepts connections.
+	 */
+	public void start() {
+		this.acceptor = new Thread(new Runnable() {
+			public void run() {
+				BlockingServer.this.accept();
+			}
+		}, "BlockingServer-accept");
+		this.acceptor.start();
+	}
+	
+	/**
+	 * Waits for the server to stop accepting, which it does once it is
+	 * closed.
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public void join() throws InterruptedException {
+		if (this.acceptor != null) { this.acceptor.join(); }
+	}
+	
+	/**
+	 * Stops the server, closing every connection, which saves or ends every
+	 * session as if the player had been cut off (see
+	 * <tt>ServerSession.disconnect</tt>).
+	 * @throws IOException If the listening socket can't be closed
+	 * @throws InterruptedException If interrupted while waiting for the
+	 * sessions to end
+	 */
+	public void close() throws IOException, InterruptedException {
+		this.server.close();
+		this.join();
+		for (Socket socket : this.sockets) {
+			socket.close();
+		}
+		this.sessions.shutdown();
+		this.sessions.awaitTermination(10, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Accepts connections until the server is closed, starting a session
+	 * for each.
+	 */
+	private void accept() {
+		long count = 0;
+		while (!this.server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = this.server.accept();
+			}
+			catch (IOException e) {
+				if (!this.server.isClosed()) {
+					//most likely out of file descriptors, which won't be
+					//fixed by trying again straight away
+					System.out.println("Failed to accept: " + e.getMessage());
+					try { Thread.sleep(ACCEPT_PAUSE); }
+					catch (InterruptedException ie) { return; }
+				}
+				continue;
+			}
+			final long sessionSeed = SplitMixRandom.mix64(
+				this.seed + count * SplitMixRandom.GOLDEN_GAMMA);
+			count++;
+			this.sockets.add(socket);
+			this.sessions.execute(new Runnable() {
+				public void run() {
+					BlockingServer.this.play(socket, sessionSeed);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Plays one game over a connection until the player quits or wins, or
+	 * the connection is lost, in which case the session is saved.  Each
+	 * response is sent once the session is synced to the journal.
+	 */
+	private void play(Socket socket, long sessionSeed) {
+		ServerSession session = null;
+		boolean failed = false;
+		try {
+			socket.setTcpNoDelay(true);
+			session = new ServerSession(this.holder, this.store, this.journal,
+				sessionSeed);
+			UserInterface ui = new UserInterface(socket.getInputStream(),
+				socket.getOutputStream(), StandardCharsets.UTF_8);
+			StringBuilder out = new StringBuilder();
+			session.welcome(out);
+			ui.print(out);
+			while (!session.isOver()) {
+				Action action = ui.nextAction();
+				if (ui.isAtEnd()) { break; }
+				out.setLength(0);
+				session.execute(action, out);
+				//nothing is shown until what it depends on is on disk
+				session.sync();
+				ui.print(out);
+			}
+		}
+		catch (IOException e) {
+			//the connection is gone, and the session is saved below
+		}
+		catch (RuntimeException e) {
+			System.out.println("Session failed: " + e);
+			failed = true;
+		}
+		finally {
+			if (session != null) {
+				//a session that failed isn't worth saving
+				if (failed) { session.end(); }
+				else { session.disconnect(); }
+			}
+			this.sockets.remove(socket);
+			try { socket.close(); }
+			catch (IOException e) { }
+		}
+	}
+	
+	/**
+	 * Makes an executor that runs each session on a new virtual thread, if
+	 * the Java runtime has them.  Virtual threads are found by reflection so
+	 * that the game still builds and runs on runtimes without them.
+	 * @return The executor, or null if there are no virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method method = Executors.class.getMethod(
+				"newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)method.invoke(null);
+		}
+		catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Serves a world file until the process is killed.
+	 * @param args The world file, then optionally the port (4041), a
+	 * journal file and a file in which to keep cut-off sessions
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: BlockingServer <world file> [port " +
+				"[journal file [store file]]]");
+			System.exit(1);
+		}
+		int port = (args.length > 1) ? Integer.parseInt(args[1]) :
+			DEFAULT_PORT;
+		TemplateHolder holder = null;
+		try {
+			holder = new TemplateHolder(args[0]);
+		}
+		catch (IOException e) {
+			System.out.println("Failed to open world file: " + args[0]);
+			System.exit(1);
+		}
+		catch (WorldParseException e) {
+			System.out.println("Failed parsing " + args[0] + "! " +
+				e.getMessage());
+			System.exit(1);
+		}
+		ActionJournal journal = null;
+		if (args.length > 2) {
+			try {
+				journal = ActionJournal.open(holder.get(), args[2]);
+			}
+			catch (IOException e) {
+				System.out.println("Failed to open journal " + args[2] +
+					": " + e.getMessage());
+				System.exit(1);
+			}
+		}
+		if (journal != null) {
+			System.out.println("WARNING: sessions are logged to " +
+				args[2] + ", so " + args[0] + " will NOT be reloaded if " +
+				"it changes.");
+		}
+		SessionStore store = null;
+		if (args.length > 3) {
+			try {
+				store = new SessionStore(args[3], holder.get());
+			}
+			catch (IOException e) {
+				System.out.println("Failed to open session store " +
+					args[3] + ": " + e.getMessage());
+				System.exit(1);
+			}
+			System.out.println(store.size() + " saved sessions in " +
+				args[3] + (store.getDroppedCount() == 0 ? "" : ", " +
+				store.getDroppedCount() + " of another world dropped"));
+		}
+		try {
+			holder.watch(TemplateHolder.WATCH_INTERVAL);
+			BlockingServer server = new BlockingServer(holder,
+				new InetSocketAddress(port), System.currentTimeMillis());
+			server.setJournal(journal);
+			if (store != null) { server.setSessionStore(store); }
+			server.start();
+			System.out.println("Serving " + args[0] + " on port " +
+				server.getPort() + (server.usesVirtualThreads() ?
+				" with a virtual thread per session" :
+				" with pooled threads (no virtual threads on this runtime)"));
+			server.join();
+		}
+		catch (IOException e) {
+			System.out.println("Failed to listen on port " + port + ": " +
+				e.getMessage());
+			System.exit(1);
+		}
+		catch (InterruptedException e) {
+			System.exit(1);
+		}
+	}
+	
+}
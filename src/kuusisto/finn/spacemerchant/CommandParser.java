@@ -0,0 +1,161 @@
+package kuusisto.finn.spacemerchant;
+
+/**
+ * The CommandParser class parses lines of input into Actions in the forms
+ * listed by "list commands".  It reads the characters of the line in place
+ * and fills in an Action that can be reused for every line, so that parsing
+ * a command allocates nothing.  The command word is matched in any case and
+ * the quantity of "buy" and "sell" is read in the same pass that checks it.
+ * <br>
+ * The Action refers back to the parsed characters for its name (see
+ * <tt>Action.getNameSource</tt>), so they mustn't change while it is in use.
+ * 
+ * @author Finn Kuusisto
+ */
+public class CommandParser {
+	
+	/**
+	 * Parses a whole line of input into an Action.
+	 * @param line The line of input to parse
+	 * @param action The Action to fill in
+	 * @return true if the line is a valid command, false otherwise, in which
+	 * case the Action is left as it was
+	 */
+	public static boolean parse(CharSequence line, Action action) {
+		return CommandParser.parse(line, 0, line.length(), action);
+	}
+	
+	/**
+	 * Parses part of a line of input into an Action.  Leading and trailing
+	 * whitespace is ignored.  The command word ends at the first space, as
+	 * does the quantity of "buy" and "sell"; the name is the rest of the
+	 * line after that.
+	 * @param line The characters holding the input
+	 * @param start The index of the first character of the input
+	 * @param end The index after the last character of the input
+	 * @param action The Action to fill in
+	 * @return true if the input is a valid command, false otherwise, in which
+	 * case the Action is left as it was
+	 */
+	public static boolean parse(CharSequence line, int start, int end,
+		Action action) {
+		//trim
+		while (start < end && line.charAt(start) <= ' ') { start++; }
+		while (end > start && line.charAt(end - 1) <= ' ') { end--; }
+		int firstSpace = CommandParser.indexOfSpace(line, start, end);
+		int verb = CommandParser.matchVerb(line, start,
+			(firstSpace == -1) ? end : firstSpace);
+		switch (verb) {
+			case Action.QUIT:
+				if (firstSpace != -1) { return false; }
+				action.set(Action.QUIT, -1, null, 0, 0);
+				return true;
+			case Action.TRAVEL:
+			case Action.LIST:
+			case Action.RESUME:
+				if (firstSpace == -1) { return false; }
+				action.set(verb, -1, line, firstSpace + 1, end);
+				return true;
+			case Action.BUY:
+			case Action.SELL:
+				if (firstSpace == -1) { return false; }
+				int secondSpace = CommandParser.indexOfSpace(line,
+					firstSpace + 1, end);
+				if (secondSpace == -1) { return false; }
+				long quantity = CommandParser.parseInt(line, firstSpace + 1,
+					secondSpace);
+				if (quantity == Long.MIN_VALUE) { return false; }
+				action.set(verb, (int)quantity, line, secondSpace + 1, end);
+				return true;
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * Finds the command word, in any case.
+	 * @return The Action value of the command word, or 0 if it isn't one
+	 */
+	private static int matchVerb(CharSequence line, int start, int end) {
+		switch (end - start) {
+			case 3:
+				return CommandParser.matches(line, start, "buy") ?
+					Action.BUY : 0;
+			case 4:
+				switch (Character.toLowerCase(line.charAt(start))) {
+					case 's':
+						return CommandParser.matches(line, start, "sell") ?
+							Action.SELL : 0;
+					case 'l':
+						return CommandParser.matches(line, start, "list") ?
+							Action.LIST : 0;
+					case 'q':
+						return CommandParser.matches(line, start, "quit") ?
+							Action.QUIT : 0;
+				}
+				return 0;
+			case 6:
+				switch (Character.toLowerCase(line.charAt(start))) {
+					case 't':
+						return CommandParser.matches(line, start, "travel") ?
+							Action.TRAVEL : 0;
+					case 'r':
+						return CommandParser.matches(line, start, "resume") ?
+							Action.RESUME : 0;
+				}
+				return 0;
+		}
+		return 0;
+	}
+	
+	/**
+	 * Indicates whether the characters starting at an index are a lower case
+	 * word, ignoring their case.
+	 */
+	private static boolean matches(CharSequence line, int start,
+		String word) {
+		for (int i = 0; i < word.length(); i++) {
+			char c = line.charAt(start + i);
+			if (c != word.charAt(i) &&
+				Character.toLowerCase(c) != word.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static int indexOfSpace(CharSequence line, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (line.charAt(i) == ' ') { return i; }
+		}
+		return -1;
+	}
+	
+	/**
+	 * Parses a decimal int with an optional sign, as
+	 * <tt>Integer.parseInt</tt> does, without throwing for bad input.
+	 * @return The int, or Long.MIN_VALUE if the characters aren't one
+	 */
+	private static long parseInt(CharSequence line, int start, int end) {
+		boolean negative = false;
+		if (start < end) {
+			char c = line.charAt(start);
+			if (c == '-' || c == '+') {
+				negative = (c == '-');
+				start++;
+			}
+		}
+		if (start == end) { return Long.MIN_VALUE; }
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = Character.digit(line.charAt(i), 10);
+			if (digit < 0) { return Long.MIN_VALUE; }
+			value = value * 10 + digit;
+			if (value > (long)Integer.MAX_VALUE + 1) { return Long.MIN_VALUE; }
+		}
+		if (negative) { value = -value; }
+		if (value > Integer.MAX_VALUE) { return Long.MIN_VALUE; }
+		return value;
+	}
+	
+}
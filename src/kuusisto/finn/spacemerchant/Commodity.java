@@ -1,23 +1,43 @@
 package kuusisto.finn.spacemerchant;
 /**
  * The Commodity class represents a commodity that can be bought and sold in a
- * text-based game.  Each Commodity has a name and a description.
+ * text-based game.  Each Commodity has an ordinal, a name and a description.
+ * Ordinals are dense, starting from 0 in the order the Commodities are loaded,
+ * so they can be used to index arrays of per-Commodity values.  Commodities
+ * are interned by a CommodityRegistry, so there is only ever one Commodity
+ * with a given name in a game world.
  * 
  * @author Finn Kuusisto
  */
 public class Commodity {
 
+	private int ordinal;
 	private String name;
 	private String description;
+	private int hash;
 	
 	/**
-	 * Construct a Commodity with the specified name and description.
+	 * Construct a Commodity with the specified ordinal, name and description.
+	 * Use <tt>CommodityRegistry.intern</tt> rather than calling this
+	 * directly so that the Commodity is canonical.
+	 * @param ordinal The position of this Commodity in its game world's
+	 * Commodities
 	 * @param name The name of this Commodity
 	 * @param description The description of this Commodity
 	 */
-	public Commodity(String name, String description) {
+	public Commodity(int ordinal, String name, String description) {
+		this.ordinal = ordinal;
 		this.name = name;
 		this.description = description;
+		this.hash = name.hashCode();
+	}
+	
+	/**
+	 * Gets the ordinal of a Commodity.
+	 * @return The position of this Commodity in its game world's Commodities
+	 */
+	public int getOrdinal() {
+		return this.ordinal;
 	}
 	
 	/**
@@ -37,13 +57,20 @@ public class Commodity {
 	}
 	
 	/**
-	 * Determines whether two Commodities are the same Commodity.  It simply
-	 * matches them by name.
+	 * Determines whether two Commodities are the same Commodity.  Since
+	 * Commodities are interned, there is only one object per name and this
+	 * simply compares identity.
 	 */
 	public boolean equals(Object o) {
-		if (!(o instanceof Commodity)) { return false; }
-		Commodity other = (Commodity)o;
-		return this.name.equals(other.name);
+		return this == o;
+	}
+	
+	/**
+	 * Gets a hash code for a Commodity.  It is computed once from the name, so
+	 * it is the same from run to run.
+	 */
+	public int hashCode() {
+		return this.hash;
 	}
 	
 }
@@ -0,0 +1,81 @@
+package kuusisto.finn.spacemerchant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The CommodityRegistry class interns the Commodities of a game world.  There
+ * is exactly one Commodity object for each name in a registry, and each is
+ * given the next ordinal as it is added.  Since Commodities are canonical,
+ * they can be compared by identity and used as keys in hash-based
+ * collections.
+ * 
+ * @author Finn Kuusisto
+ */
+public class CommodityRegistry {
+	
+	private Map<String,Commodity> byName;
+	private List<Commodity> byOrdinal;
+	
+	/**
+	 * Constructs a new, empty CommodityRegistry.
+	 */
+	public CommodityRegistry() {
+		this.byName = new HashMap<String,Commodity>();
+		this.byOrdinal = new ArrayList<Commodity>();
+	}
+	
+	/**
+	 * Gets the canonical Commodity with a name, creating it with the given
+	 * description and the next ordinal if the registry doesn't have it yet.
+	 * @param name The name of the Commodity
+	 * @param description The description to use if the Commodity is new
+	 * @return The one Commodity in this registry with the given name
+	 */
+	public Commodity intern(String name, String description) {
+		Commodity c = this.byName.get(name);
+		if (c == null) {
+			c = new Commodity(this.byOrdinal.size(), name, description);
+			this.byName.put(name, c);
+			this.byOrdinal.add(c);
+		}
+		return c;
+	}
+	
+	/**
+	 * Gets a Commodity by its name.
+	 * @param name The name of the desired Commodity
+	 * @return The Commodity with the given name, or null if there is none
+	 */
+	public Commodity get(String name) {
+		return this.byName.get(name);
+	}
+	
+	/**
+	 * Gets a Commodity by its ordinal.
+	 * @param ordinal The ordinal of the desired Commodity
+	 * @return The Commodity with the given ordinal
+	 */
+	public Commodity get(int ordinal) {
+		return this.byOrdinal.get(ordinal);
+	}
+	
+	/**
+	 * Gets the number of Commodities in the registry.
+	 * @return The number of Commodities
+	 */
+	public int size() {
+		return this.byOrdinal.size();
+	}
+	
+	/**
+	 * Gets all of the Commodities in the registry in order of their ordinals.
+	 * @return An unmodifiable list of the Commodities
+	 */
+	public List<Commodity> getCommodities() {
+		return Collections.unmodifiableList(this.byOrdinal);
+	}
+	
+}
@@ -0,0 +1,776 @@
+package kuusisto.finn.spacemerchant;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The GameServer class plays the game with many users at once over TCP.  Each
+ * connection gets its own game session, a new World of the same WorldTemplate
+ * with its own seed, and talks to it in the same commands as the console
+ * game, one per line.  The connections are shared out among a few threads,
+ * each of which waits on its own Selector and never blocks on any one
+ * connection.
+ * <br>
+ * Every connection has a fixed-size buffer for the line being received and
+ * another for the bytes being sent, so a session costs little more than its
+ * World however many connections are open.  A line longer than
+ * <tt>MAX_LINE</tt> bytes is answered as invalid and thrown away.  While the
+ * response to a command is still being sent, no more commands are read from
+ * that connection, so a client that doesn't read can't make the server hold
+ * more than one response for it.  The connection is closed once the player
+ * quits or wins, or if their session fails, which leaves every other
+ * session running.  A session whose connection is lost before the game is
+ * over is kept in a SessionStore, from which the player can resume it by
+ * connecting again (see ServerSession), even after the server restarts if
+ * the store keeps a file (see <tt>setSessionStore</tt>).  LoopbackClient
+ * checks a server over the loopback interface, and ResumeTest checks
+ * resuming across a restart.
+ * <br>
+ * Sessions can be logged to an ActionJournal (see <tt>setJournal</tt>),
+ * each by its seed, which is as good as unique.  A response that depends on
+ * logged Actions is held back until they are on disk, without waiting for
+ * them: each Loop gathers the responses it has held back since it last
+ * waited on its Selector, and the journal's writer hands them back, waking
+ * the Selector, once a single force has made them all durable.  All of the
+ * lines a connection has ready are run before its response is held, so a
+ * client that sends many commands at once waits for one force, not one per
+ * command.
+ * <br>
+ * When run on a world file, the file is reloaded whenever it changes, and
+ * each session moves to the new world at its next travel (see
+ * TemplateHolder), except while sessions are logged to a journal: a journal
+ * is only for the world the server started with, so the world is then
+ * frozen, and a change to the file is reported with a warning but not
+ * played until the server is restarted.
+ * <br>
+ * It can also be run on a world file:<br>
+ * <tt>java kuusisto.finn.spacemerchant.GameServer world_file [port
+ * [threads [journal_file [store_file]]]]</tt>
+ * 
+ * @author Finn Kuusisto
+ */
+public class GameServer {
+	
+	/**
+	 * The port on which the server listens when none is given.
+	 */
+	public static final int DEFAULT_PORT = 4040;
+	/**
+	 * The longest line, in bytes, accepted as a command.
+	 */
+	public static final int MAX_LINE = 256;
+	/**
+	 * The size, in bytes, of each connection's buffer for outgoing text.
+	 */
+	public static final int OUTPUT_BUFFER = 4096;
+	/**
+	 * The text sent to ask for the next command.
+	 */
+	public static final String PROMPT = "What would you like to do?\n>";
+	
+	//connections waiting to be accepted; the usual 50 is soon filled when
+	//thousands of players connect at once
+	private static final int BACKLOG = 1024;
+	//how long to stop accepting, in milliseconds, when accepting fails
+	private static final long ACCEPT_PAUSE = 100;
+	
+	private final TemplateHolder holder;
+	private final long seed;
+	private final ServerSocketChannel server;
+	private final Loop[] loops;
+	private final Thread[] threads;
+	private SessionStore store;
+	private volatile boolean running;
+	private ActionJournal journal;
+	//only touched by the thread of the first Loop, which accepts
+	private long sessions;
+	
+	/**
+	 * Constructs a new GameServer and binds it to an address.  It doesn't
+	 * accept any connections until it is started.
+	 * @param template The game world in which every session is played
+	 * @param address The address on which to listen, with port 0 for any
+	 * free port
+	 * @param threads The number of threads that serve connections
+	 * @param seed The base seed from which every session's seed is made
+	 * @throws IOException If the address can't be bound
+	 */
+	public GameServer(WorldTemplate template, InetSocketAddress address,
+		int threads, long seed) throws IOException {
+		this(new TemplateHolder(template), address, threads, seed);
+	}
+	
+	/**
+	 * Constructs a new GameServer for a game world that may be reloaded, and
+	 * binds it to an address.  New sessions start in the current version of
+	 * the world.
+	 * @param holder The holder of the game world in which sessions are played
+	 * @param address The address on which to listen, with port 0 for any
+	 * free port
+	 * @param threads The number of threads that serve connections
+	 * @param seed The base seed from which every session's seed is made
+	 * @throws IOException If the address can't be bound
+	 */
+	public GameServer(TemplateHolder holder, InetSocketAddress address,
+		int threads, long seed) throws IOException {
+		this.holder = holder;
+		this.seed = seed;
+		this.server = ServerSocketChannel.open();
+		this.server.bind(address, BACKLOG);
+		this.server.configureBlocking(false);
+		this.loops = new Loop[Math.max(1, threads)];
+		this.threads = new Thread[this.loops.length];
+		this.store = new SessionStore();
+		for (int i = 0; i < this.loops.length; i++) {
+			this.loops[i] = new Loop(Selector.open());
+		}
+		this.server.register(this.loops[0].selector, SelectionKey.OP_ACCEPT);
+	}
+	
+	/**
+	 * Get the port on which the server is listening.
+	 * @return The local port
+	 * @throws IOException If the server is closed
+	 */
+	public int getPort() throws IOException {
+		return ((InetSocketAddress)this.server.getLocalAddress()).getPort();
+	}
+	
+	/**
+	 * Logs every session to a journal from now on.  This must be set before
+	 * the server is started.  A journal is only for one version of the game
+	 * world, so this freezes the server's TemplateHolder, and the world is
+	 * never reloaded again (see <tt>TemplateHolder.freeze</tt>).
+	 * @param journal The journal to which to log sessions, or null for none
+	 * @throws IllegalArgumentException If the journal isn't for the current
+	 * version of the game world
+	 */
+	public void setJournal(ActionJournal journal) {
+		if (journal != null) {
+			this.holder.freeze("sessions are logged to a journal, which is " +
+				"only for the world the server started with");
+			if (!journal.isFor(this.holder.get())) {
+				throw new IllegalArgumentException(
+					"The journal is for another world");
+			}
+		}
+		this.journal = journal;
+	}
+	
+	/**
+	 * Saves cut-off sessions to a store, such as one that keeps them in a
+	 * file so that they can be resumed after the server restarts, instead of
+	 * the store in memory that the server starts with.  This must be set
+	 * before the server is started.
+	 * @param store The store to which to save sessions
+	 */
+	public void setSessionStore(SessionStore store) {
+		this.store = store;
+	}
+	
+	/**
+	 * Starts the threads that accept and serve connections.
+	 */
+	public void start() {
+		this.running = true;
+		for (int i = 0; i < this.loops.length; i++) {
+			this.threads[i] = new Thread(this.loops[i], "GameServer-" + i);
+			this.threads[i].start();
+		}
+	}
+	
+	/**
+	 * Waits for the server's threads to finish, which they do once the
+	 * server is closed.
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public void join() throws InterruptedException {
+		for (Thread thread : this.threads) {
+			if (thread != null) { thread.join(); }
+		}
+	}
+	
+	/**
+	 * Stops the server, closing every connection, which saves or ends every
+	 * session as if the player had been cut off (see
+	 * <tt>ServerSession.disconnect</tt>).
+	 * @throws IOException If the listening socket can't be closed
+	 * @throws InterruptedException If interrupted while waiting for the
+	 * server's threads to finish
+	 */
+	public void close() throws IOException, InterruptedException {
+		this.running = false;
+		for (Loop loop : this.loops) {
+			loop.selector.wakeup();
+		}
+		this.join();
+		this.server.close();
+	}
+	
+	/**
+	 * Accepts every waiting connection and hands each, with a new game
+	 * session, to one of the Loops in turn.
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = this.server.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			long sessionSeed = SplitMixRandom.mix64(
+				this.seed + this.sessions * SplitMixRandom.GOLDEN_GAMMA);
+			ServerSession session = new ServerSession(this.holder,
+				this.store, this.journal, sessionSeed);
+			Loop loop = this.loops[(int)(this.sessions % this.loops.length)];
+			this.sessions++;
+			loop.incoming.add(new Connection(channel, session));
+			loop.selector.wakeup();
+		}
+	}
+	
+	/**
+	 * A Loop serves its share of the connections on one thread, waiting on
+	 * its own Selector until any of them can be read or written.
+	 */
+	private class Loop implements Runnable {
+		
+		private final Selector selector;
+		private final Queue<Connection> incoming;
+		//connections whose responses were held back since the last select
+		private List<Connection> held;
+		//held responses handed back by the journal once it's durable
+		private final Queue<Synced> synced;
+		//shared by all of this Loop's connections, which use them in turn
+		private final CharsetEncoder encoder;
+		private final CharsetDecoder decoder;
+		private final CharBuffer chars;
+		private final Action action;
+		//when to accept again after failing to, or 0 if accepting
+		private long resumeAccept;
+		
+		public Loop(Selector selector) {
+			this.selector = selector;
+			this.incoming = new ConcurrentLinkedQueue<Connection>();
+			this.held = new ArrayList<Connection>();
+			this.synced = new ConcurrentLinkedQueue<Synced>();
+			this.encoder = StandardCharsets.UTF_8.newEncoder();
+			this.decoder = StandardCharsets.UTF_8.newDecoder();
+			this.decoder.onMalformedInput(CodingErrorAction.REPLACE);
+			this.decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.chars = CharBuffer.allocate(MAX_LINE);
+			this.action = new Action();
+		}
+		
+		public void run() {
+			try {
+				while (GameServer.this.running) {
+					if (this.resumeAccept == 0) {
+						this.selector.select();
+					}
+					else {
+						this.selector.select(ACCEPT_PAUSE);
+						this.resumeAccepting();
+					}
+					this.register();
+					Iterator<SelectionKey> keys =
+						this.selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						this.handle(key);
+					}
+					this.sendSynced();
+					this.waitForSync();
+				}
+			}
+			catch (IOException e) {
+				System.out.println("Server thread failed: " + e.getMessage());
+			}
+			finally {
+				for (SelectionKey key : this.selector.keys()) {
+					this.close(key);
+				}
+				//not while the journal's writer may be waking it
+				synchronized (this.synced) {
+					try { this.selector.close(); }
+					catch (IOException e) { }
+				}
+			}
+		}
+		
+		/**
+		 * Registers the connections handed to this Loop and greets them.
+		 */
+		private void register() throws IOException {
+			Connection conn;
+			while ((conn = this.incoming.poll()) != null) {
+				SelectionKey key = conn.channel.register(this.selector,
+					SelectionKey.OP_READ, conn);
+				conn.key = key;
+				try {
+					conn.start(this);
+				}
+				catch (IOException e) {
+					this.close(key);
+				}
+				catch (RuntimeException e) {
+					this.fail(key, e);
+				}
+			}
+		}
+		
+		private void resumeAccepting() {
+			if (System.currentTimeMillis() < this.resumeAccept) { return; }
+			this.resumeAccept = 0;
+			GameServer.this.server.keyFor(this.selector).interestOps(
+				SelectionKey.OP_ACCEPT);
+		}
+		
+		private void handle(SelectionKey key) throws IOException {
+			if (!key.isValid()) { return; }
+			if (key.isAcceptable()) {
+				try {
+					GameServer.this.accept();
+				}
+				catch (IOException e) {
+					//most likely out of file descriptors, which won't be
+					//fixed by trying again straight away
+					System.out.println("Failed to accept: " + e.getMessage());
+					key.interestOps(0);
+					this.resumeAccept = System.currentTimeMillis() +
+						ACCEPT_PAUSE;
+				}
+				return;
+			}
+			Connection conn = (Connection)key.attachment();
+			try {
+				if (key.isReadable()) {
+					conn.read(this);
+				}
+				else if (key.isWritable()) {
+					conn.write(this);
+				}
+			}
+			catch (IOException e) {
+				//a broken connection only ends its own session
+				conn.closing = true;
+			}
+			catch (RuntimeException e) {
+				//and so does a failure in the game, rather than the whole Loop
+				this.fail(key, e);
+				return;
+			}
+			if (conn.closing && !conn.isSending()) {
+				this.close(key);
+			}
+		}
+		
+		/**
+		 * Holds back a connection's response until the journal is synced, if
+		 * its session has logged anything since it was last synced.
+		 * @return true if the response must wait
+		 */
+		private boolean holdResponse(Connection conn) {
+			if (conn.session.isSynced()) { return false; }
+			if (!conn.syncing) {
+				conn.syncing = true;
+				this.held.add(conn);
+			}
+			return true;
+		}
+		
+		/**
+		 * Asks the journal to hand back the responses held back since the
+		 * last select once everything logged so far is on disk, which takes a
+		 * single force however many there are.
+		 */
+		private void waitForSync() {
+			if (this.held.isEmpty()) { return; }
+			final Synced batch = new Synced(
+				GameServer.this.journal.getLogged(), this.held);
+			this.held = new ArrayList<Connection>();
+			GameServer.this.journal.whenDurable(batch.position,
+				new Runnable() {
+					public void run() {
+						synchronized (Loop.this.synced) {
+							if (!Loop.this.selector.isOpen()) { return; }
+							Loop.this.synced.add(batch);
+							Loop.this.selector.wakeup();
+						}
+					}
+				});
+		}
+		
+		/**
+		 * Sends the held back responses that the journal has handed back and
+		 * runs any commands that were waiting for them.  If the journal
+		 * failed instead, the responses mustn't be sent, so their
+		 * connections are closed.
+		 */
+		private void sendSynced() {
+			Synced batch;
+			while ((batch = this.synced.poll()) != null) {
+				boolean durable = GameServer.this.journal.isDurable(
+					batch.position);
+				for (Connection conn : batch.connections) {
+					conn.syncing = false;
+					SelectionKey key = conn.key;
+					if (!key.isValid()) { continue; }
+					if (!durable) {
+						this.close(key);
+						continue;
+					}
+					try {
+						conn.session.synced();
+						conn.write(this);
+					}
+					catch (IOException e) {
+						this.close(key);
+						continue;
+					}
+					catch (RuntimeException e) {
+						this.fail(key, e);
+						continue;
+					}
+					if (conn.closing && !conn.isSending()) {
+						this.close(key);
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Closes a connection whose session failed with an unexpected
+		 * exception, leaving the rest of the Loop's connections running.
+		 */
+		private void fail(SelectionKey key, RuntimeException e) {
+			System.out.println("Session failed: " + e);
+			Object attachment = key.attach(null);
+			if (attachment instanceof Connection) {
+				//a session that failed isn't worth saving
+				((Connection)attachment).session.end();
+			}
+			this.close(key);
+		}
+		
+		/**
+		 * Closes a connection, saving its session if the game isn't over and
+		 * ending it in the journal.
+		 */
+		private void close(SelectionKey key) {
+			key.cancel();
+			try { key.channel().close(); }
+			catch (IOException e) { }
+			Object attachment = key.attach(null);
+			if (attachment instanceof Connection) {
+				((Connection)attachment).session.disconnect();
+			}
+		}
+	
+	}
+	
+	/**
+	 * A Synced is the responses a Loop held back in one pass, which can be
+	 * sent once the journal is durable up to a position.
+	 */
+	private static class Synced {
+		
+		private final long position;
+		private final List<Connection> connections;
+		
+		public Synced(long position, List<Connection> connections) {
+			this.position = position;
+			this.connections = connections;
+		}
+	
+	}
+	
+	/**
+	 * A Connection is one client and its game session.  Its methods are only
+	 * called on the thread of the Loop that serves it.
+	 */
+	private static class Connection {
+		
+		private final SocketChannel channel;
+		private final ServerSession session;
+		private SelectionKey key;
+		//the bytes received but not yet run as commands (write mode)
+		private final ByteBuffer in;
+		//the bytes encoded but not yet sent (write mode)
+		private final ByteBuffer out;
+		//the text of the response being sent
+		private StringBuilder text;
+		private CharBuffer pending;
+		//whether the rest of an over-long line is being thrown away
+		private boolean skipping;
+		//whether the response is held back until the journal is synced
+		private boolean syncing;
+		private boolean closing;
+		
+		public Connection(SocketChannel channel, ServerSession session) {
+			this.channel = channel;
+			this.session = session;
+			this.in = ByteBuffer.allocate(MAX_LINE);
+			this.out = ByteBuffer.allocate(OUTPUT_BUFFER);
+			this.text = new StringBuilder();
+		}
+		
+		/**
+		 * Sends the welcome message, the first Mission and the token with
+		 * which to resume the session.
+		 */
+		public void start(Loop loop) throws IOException {
+			this.session.welcome(this.text);
+			this.text.append(PROMPT);
+			this.send(loop);
+		}
+		
+		/**
+		 * Indicates whether any of a response is still to be sent, including
+		 * one held back for the journal.
+		 */
+		public boolean isSending() {
+			return this.syncing || this.pending != null ||
+				this.out.position() > 0;
+		}
+		
+		public void read(Loop loop) throws IOException {
+			if (this.channel.read(this.in) < 0) {
+				this.closing = true;
+				return;
+			}
+			this.runLines(loop);
+		}
+		
+		public void write(Loop loop) throws IOException {
+			this.send(loop);
+			if (!this.isSending()) {
+				//commands may have been waiting for the response to go out
+				this.runLines(loop);
+			}
+		}
+		
+		/**
+		 * Runs every complete line received as a command, unless a response
+		 * is still being sent, then sends the text of all of their results
+		 * together once the journal is synced for them.
+		 */
+		private void runLines(Loop loop) throws IOException {
+			this.in.flip();
+			byte[] bytes = this.in.array();
+			int limit = this.in.limit();
+			while (!this.isSending() && !this.closing) {
+				int start = this.in.position();
+				int end = start;
+				while (end < this.in.limit() && bytes[end] != '\n') {
+					end++;
+				}
+				if (end == this.in.limit()) {
+					if (start == 0 && end == this.in.capacity()) {
+						//a full buffer of one line: the line is too long
+						if (!this.skipping) {
+							this.session.invalid(this.text);
+							this.text.append(PROMPT);
+							this.skipping = true;
+						}
+						this.in.position(end);
+					}
+					break;
+				}
+				if (this.skipping) {
+					this.in.position(end + 1);
+					this.skipping = false;
+					continue;
+				}
+				this.in.limit(end);
+				this.runLine(loop);
+				this.in.limit(limit);
+				this.in.position(end + 1);
+			}
+			this.in.compact();
+			if (this.isSending() || !loop.holdResponse(this)) {
+				this.send(loop);
+			}
+			else {
+				this.setInterest();
+			}
+		}
+		
+		/**
+		 * Runs the line between the position and limit of <tt>in</tt> as a
+		 * command, using the Loop's buffers so that parsing it allocates
+		 * nothing.
+		 */
+		private void runLine(Loop loop) {
+			CharBuffer line = loop.chars;
+			line.clear();
+			loop.decoder.reset();
+			loop.decoder.decode(this.in, line, true);
+			loop.decoder.flush(line);
+			line.flip();
+			//ignoring the line ending and any other whitespace
+			int length = line.length();
+			while (length > 0 && line.charAt(length - 1) <= ' ') {
+				length--;
+			}
+			if (length > 0) {
+				if (CommandParser.parse(line, loop.action)) {
+					this.session.execute(loop.action, this.text);
+				}
+				else {
+					this.session.invalid(this.text);
+				}
+			}
+			if (this.session.isOver()) {
+				this.closing = true;
+			}
+			else {
+				this.text.append(PROMPT);
+			}
+		}
+		
+		/**
+		 * Sends as much of the response as the socket will take without
+		 * waiting, encoding it a buffer at a time.
+		 */
+		private void send(Loop loop) throws IOException {
+			if (this.pending == null && this.text.length() > 0) {
+				this.pending = CharBuffer.wrap(this.text);
+			}
+			while (this.isSending()) {
+				if (this.pending != null) {
+					loop.encoder.reset();
+					loop.encoder.encode(this.pending, this.out, true);
+					if (!this.pending.hasRemaining()) {
+						this.pending = null;
+						//don't hold on to the space of a large response
+						if (this.text.capacity() > OUTPUT_BUFFER) {
+							this.text = new StringBuilder();
+						}
+						else {
+							this.text.setLength(0);
+						}
+					}
+				}
+				this.out.flip();
+				this.channel.write(this.out);
+				this.out.compact();
+				if (this.out.position() > 0) {
+					break;
+				}
+			}
+			this.setInterest();
+		}
+		
+		/**
+		 * Waits to write while a response is being sent and to read
+		 * otherwise, or for nothing while a response is held back.
+		 */
+		private void setInterest() {
+			if (this.syncing) {
+				this.key.interestOps(0);
+			}
+			else {
+				this.key.interestOps(this.isSending() ?
+					SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+			}
+		}
+	
+	}
+	
+	/**
+	 * Serves a world file until the process is killed.
+	 * @param args The world file, then optionally the port (4040), the
+	 * number of threads (one per processor), a journal file and a file in
+	 * which to keep cut-off sessions
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: GameServer <world file> [port " +
+				"[threads [journal file [store file]]]]");
+			System.exit(1);
+		}
+		int port = (args.length > 1) ? Integer.parseInt(args[1]) :
+			DEFAULT_PORT;
+		int threads = (args.length > 2) ? Integer.parseInt(args[2]) :
+			Runtime.getRuntime().availableProcessors();
+		TemplateHolder holder = null;
+		try {
+			holder = new TemplateHolder(args[0]);
+		}
+		catch (IOException e) {
+			System.out.println("Failed to open world file: " + args[0]);
+			System.exit(1);
+		}
+		catch (WorldParseException e) {
+			System.out.println("Failed parsing " + args[0] + "! " +
+				e.getMessage());
+			System.exit(1);
+		}
+		ActionJournal journal = null;
+		if (args.length > 3) {
+			try {
+				journal = ActionJournal.open(holder.get(), args[3]);
+			}
+			catch (IOException e) {
+				System.out.println("Failed to open journal " + args[3] +
+					": " + e.getMessage());
+				System.exit(1);
+			}
+		}
+		if (journal != null) {
+			System.out.println("WARNING: sessions are logged to " +
+				args[3] + ", so " + args[0] + " will NOT be reloaded if " +
+				"it changes.");
+		}
+		SessionStore store = null;
+		if (args.length > 4) {
+			try {
+				store = new SessionStore(args[4], holder.get());
+			}
+			catch (IOException e) {
+				System.out.println("Failed to open session store " +
+					args[4] + ": " + e.getMessage());
+				System.exit(1);
+			}
+			System.out.println(store.size() + " saved sessions in " +
+				args[4] + (store.getDroppedCount() == 0 ? "" : ", " +
+				store.getDroppedCount() + " of another world dropped"));
+		}
+		try {
+			holder.watch(TemplateHolder.WATCH_INTERVAL);
+			GameServer server = new GameServer(holder,
+				new InetSocketAddress(port), threads,
+				System.currentTimeMillis());
+			server.setJournal(journal);
+			if (store != null) { server.setSessionStore(store); }
+			server.start();
+			System.out.println("Serving " + args[0] + " on port " +
+				server.getPort());
+			server.join();
+		}
+		catch (IOException e) {
+			System.out.println("Failed to listen on port " + port + ": " +
+				e.getMessage());
+			System.exit(1);
+		}
+		catch (InterruptedException e) {
+			System.exit(1);
+		}
+	}
+	
+}
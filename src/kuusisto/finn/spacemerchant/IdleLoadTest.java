@@ -0,0 +1,262 @@
+package kuusisto.finn.spacemerchant;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The IdleLoadTest class measures what idle sessions cost a BlockingServer.
+ * It starts a server in the same process and opens connections to it over
+ * the loopback interface in steps, waiting for each session to send its
+ * welcome, so that every session is left blocked waiting for a command.
+ * After each step it reports the number of live platform threads, the heap
+ * in use and, where the operating system tells it, the memory resident in
+ * the process, from which the cost of a session can be read off.  Each line
+ * of the report says whether the sessions run on virtual threads or on the
+ * fallback pool of platform threads (see
+ * <tt>BlockingServer.usesVirtualThreads</tt>).  The stacks of platform
+ * threads are outside the heap, so for the fallback only the resident
+ * memory shows them.
+ * <br>
+ * So far it has only been run on a Java 17 runtime, which has no virtual
+ * threads, so only the fallback has been measured: with 5000 idle
+ * sessions, each held a platform thread, about 12KB of heap and about 60KB
+ * of resident memory in all.  What a session costs on virtual threads is yet
+ * to be measured.
+ * <br>
+ * Both ends of every connection are in this process, so the open file limit
+ * must be over twice the number of connections; if it runs out, the report
+ * stops at the last step reached.
+ * <br>
+ * It is run on a world file:<br>
+ * <tt>java kuusisto.finn.spacemerchant.IdleLoadTest world_file [connections
+ * [steps]]</tt>
+ * 
+ * @author Finn Kuusisto
+ */
+public class IdleLoadTest {
+	
+	/**
+	 * The number of connections opened when none is given.
+	 */
+	public static final int DEFAULT_CONNECTIONS = 10000;
+	/**
+	 * The number of steps in which the connections are opened when none is
+	 * given.
+	 */
+	public static final int DEFAULT_STEPS = 5;
+	
+	//the end of the text a session sends before it waits for a command
+	private static final byte[] PROMPT_END = {'\n', '>'};
+	
+	private final BlockingServer server;
+	private final List<SocketChannel> channels;
+	private final ByteBuffer buf;
+	
+	/**
+	 * Constructs a new IdleLoadTest of a server that is already started.
+	 * @param server The server to which to connect
+	 */
+	public IdleLoadTest(BlockingServer server) {
+		this.server = server;
+		this.channels = new ArrayList<SocketChannel>();
+		this.buf = ByteBuffer.allocate(8192);
+	}
+	
+	/**
+	 * Get the number of connections open.
+	 * @return The number of idle sessions
+	 */
+	public int getConnectionCount() {
+		return this.channels.size();
+	}
+	
+	/**
+	 * Opens more connections and waits until each of their sessions has
+	 * sent its welcome and is waiting for a command.
+	 * @param count The number of connections to open
+	 * @throws IOException If a connection can't be opened or read
+	 */
+	public void open(int count) throws IOException {
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1",
+			this.server.getPort());
+		for (int i = 0; i < count; i++) {
+			SocketChannel channel = SocketChannel.open(address);
+			this.channels.add(channel);
+			this.awaitPrompt(channel);
+		}
+	}
+	
+	/**
+	 * Reads until the session on a connection asks for a command.
+	 */
+	private void awaitPrompt(SocketChannel channel) throws IOException {
+		byte last = 0;
+		byte secondLast = 0;
+		while (secondLast != PROMPT_END[0] || last != PROMPT_END[1]) {
+			this.buf.clear();
+			int read = channel.read(this.buf);
+			if (read < 0) {
+				throw new IOException("Session closed before its welcome");
+			}
+			if (read == 1) {
+				secondLast = last;
+				last = this.buf.get(0);
+			}
+			else if (read > 1) {
+				secondLast = this.buf.get(read - 2);
+				last = this.buf.get(read - 1);
+			}
+		}
+	}
+	
+	/**
+	 * Closes every connection.
+	 */
+	public void close() {
+		for (SocketChannel channel : this.channels) {
+			try { channel.close(); }
+			catch (IOException e) { }
+		}
+		this.channels.clear();
+	}
+	
+	/**
+	 * Get the bytes of heap in use once garbage is collected.
+	 * @return The used heap, in bytes
+	 */
+	public static long usedHeap() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			try { Thread.sleep(50); }
+			catch (InterruptedException e) { break; }
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+	
+	/**
+	 * Get the memory resident in this process, as the operating system counts
+	 * it, which takes in the stacks of platform threads.  It is read from
+	 * <tt>/proc/self/status</tt>, so only Linux has it.
+	 * @return The resident memory, in bytes, or -1 if it isn't known
+	 */
+	public static long residentMemory() {
+		File status = new File("/proc/self/status");
+		if (!status.exists()) { return -1; }
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new FileReader(status));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("VmRSS:")) {
+					//"VmRSS:     1234 kB"
+					String[] parts = line.trim().split("\\s+");
+					return Long.parseLong(parts[1]) * 1024;
+				}
+			}
+		}
+		catch (IOException e) { }
+		catch (RuntimeException e) { }
+		finally {
+			if (in != null) {
+				try { in.close(); }
+				catch (IOException e) { }
+			}
+		}
+		return -1;
+	}
+	
+	//describes the memory used and its growth since the base, per session
+	private static String describeMemory(String name, long used, long base,
+		int sessions) {
+		if (used < 0 || base < 0) { return ""; }
+		return ", " + (used / 1024) + "KB " + name + " (" +
+			((used - base) / sessions) + " bytes a session)";
+	}
+	
+	/**
+	 * Runs the test on a world file and prints its report.
+	 * @param args The world file, then optionally the number of connections
+	 * (10000) and of steps (5)
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: IdleLoadTest <world file> " +
+				"[connections [steps]]");
+			System.exit(1);
+		}
+		int connections = (args.length > 1) ? Integer.parseInt(args[1]) :
+			DEFAULT_CONNECTIONS;
+		int steps = (args.length > 2) ? Integer.parseInt(args[2]) :
+			DEFAULT_STEPS;
+		BlockingServer server = null;
+		IdleLoadTest test = null;
+		try {
+			WorldTemplate template = WorldTemplate.load(args[0]);
+			server = new BlockingServer(template,
+				new InetSocketAddress("127.0.0.1", 0), 42);
+			String mode = server.usesVirtualThreads() ? "virtual threads" :
+				"platform threads, no virtual threads on this runtime";
+			server.start();
+			test = new IdleLoadTest(server);
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			long baseHeap = IdleLoadTest.usedHeap();
+			long baseResident = IdleLoadTest.residentMemory();
+			System.out.println("Sessions on " + mode + ": " +
+				threads.getThreadCount() + " threads, " +
+				(baseHeap / 1024) + "KB heap" + (baseResident < 0 ? "" :
+				", " + (baseResident / 1024) + "KB resident") +
+				" with no connections");
+			for (int step = 1; step <= steps; step++) {
+				int target = (int)((long)connections * step / steps);
+				long start = System.nanoTime();
+				try {
+					test.open(target - test.getConnectionCount());
+				}
+				catch (IOException e) {
+					System.out.println("Stopped at " +
+						test.getConnectionCount() + " connections: " +
+						e.getMessage());
+					break;
+				}
+				long millis = (System.nanoTime() - start) / 1000000;
+				long heap = IdleLoadTest.usedHeap();
+				long resident = IdleLoadTest.residentMemory();
+				System.out.println(target + " idle sessions (" + mode +
+					"): " + threads.getThreadCount() + " threads" +
+					IdleLoadTest.describeMemory("heap", heap, baseHeap,
+						target) +
+					IdleLoadTest.describeMemory("resident", resident,
+						baseResident, target) +
+					", " + millis + "ms to open");
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Failed: " + e.getMessage());
+			System.exit(1);
+		}
+		catch (WorldParseException e) {
+			System.out.println("Failed parsing " + args[0] + "! " +
+				e.getMessage());
+			System.exit(1);
+		}
+		finally {
+			if (test != null) { test.close(); }
+		}
+		try {
+			server.close();
+		}
+		catch (IOException e) { }
+		catch (InterruptedException e) { }
+	}
+	
+}
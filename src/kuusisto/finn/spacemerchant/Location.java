@@ -1,38 +1,57 @@
 package kuusisto.finn.spacemerchant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * The Location class represents a Location in a text-based game.  The Player
  * can buy and sell Commodities at Locations as well as complete Missions.
- * Each Location has a name, a description, a list of Commodities that it 
- * offers, a list of price ranges for each of its Commodities and a list of
- * current prices for all of its Commodities.
+ * Each Location has an id, a name, a description, a list of Commodities that
+ * it offers and the price range of each of its Commodities, indexed by
+ * Commodity ordinal.  Locations
+ * belong to a WorldTemplate and are shared by every game in it, so the current
+ * prices at a Location are kept by each game's World.
  * 
  * @author Finn Kuusisto
  */
 public class Location {
 
+	private WorldTemplate template;
+	private int id;
 	private List<Commodity> commodities;
-	private List<Integer> prices;
-	private List<Pair> priceRanges;
+	private int[] minPrices;
+	private int[] maxPrices;
 	private String name;
 	private String description;
 	
 	/**
-	 * Constructs a new Location with the given name and description.  A
-	 * Location starts out with empty lists of Commodities, price ranges and
-	 * prices.
+	 * Constructs a new Location in a game world with the given name and
+	 * description.  A Location starts out with empty lists of Commodities and
+	 * price ranges.
 	 * 
+	 * @param template The game world to which this Location belongs
+	 * @param id The position of this Location in its game world's Locations
 	 * @param name The name of this Location
 	 * @param description The description of this Location
 	 */
-	public Location(String name, String description) {
+	public Location(WorldTemplate template, int id, String name,
+		String description) {
+		this.template = template;
+		this.id = id;
 		this.name = name;
 		this.description = description;
 		this.commodities = new ArrayList<Commodity>();
-		this.prices = new ArrayList<Integer>();
-		this.priceRanges = new ArrayList<Pair>();
+		this.minPrices = new int[0];
+		this.maxPrices = new int[0];
+	}
+	
+	/**
+	 * Get the id of a Location.
+	 * @return The position of this Location in its game world's Locations
+	 */
+	public int getId() {
+		return this.id;
 	}
 	
 	/**
@@ -57,28 +76,29 @@ public class Location {
 	 * travels to a Location.  If the Player's mission is completed (i.e. if
 	 * the Location matches the location of the Player's current Mission and
 	 * the Player has the required quantity of the required Commodity), it
-	 * should print <tt>***Mission Completed***</tt> to the screen, mark the
-	 * Mission as complete, remove the required quantity of the required
-	 * Commodity from the Player's Ship, award the Player with the reward money
-	 * and set the Player's Mission to the next Mission (if there is one) Use
+	 * should mark the Mission as complete in the Player's World, remove the
+	 * required quantity of the required Commodity from the Player's Ship,
+	 * award the Player with the reward money and set the Player's Mission to
+	 * the next Mission (if there is one).  Use the Player's
 	 * <tt>World.getNextMission</tt> to get the next Mission for the Player.
 	 * @param player The Player
+	 * @return The completed Mission, or null if no Mission was completed
 	 */
-	public void checkMission(Player player) {
+	public MissionCompleted checkMission(Player player) {
 		Ship ship = player.getShip();
 		Mission mission = player.getMission();
 		Commodity commodity = mission.getCommodity();
 		int quantity = mission.getQuantity();
-		if (mission.getLocation().getName().equals(this.name) &&
+		if (mission.getLocation() == this &&
 			ship.getQuantity(commodity) >= quantity) {
-			System.out.println("***Mission Completed***");
-			System.out.println();
-			mission.setComplete(true);
+			player.getWorld().setComplete(mission, true);
 			ship.removeCommodity(commodity, quantity);
 			player.addMoney(mission.getReward());
-			Mission next = World.getNextMission();
+			Mission next = player.getWorld().getNextMission();
 			if (next != null) { player.setMission(next); }
+			return new MissionCompleted(mission, next);
 		}
+		return null;
 	}
 	
 	/**
@@ -89,8 +109,34 @@ public class Location {
 	 * @param priceRange The price range for the added Commodity
 	 */
 	public void addCommodity(Commodity commodity, Pair priceRange) {
-		this.commodities.add(commodity);
-		this.priceRanges.add(priceRange);
+		this.addCommodity(commodity, priceRange.getVal1(),
+			priceRange.getVal2());
+	}
+	
+	/**
+	 * Adds a Commodity to the list of Commodities offered by a Location as
+	 * well as the lowest and highest prices for which the Location should
+	 * offer the Commodity.
+	 * @param commodity The Commodity to add to this Location's offered 
+	 * Commodities
+	 * @param minPrice The lowest price for the added Commodity
+	 * @param maxPrice The highest price for the added Commodity
+	 */
+	public void addCommodity(Commodity commodity, int minPrice,
+		int maxPrice) {
+		int ordinal = commodity.getOrdinal();
+		if (ordinal >= this.minPrices.length) {
+			int oldLength = this.minPrices.length;
+			this.minPrices = Arrays.copyOf(this.minPrices, ordinal + 1);
+			this.maxPrices = Arrays.copyOf(this.maxPrices, ordinal + 1);
+			Arrays.fill(this.minPrices, oldLength, ordinal + 1, -1);
+			Arrays.fill(this.maxPrices, oldLength, ordinal + 1, -1);
+		}
+		if (this.minPrices[ordinal] < 0) {
+			this.commodities.add(commodity);
+		}
+		this.minPrices[ordinal] = minPrice;
+		this.maxPrices[ordinal] = maxPrice;
 	}
 	
 	/**
@@ -99,39 +145,43 @@ public class Location {
 	 * @return true if this Location offers the Commodity, false otherwise
 	 */
 	public boolean hasCommodity(Commodity commodity) {
-		return this.commodities.indexOf(commodity) >= 0;
+		return this.getMinPrice(commodity) >= 0;
 	}
 	
 	/**
-	 * Gets the current price of a particular Commodity at a Location.
-	 * @param commodity The Commodity to find a current price
-	 * @return The current price of the desired Commodity, or -1 if this
-	 * Location does not offer the Commodity
+	 * Get the Commodities offered by a Location.
+	 * @return An unmodifiable list of the Commodities offered by this Location
 	 */
-	public int getPrice(Commodity commodity) {
-		int index = this.commodities.indexOf(commodity);
-		if (index >= 0) {
-			return this.prices.get(index);
-		}
-		return -1;
+	public List<Commodity> getCommodities() {
+		return Collections.unmodifiableList(this.commodities);
 	}
 	
 	/**
-	 * Generates new prices for all of the Commodities offered by a Location.
-	 * The prices generated must be in the price range for each Commodity.  Use
-	 * <tt>World.getRandomInt</tt> to generate prices.
+	 * Gets the lowest price at which a Location offers a Commodity.
+	 * @param commodity The Commodity to find the lowest price
+	 * @return The lowest price of the Commodity, or -1 if this Location does
+	 * not offer the Commodity
 	 */
-	public void drawCommodityPrices() {
-		this.prices.clear();
-		for (int i = 0; i < this.priceRanges.size(); i++) {
-			Pair p = this.priceRanges.get(i);
-			this.prices.add(World.getRandomInt(p.getVal1(), p.getVal2()));
-		}
+	public int getMinPrice(Commodity commodity) {
+		int ordinal = commodity.getOrdinal();
+		return ordinal < this.minPrices.length ? this.minPrices[ordinal] : -1;
+	}
+	
+	/**
+	 * Gets the highest price at which a Location offers a Commodity.
+	 * @param commodity The Commodity to find the highest price
+	 * @return The highest price of the Commodity, or -1 if this Location does
+	 * not offer the Commodity
+	 */
+	public int getMaxPrice(Commodity commodity) {
+		int ordinal = commodity.getOrdinal();
+		return ordinal < this.maxPrices.length ? this.maxPrices[ordinal] : -1;
 	}
 	
 	/**
 	 * Get a human-readable list of the Commodities offered by a Location along
-	 * with their current prices.  It should follow the convention:<br>
+	 * with their current prices in a game (use 
+	 * <tt>World.getPrice</tt>).  It should follow the convention:<br>
 	 * <tt>[COMMODITIES]</tt><br>
 	 * <tt>name - description: price</tt><br>
 	 * <tt>name - description: price</tt><br>
@@ -141,14 +191,15 @@ public class Location {
 	 * <tt>Enriched Uranium - Don't touch it: 32</tt><br>
 	 * <tt>Cow - Colonies need these for food: 15</tt><br>
 	 * <tt>Scrap Metal - Probably good for something: 15</tt><br>
+	 * @param world The game in which to look up current prices
 	 * @return The String as specified above
 	 */
-	public String getCommodityList() {
+	public String getCommodityList(World world) {
 		StringBuilder str = new StringBuilder();
 		str.append("[COMMODITIES]\n");
 		for (int i = 0; i < this.commodities.size(); i++) {
 			Commodity c = this.commodities.get(i);
-			int price = this.prices.get(i);
+			int price = world.getPrice(this, c);
 			str.append(c.getName() + " - ");
 			str.append(c.getDescription() + ": " + price);
 			str.append("\n");
@@ -158,8 +209,9 @@ public class Location {
 	
 	/**
 	 * Get a human-readable list of distances to all other Locations from a
-	 * Location (use <tt>World.getLocations</tt> and <tt>World.getDistance</tt>
-	 * .  It should follow the convention:<br>
+	 * Location (use <tt>WorldTemplate.getLocation</tt> and
+	 * <tt>WorldTemplate.getDistance</tt> with Location ids).  It should
+	 * follow the convention:<br>
 	 * <tt>[DESTINATIONS]</tt><br>
 	 * <tt>name: distance</tt><br>
 	 * <tt>name: distance</tt><br>
@@ -172,12 +224,12 @@ public class Location {
 	 */
 	public String getDestinationList() {
 		StringBuilder str = new StringBuilder();
-		List<Location> locations = World.getLocations();
+		int count = this.template.getLocationCount();
 		str.append("[DESTINATIONS]\n");
-		for (int i = 0; i < locations.size(); i++) {
-			String otherName = locations.get(i).name;
-			if (!this.name.equals(otherName)) {
-				int distance = World.getDistance(this.name, otherName);
+		for (int i = 0; i < count; i++) {
+			if (i != this.id) {
+				String otherName = this.template.getLocation(i).name;
+				int distance = this.template.getDistance(this.id, i);
 				str.append(otherName + ": " + distance);
 				str.append("\n");
 			}
@@ -185,6 +237,28 @@ public class Location {
 		return str.toString();
 	}
 	
+	/**
+	 * Get a human-readable list of distances to the other Locations within a
+	 * distance of a Location, nearest first, in the same form as
+	 * <tt>getDestinationList()</tt>.  Only the Locations near this one are
+	 * looked at (<tt>WorldTemplate.getSpatialIndex</tt>), so the list is
+	 * quick to make however big the game world is.
+	 * @param range The greatest distance to list, such as the fuel on board
+	 * @return The String as specified above
+	 */
+	public String getDestinationList(int range) {
+		StringBuilder str = new StringBuilder();
+		int[] ids = this.template.getSpatialIndex().withinRange(this.id,
+			range);
+		str.append("[DESTINATIONS]\n");
+		for (int i = 0; i < ids.length; i++) {
+			str.append(this.template.getLocation(ids[i]).name).append(": ");
+			str.append(this.template.getDistance(this.id, ids[i]));
+			str.append("\n");
+		}
+		return str.toString();
+	}
+	
 	/**
 	 * Converts a Location to a human-readable form.  It should follow the
 	 * convention:<br>
@@ -0,0 +1,363 @@
+package kuusisto.finn.spacemerchant;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The LoopbackClient class checks a GameServer over the loopback interface.
+ * It starts a server in the same process, plays a script of commands over
+ * many connections at once and checks that every connection gets exactly
+ * the text that the same script gets when played straight on a World with
+ * one of the server's session seeds.  The connections are all driven by one
+ * thread with a Selector, reading and writing whenever they can, so a slow
+ * or stuck server shows up as connections that never finish.
+ * <br>
+ * The script is sent whole, one command per line, and the connection is
+ * then shut down for output, so the server closes each connection once it has
+ * answered the last command even if the script doesn't quit.  Script lines
+ * must fit in <tt>GameServer.MAX_LINE</tt> bytes.  Every session is sent a
+ * token of its own with which to resume it (see ServerSession), so tokens
+ * are masked before the text is checked.
+ * <br>
+ * The server can also log its sessions to a journal, which is then replayed
+ * to check that the sessions left open in it are just those the server
+ * saved to resume, which are those whose script didn't end the game.
+ * While it logs to a journal, the server must refuse to reload its world,
+ * which is checked by publishing a copy of the world before the connections
+ * are opened.
+ * <br>
+ * It is run on a world file and a script:<br>
+ * <tt>java kuusisto.finn.spacemerchant.LoopbackClient world_file script_file
+ * [connections [threads [journal_file]]]</tt>
+ * 
+ * @author Finn Kuusisto
+ */
+public class LoopbackClient {
+	
+	/**
+	 * The number of connections opened when none is given.
+	 */
+	public static final int DEFAULT_CONNECTIONS = 1000;
+	
+	//the base seed of the server's sessions
+	private static final long SEED = 42;
+	//the size of the buffer into which responses are read
+	private static final int READ_BUFFER = 64 * 1024;
+	//what every session's token is checked as
+	private static final String TOKEN_MASK = "################";
+	
+	private final WorldTemplate template;
+	private final List<String> script;
+	//the number of sessions the server saved in the last run
+	private int saved;
+	
+	/**
+	 * Constructs a new LoopbackClient that plays a script in a game world.
+	 * @param template The game world in which the server plays
+	 * @param script The commands to play, one per line
+	 */
+	public LoopbackClient(WorldTemplate template, List<String> script) {
+		this.template = template;
+		this.script = script;
+	}
+	
+	/**
+	 * Get the number of sessions the server saved to be resumed in the last
+	 * run, since their connections ended before the game did.
+	 * @return The number of saved sessions
+	 */
+	public int getSavedCount() {
+		return this.saved;
+	}
+	
+	/**
+	 * Gets the text a GameServer sends for the script in a session with a
+	 * seed: the welcome, a masked token and a prompt, then the response to
+	 * each line with a prompt after it, until the script or the game ends.
+	 * @param seed The seed of the session
+	 * @return The text of the whole session
+	 */
+	public String expected(long seed) {
+		World world = new World(this.template, new SplitMixRandom(seed));
+		BatchRunner runner = new BatchRunner(world);
+		Action action = new Action();
+		StringBuilder out = new StringBuilder();
+		SpaceMerchant.welcome(world, out);
+		ServerSession.describeToken(TOKEN_MASK, out);
+		out.append(GameServer.PROMPT);
+		for (String line : this.script) {
+			if (line.trim().length() > 0) {
+				if (CommandParser.parse(line, action)) {
+					runner.execute(action, out);
+				}
+				else {
+					runner.invalid(out);
+				}
+			}
+			if (runner.isOver()) { break; }
+			out.append(GameServer.PROMPT);
+		}
+		return out.toString();
+	}
+	
+	/**
+	 * Starts a GameServer on the loopback interface, plays the script over a
+	 * number of connections at once and checks what each of them is sent.
+	 * Since the server hands out seeds in the order it accepts connections,
+	 * which needn't be the order they were opened in, each connection is
+	 * checked against the sessions not yet matched rather than one seed.
+	 * @param connections The number of connections to open
+	 * @param threads The number of threads serving the connections
+	 * @return The number of connections that were sent the wrong text
+	 * @throws IOException If the server can't be started or a connection
+	 * fails
+	 * @throws InterruptedException If interrupted while stopping the server
+	 */
+	public int run(int connections, int threads) throws IOException,
+		InterruptedException {
+		return this.run(connections, threads, null);
+	}
+	
+	/**
+	 * Starts a GameServer that logs its sessions to a journal, and checks it
+	 * as <tt>run(connections, threads)</tt> does, and that it refuses to
+	 * reload its world while it logs.
+	 * @param connections The number of connections to open
+	 * @param threads The number of threads serving the connections
+	 * @param journal The journal to which the server logs, or null for none
+	 * @return The number of connections that were sent the wrong text
+	 * @throws IOException If the server can't be started or a connection
+	 * fails
+	 * @throws InterruptedException If interrupted while stopping the server
+	 * @throws IllegalStateException If the server lets its world be reloaded
+	 * while it logs to a journal
+	 */
+	public int run(int connections, int threads, ActionJournal journal)
+		throws IOException, InterruptedException {
+		Map<String,Integer> sessions = new HashMap<String,Integer>();
+		for (int i = 0; i < connections; i++) {
+			//as the server seeds its sessions
+			String text = this.expected(SplitMixRandom.mix64(
+				SEED + i * SplitMixRandom.GOLDEN_GAMMA));
+			Integer count = sessions.get(text);
+			sessions.put(text, (count == null) ? 1 : count + 1);
+		}
+		TemplateHolder holder = new TemplateHolder(this.template);
+		GameServer server = new GameServer(holder,
+			new InetSocketAddress("127.0.0.1", 0), threads, SEED);
+		SessionStore store = new SessionStore();
+		server.setJournal(journal);
+		server.setSessionStore(store);
+		if (journal != null) {
+			LoopbackClient.checkReloadRefused(holder);
+		}
+		server.start();
+		try {
+			List<ByteArrayOutputStream> received =
+				this.play(server.getPort(), connections);
+			int wrong = 0;
+			for (ByteArrayOutputStream bytes : received) {
+				String text = new String(bytes.toByteArray(),
+					StandardCharsets.UTF_8).replaceFirst(
+					"resume [0-9a-f]{" + SessionStore.TOKEN_LENGTH + "}",
+					"resume " + TOKEN_MASK);
+				Integer count = sessions.get(text);
+				if (count == null) {
+					wrong++;
+				}
+				else if (count == 1) {
+					sessions.remove(text);
+				}
+				else {
+					sessions.put(text, count - 1);
+				}
+			}
+			return wrong;
+		}
+		finally {
+			server.close();
+			this.saved = store.size();
+		}
+	}
+	
+	/**
+	 * Publishes a copy of the held world, with the same content but read
+	 * back from its binary form, which must be refused.
+	 */
+	private static void checkReloadRefused(TemplateHolder holder)
+		throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryWorld.write(holder.get(), bytes);
+		WorldTemplate copy = BinaryWorld.read(
+			ByteBuffer.wrap(bytes.toByteArray()));
+		try {
+			holder.publish(copy);
+		}
+		catch (IllegalStateException e) {
+			return;
+		}
+		throw new IllegalStateException(
+			"The world was reloaded while sessions are logged to a journal");
+	}
+	
+	/**
+	 * Opens the connections, sends each the script and reads each to its
+	 * end.
+	 */
+	private List<ByteArrayOutputStream> play(int port, int connections)
+		throws IOException {
+		StringBuilder lines = new StringBuilder();
+		for (String line : this.script) {
+			lines.append(line).append('\n');
+		}
+		ByteBuffer bytes = ByteBuffer.wrap(
+			lines.toString().getBytes(StandardCharsets.UTF_8));
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+		List<ByteArrayOutputStream> received =
+			new ArrayList<ByteArrayOutputStream>();
+		Selector selector = Selector.open();
+		try {
+			for (int i = 0; i < connections; i++) {
+				SocketChannel channel = SocketChannel.open(address);
+				channel.configureBlocking(false);
+				channel.register(selector,
+					SelectionKey.OP_READ | SelectionKey.OP_WRITE,
+					new Session(bytes.duplicate()));
+			}
+			ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER);
+			while (received.size() < connections) {
+				selector.select();
+				Iterator<SelectionKey> keys =
+					selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					Session session = (Session)key.attachment();
+					SocketChannel channel = (SocketChannel)key.channel();
+					if (key.isWritable()) {
+						channel.write(session.script);
+						if (!session.script.hasRemaining()) {
+							channel.shutdownOutput();
+							key.interestOps(SelectionKey.OP_READ);
+						}
+					}
+					if (key.isReadable()) {
+						buf.clear();
+						int read = channel.read(buf);
+						if (read < 0) {
+							received.add(session.text);
+							key.cancel();
+							channel.close();
+						}
+						else {
+							session.text.write(buf.array(), 0, read);
+						}
+					}
+				}
+			}
+		}
+		finally {
+			for (SelectionKey key : selector.keys()) {
+				key.channel().close();
+			}
+			selector.close();
+		}
+		return received;
+	}
+	
+	/**
+	 * A Session is what is left to send on one connection and what it has
+	 * been sent so far.
+	 */
+	private static class Session {
+		
+		private final ByteBuffer script;
+		private final ByteArrayOutputStream text;
+		
+		public Session(ByteBuffer script) {
+			this.script = script;
+			this.text = new ByteArrayOutputStream();
+		}
+	
+	}
+	
+	/**
+	 * Checks a GameServer with a world file and a script, exiting with 1 if
+	 * any connection was sent the wrong text.
+	 * @param args The world file and the script, then optionally the number
+	 * of connections (1000) and of server threads (one per processor), and a
+	 * new journal file
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.out.println("Usage: LoopbackClient <world file> " +
+				"<script file> [connections [threads [journal file]]]");
+			System.exit(1);
+		}
+		int connections = (args.length > 2) ? Integer.parseInt(args[2]) :
+			DEFAULT_CONNECTIONS;
+		int threads = (args.length > 3) ? Integer.parseInt(args[3]) :
+			Runtime.getRuntime().availableProcessors();
+		try {
+			WorldTemplate template = WorldTemplate.load(args[0]);
+			List<String> script = new ArrayList<String>();
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(args[1]), StandardCharsets.UTF_8));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					script.add(line);
+				}
+			}
+			finally {
+				in.close();
+			}
+			ActionJournal journal = (args.length > 4) ?
+				new ActionJournal(template, args[4]) : null;
+			LoopbackClient client = new LoopbackClient(template, script);
+			long start = System.nanoTime();
+			int wrong = client.run(connections, threads, journal);
+			long millis = (System.nanoTime() - start) / 1000000;
+			System.out.println(connections + " connections in " + millis +
+				"ms: " + (connections - wrong) + " right, " + wrong +
+				" wrong");
+			int open = 0;
+			if (journal != null) {
+				journal.close();
+				open = ActionJournal.replay(template, args[4]).size();
+				System.out.println(open + " sessions left open in " +
+					args[4] + ", " + client.getSavedCount() + " saved to " +
+					"resume, and a reload was refused");
+			}
+			if (wrong > 0 || open != client.getSavedCount()) {
+				System.exit(1);
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Failed: " + e.getMessage());
+			System.exit(1);
+		}
+		catch (WorldParseException e) {
+			System.out.println("Failed parsing " + args[0] + "! " +
+				e.getMessage());
+			System.exit(1);
+		}
+		catch (InterruptedException e) {
+			System.exit(1);
+		}
+	}
+	
+}
@@ -0,0 +1,309 @@
+package kuusisto.finn.spacemerchant;
+import java.util.Arrays;
+
+/**
+ * The MarketIndex class lists, for each Commodity of a game world, the
+ * Locations that trade it and their price ranges, so that the markets for a
+ * Commodity can be found without looking at every Location.  Each
+ * Commodity's markets are kept together in a few flat arrays, ordered from
+ * the cheapest expected price (the middle of the price range) to the
+ * dearest, then by Location id.  A Commodity's markets are
+ * <tt>0..getMarketCount - 1</tt> in that order.  Each Commodity's markets
+ * are also bucketed by the cell of the world's SpatialIndex grid they are
+ * in.
+ * <br>
+ * The queries only look at the markets of the Commodity asked about, never
+ * at the rest of the world.  <tt>cheapestWithin</tt> and
+ * <tt>dearestWithin</tt> walk those markets in price order, which finds a
+ * good market nearby quickly, but give up once they have passed over as many
+ * markets as the buckets of the cells the range overlaps hold, and look
+ * through those buckets instead.  Either way they take time in proportion to
+ * the number of the Commodity's markets near the Location, however many
+ * there are elsewhere; <tt>nearest</tt> always looks at every market of the
+ * Commodity.
+ * 
+ * @author Finn Kuusisto
+ */
+public class MarketIndex {
+	
+	private final WorldTemplate template;
+	//the markets for the Commodity with ordinal c are start[c]..start[c + 1]
+	private final int[] start;
+	private final int[] ids;
+	private final int[] minPrices;
+	private final int[] maxPrices;
+	//each Commodity's markets by grid cell: market byCell[k] is in cells[k],
+	//in order of cell for k in start[c]..start[c + 1]
+	private final int[] cells;
+	private final int[] byCell;
+	
+	/**
+	 * Constructs a new MarketIndex of the prices of a game world.
+	 * @param template The game world, with all of its prices added
+	 */
+	public MarketIndex(WorldTemplate template) {
+		this.template = template;
+		int commodities = template.getCommodityCount();
+		int locations = template.getLocationCount();
+		this.start = new int[commodities + 1];
+		for (int i = 0; i < locations; i++) {
+			for (Commodity c : template.getLocation(i).getCommodities()) {
+				this.start[c.getOrdinal() + 1]++;
+			}
+		}
+		for (int c = 0; c < commodities; c++) {
+			this.start[c + 1] += this.start[c];
+		}
+		int total = this.start[commodities];
+		this.ids = new int[total];
+		this.minPrices = new int[total];
+		this.maxPrices = new int[total];
+		//sort each Commodity's markets by expected price, then id
+		long[] keys = new long[total];
+		int[] next = new int[commodities];
+		System.arraycopy(this.start, 0, next, 0, commodities);
+		for (int i = 0; i < locations; i++) {
+			Location l = template.getLocation(i);
+			for (Commodity c : l.getCommodities()) {
+				long expected = ((long)l.getMinPrice(c) + l.getMaxPrice(c)) / 2;
+				keys[next[c.getOrdinal()]++] = (expected << 32) | i;
+			}
+		}
+		for (int c = 0; c < commodities; c++) {
+			Arrays.sort(keys, this.start[c], this.start[c + 1]);
+			for (int k = this.start[c]; k < this.start[c + 1]; k++) {
+				int id = (int)keys[k];
+				Commodity commodity = template.getCommodity(c);
+				Location l = template.getLocation(id);
+				this.ids[k] = id;
+				this.minPrices[k] = l.getMinPrice(commodity);
+				this.maxPrices[k] = l.getMaxPrice(commodity);
+			}
+		}
+		//and bucket them by cell, ordered by cell then market
+		SpatialIndex grid = template.getSpatialIndex();
+		this.cells = new int[total];
+		this.byCell = new int[total];
+		for (int k = 0; k < total; k++) {
+			keys[k] = ((long)grid.cellOf(this.ids[k]) << 32) | k;
+		}
+		for (int c = 0; c < commodities; c++) {
+			Arrays.sort(keys, this.start[c], this.start[c + 1]);
+		}
+		for (int k = 0; k < total; k++) {
+			this.cells[k] = (int)(keys[k] >>> 32);
+			this.byCell[k] = (int)keys[k];
+		}
+	}
+	
+	/**
+	 * Get the number of Locations that trade a Commodity.
+	 * @param commodity The Commodity
+	 * @return The number of its markets
+	 */
+	public int getMarketCount(Commodity commodity) {
+		int c = commodity.getOrdinal();
+		return this.start[c + 1] - this.start[c];
+	}
+	
+	/**
+	 * Get the id of a Location that trades a Commodity.
+	 * @param commodity The Commodity
+	 * @param market Which of its markets, 0 being the cheapest
+	 * @return The id of the Location
+	 */
+	public int getLocationId(Commodity commodity, int market) {
+		return this.ids[this.start[commodity.getOrdinal()] + market];
+	}
+	
+	/**
+	 * Get the lowest price of a Commodity at one of its markets.
+	 * @param commodity The Commodity
+	 * @param market Which of its markets, 0 being the cheapest
+	 * @return The lowest price
+	 */
+	public int getMinPrice(Commodity commodity, int market) {
+		return this.minPrices[this.start[commodity.getOrdinal()] + market];
+	}
+	
+	/**
+	 * Get the highest price of a Commodity at one of its markets.
+	 * @param commodity The Commodity
+	 * @param market Which of its markets, 0 being the cheapest
+	 * @return The highest price
+	 */
+	public int getMaxPrice(Commodity commodity, int market) {
+		return this.maxPrices[this.start[commodity.getOrdinal()] + market];
+	}
+	
+	/**
+	 * Get the expected price of a Commodity at one of its markets, the middle
+	 * of its price range.
+	 * @param commodity The Commodity
+	 * @param market Which of its markets, 0 being the cheapest
+	 * @return The expected price
+	 */
+	public int getExpectedPrice(Commodity commodity, int market) {
+		return this.getExpectedPrice(
+			this.start[commodity.getOrdinal()] + market);
+	}
+	
+	private int getExpectedPrice(int k) {
+		return (int)(((long)this.minPrices[k] + this.maxPrices[k]) / 2);
+	}
+	
+	/**
+	 * Finds the other Location within a distance of one where a Commodity is
+	 * expected to be cheapest, the best place to go and buy it.  This takes
+	 * time in proportion to the number of markets in the grid cells the range
+	 * overlaps, at most.  Of
+	 * markets with the same expected price, the nearest is found, the one
+	 * with the lower id of two the same distance away.
+	 * @param commodity The Commodity to buy
+	 * @param from The id of the Location to measure from
+	 * @param distance The greatest distance to go
+	 * @return The market's number (see <tt>getLocationId</tt>), or -1 if no
+	 * other Location within the distance trades the Commodity
+	 */
+	public int cheapestWithin(Commodity commodity, int from, int distance) {
+		return this.bestWithin(commodity.getOrdinal(), from, distance, 1);
+	}
+	
+	/**
+	 * Finds the other Location within a distance of one where a Commodity is
+	 * expected to be dearest, the best place to go and sell it.  This takes
+	 * time in proportion to the number of markets in the grid cells the range
+	 * overlaps, at most.  Of
+	 * markets with the same expected price, the nearest is found, the one
+	 * with the lower id of two the same distance away.
+	 * @param commodity The Commodity to sell
+	 * @param from The id of the Location to measure from
+	 * @param distance The greatest distance to go
+	 * @return The market's number (see <tt>getLocationId</tt>), or -1 if no
+	 * other Location within the distance trades the Commodity
+	 */
+	public int dearestWithin(Commodity commodity, int from, int distance) {
+		return this.bestWithin(commodity.getOrdinal(), from, distance, -1);
+	}
+	
+	/**
+	 * Finds the market in range with the best expected price, the lowest
+	 * for a sign of 1 and the highest for -1, and the nearest of those.  The
+	 * cells the range overlaps make up a run of cell numbers in each row, so
+	 * each row's markets are found with binary searches.
+	 * @return The market's number, or -1 if there is none in range
+	 */
+	private int bestWithin(int c, int from, int distance, int sign) {
+		SpatialIndex grid = this.template.getSpatialIndex();
+		int x = this.template.getX(from);
+		int y = this.template.getY(from);
+		int c0 = grid.column((long)x - distance);
+		int c1 = grid.column((long)x + distance);
+		int r0 = grid.row((long)y - distance);
+		int r1 = grid.row((long)y + distance);
+		int columns = grid.getColumns();
+		int nearby = 0;
+		for (int r = r0; r <= r1; r++) {
+			nearby += this.firstInCell(c, r * columns + c1 + 1) -
+				this.firstInCell(c, r * columns + c0);
+		}
+		//in price order, until that has cost as much as the buckets would
+		int k = sign > 0 ? this.start[c] : this.start[c + 1] - 1;
+		for (int i = 0; i < nearby; i++, k += sign) {
+			int id = this.ids[k];
+			if (id != from && this.template.getDistance(from, id) <= distance) {
+				return this.nearestAtPrice(c, k, sign, from, distance);
+			}
+		}
+		int end = this.start[c + 1];
+		int best = -1;
+		long bestPrice = 0;
+		long bestKey = 0;
+		for (int r = r0; r <= r1; r++) {
+			int last = r * columns + c1;
+			for (int j = this.firstInCell(c, r * columns + c0);
+				j < end && this.cells[j] <= last; j++) {
+				int m = this.byCell[j];
+				int id = this.ids[m];
+				long key = this.distanceKey(from, id);
+				if (id == from || (key >>> 32) > distance) { continue; }
+				long price = (long)sign * this.getExpectedPrice(m);
+				if (best == -1 || price < bestPrice ||
+					(price == bestPrice && key < bestKey)) {
+					best = m;
+					bestPrice = price;
+					bestKey = key;
+				}
+			}
+		}
+		return best == -1 ? -1 : best - this.start[c];
+	}
+	
+	/**
+	 * Finds the nearest market in range among a market and those after it,
+	 * going one way, with the same expected price.
+	 * @return The market's number
+	 */
+	private int nearestAtPrice(int c, int k, int step, int from,
+		int distance) {
+		int price = this.getExpectedPrice(k);
+		int best = k;
+		long bestKey = this.distanceKey(from, this.ids[k]);
+		for (int j = k + step; j >= this.start[c] && j < this.start[c + 1] &&
+			this.getExpectedPrice(j) == price; j += step) {
+			int id = this.ids[j];
+			long key = this.distanceKey(from, id);
+			if (id != from && (key >>> 32) <= distance && key < bestKey) {
+				best = j;
+				bestKey = key;
+			}
+		}
+		return best - this.start[c];
+	}
+	
+	//the first of a Commodity's markets by cell in a cell or after it
+	private int firstInCell(int c, int cell) {
+		int low = this.start[c];
+		int high = this.start[c + 1];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (this.cells[mid] < cell) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	//orders Locations by their distance from another, then by id
+	private long distanceKey(int from, int id) {
+		return ((long)this.template.getDistance(from, id) << 32) | id;
+	}
+	
+	/**
+	 * Finds the nearest other Location that trades a Commodity, the nearer of
+	 * two the same distance away being the one with the lower id.
+	 * @param commodity The Commodity to trade
+	 * @param from The id of the Location to measure from
+	 * @return The market's number (see <tt>getLocationId</tt>), or -1 if no
+	 * other Location trades the Commodity
+	 */
+	public int nearest(Commodity commodity, int from) {
+		int c = commodity.getOrdinal();
+		int best = -1;
+		long bestKey = Long.MAX_VALUE;
+		for (int k = this.start[c]; k < this.start[c + 1]; k++) {
+			int id = this.ids[k];
+			if (id == from) { continue; }
+			long key = this.distanceKey(from, id);
+			if (key < bestKey) {
+				best = k - this.start[c];
+				bestKey = key;
+			}
+		}
+		return best;
+	}
+	
+}
@@ -5,23 +5,26 @@ package kuusisto.finn.spacemerchant;
  * a particular Location.  There is also a monetary reward for completing a
  * Mission.  Each Mission has a title, description, a location at which it is
  * to be completed, a Commodity associated with the Mission, a quantity of that
- * Commodity, a monetary reward and a way to track when the Mission has been
- * completed.
+ * Commodity and a monetary reward.  Missions belong to a WorldTemplate and
+ * are shared by every game in it, so whether a Mission has been completed is
+ * tracked by each game's World.  Each Mission also has an id, which is its
+ * position in the WorldTemplate's list of Missions.
  * 
  * @author Finn Kuusisto
  */
 public class Mission {
 
+	private int id;
 	private String title;
 	private String description;
 	private Location location;
 	private Commodity commodity;
 	private int quantity;
 	private int reward;
-	private boolean complete;
 	
 	/**
 	 * Constructs a new Mission with the specified parameters.
+	 * @param id The position of the Mission in its game world's Missions
 	 * @param title The title of the Mission
 	 * @param description The description of the Mission
 	 * @param location The location at which the Mission is completed
@@ -29,15 +32,15 @@ public class Mission {
 	 * @param quantity The quantity of the Commodity required
 	 * @param reward The monetary reward given when the Mission is completed
 	 */
-	public Mission(String title, String description, Location location,
-		Commodity commodity, int quantity, int reward) {
+	public Mission(int id, String title, String description,
+		Location location, Commodity commodity, int quantity, int reward) {
+		this.id = id;
 		this.title = title;
 		this.description = description;
 		this.location = location;
 		this.commodity = commodity;
 		this.quantity = quantity;
 		this.reward = reward;
-		this.complete = false;
 	}
 	
 	/**
@@ -57,19 +60,11 @@ public class Mission {
 	}
 	
 	/**
-	 * Indicates whether a Mission has been completed.
-	 * @return true if this Mission has been completed, false otherwise
+	 * Gets the id of a Mission.
+	 * @return The position of this Mission in its game world's Missions
 	 */
-	public boolean isComplete() {
-		return this.complete;
-	}
-	
-	/**
-	 * Marks a Mission as complete or incomplete.
-	 * @param complete The value to mark the Mission
-	 */
-	public void setComplete(boolean complete) {
-		this.complete = complete;
+	public int getId() {
+		return this.id;
 	}
 	
 	/**
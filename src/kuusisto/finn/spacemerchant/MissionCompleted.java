@@ -0,0 +1,48 @@
+package kuusisto.finn.spacemerchant;
+
+/**
+ * The MissionCompleted class represents a Mission being completed when the
+ * Player arrives at a Location (<tt>Location.checkMission</tt>).
+ * 
+ * @author Finn Kuusisto
+ */
+public class MissionCompleted {
+	
+	private final Mission mission;
+	private final Mission next;
+	
+	/**
+	 * Constructs a new MissionCompleted.
+	 * @param mission The Mission that was completed
+	 * @param next The Player's next Mission, or null if there is none
+	 */
+	public MissionCompleted(Mission mission, Mission next) {
+		this.mission = mission;
+		this.next = next;
+	}
+	
+	/**
+	 * Get the Mission that was completed.
+	 * @return The completed Mission
+	 */
+	public Mission getMission() {
+		return this.mission;
+	}
+	
+	/**
+	 * Get the reward paid for the Mission.
+	 * @return The reward money
+	 */
+	public int getReward() {
+		return this.mission.getReward();
+	}
+	
+	/**
+	 * Get the Player's next Mission.
+	 * @return The next Mission, or null if every Mission is complete
+	 */
+	public Mission getNext() {
+		return this.next;
+	}
+	
+}
@@ -0,0 +1,246 @@
+package kuusisto.finn.spacemerchant;
+import java.util.List;
+
+/**
+ * The MissionStrategy class is a simple Strategy that works straight through
+ * the Missions.  Each turn it sells any trade goods on board, fills the fuel
+ * tank if it can, buys as much of the current Mission's Commodity as it needs
+ * and can afford, and then travels: to the Mission's Location once it has
+ * the goods, otherwise to the nearest Location offering them.  When it can't
+ * afford the goods it travels wherever its money is expected to grow the
+ * most, carrying the Commodity expected to sell there for the most over its
+ * price here (expected prices are the middle of each price range).  It also
+ * carries such trade goods on its other trips when there is room.  Places
+ * beyond the fuel on board are reached through Locations that sell Fuel,
+ * each closer than the last.
+ * 
+ * @author Finn Kuusisto
+ */
+public class MissionStrategy implements Strategy {
+	
+	private static final String FUEL = "Fuel";
+	
+	@Override
+	public boolean takeTurn(Player player) {
+		World world = player.getWorld();
+		Mission mission = player.getMission();
+		if (mission == null) { return false; }
+		Ship ship = player.getShip();
+		Location here = player.getLocation();
+		Commodity wanted = mission.getCommodity();
+		Commodity fuel = world.getCommodity(FUEL);
+		
+		//sell whatever was brought here to trade
+		List<Commodity> offered = here.getCommodities();
+		for (int i = 0; i < offered.size(); i++) {
+			Commodity c = offered.get(i);
+			int held = ship.getQuantity(c);
+			if (c != wanted && c != fuel && held > 0) {
+				player.sell(c.getName(), held);
+			}
+		}
+		
+		//keep the tank full wherever it can be filled
+		if (fuel != null && here.hasCommodity(fuel)) {
+			int price = world.getPrice(here, fuel);
+			int quantity = ship.getFuelCapacity() - ship.getFuel();
+			if (price > 0) {
+				quantity = Math.min(quantity, player.getMoney() / price);
+			}
+			if (quantity > 0) { player.buy(FUEL, quantity); }
+		}
+		
+		int needed = mission.getQuantity() - ship.getQuantity(wanted);
+		if (needed > 0 && here.hasCommodity(wanted)) {
+			int price = world.getPrice(here, wanted);
+			int quantity = Math.min(needed, this.cargoSpace(ship));
+			if (price > 0) {
+				quantity = Math.min(quantity, player.getMoney() / price);
+			}
+			if (quantity > 0) {
+				player.buy(wanted.getName(), quantity);
+				needed -= quantity;
+			}
+		}
+		
+		Location destination;
+		if (needed <= 0) {
+			//the Mission is only checked on arrival, so leave and come back
+			destination = mission.getLocation();
+			if (destination == here) {
+				destination = this.nearest(player, null);
+			}
+		}
+		else if (here.hasCommodity(wanted)) {
+			//can't afford the rest here, so go and make some money
+			destination = this.bestTradeDestination(player);
+		}
+		else {
+			destination = this.nearest(player, wanted);
+		}
+		destination = this.toward(player, destination);
+		if (destination == null) { return false; }
+		
+		this.buyTradeGoods(player, destination);
+		player.travel(destination.getName());
+		return true;
+	}
+	
+	private int cargoSpace(Ship ship) {
+		return ship.getCargoCapacity() - ship.getTotalCargoQuantity();
+	}
+	
+	/**
+	 * Finds the next stop on the way to a Location: the Location itself if
+	 * the fuel on board reaches it, otherwise the Location selling Fuel within
+	 * reach that is closest to it (and closer than here).
+	 * @return The next stop, or null if there is no way to get closer
+	 */
+	private Location toward(Player player, Location target) {
+		if (target == null) { return null; }
+		WorldTemplate template = player.getWorld().getTemplate();
+		Commodity fuelCommodity = template.getCommodity(FUEL);
+		int here = player.getLocation().getId();
+		int fuel = player.getShip().getFuel();
+		if (template.getDistance(here, target.getId()) <= fuel) {
+			return target;
+		}
+		Location best = null;
+		int bestLeft = template.getDistance(here, target.getId());
+		int[] reachable = template.getSpatialIndex().withinRange(here, fuel);
+		for (int r = 0; r < reachable.length; r++) {
+			int i = reachable[r];
+			Location l = template.getLocation(i);
+			int left = template.getDistance(i, target.getId());
+			if (left < bestLeft && fuelCommodity != null &&
+				l.hasCommodity(fuelCommodity)) {
+				best = l;
+				bestLeft = left;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Finds the nearest other Location, offering a Commodity if one is given.
+	 * @return The nearest such Location, or null if there is none
+	 */
+	private Location nearest(Player player, Commodity offering) {
+		WorldTemplate template = player.getWorld().getTemplate();
+		int here = player.getLocation().getId();
+		if (offering != null) {
+			//only the Locations trading it need looking at
+			MarketIndex markets = template.getMarketIndex();
+			int market = markets.nearest(offering, here);
+			return (market == -1) ? null :
+				template.getLocation(markets.getLocationId(offering, market));
+		}
+		int[] nearest = template.getSpatialIndex().nearest(here, 1, null);
+		return (nearest.length == 0) ? null : template.getLocation(nearest[0]);
+	}
+	
+	/**
+	 * Finds the Location within the fuel on board where trade goods bought
+	 * here are expected to make the most money.  For each Commodity on sale
+	 * here only the dearest market within reach can be the best place to
+	 * sell it, so that is all that is looked at (see
+	 * <tt>MarketIndex.dearestWithin</tt>).
+	 * @return The best Location, or null if none is expected to make money
+	 */
+	private Location bestTradeDestination(Player player) {
+		World world = player.getWorld();
+		WorldTemplate template = world.getTemplate();
+		MarketIndex markets = template.getMarketIndex();
+		Location here = player.getLocation();
+		int fuel = player.getShip().getFuel();
+		Commodity fuelCommodity = world.getCommodity(FUEL);
+		Commodity wanted = player.getMission().getCommodity();
+		int space = this.cargoSpace(player.getShip());
+		Location best = null;
+		long bestProfit = 0;
+		List<Commodity> offered = here.getCommodities();
+		for (int i = 0; i < offered.size(); i++) {
+			Commodity c = offered.get(i);
+			if (c == fuelCommodity || c == wanted) { continue; }
+			int market = markets.dearestWithin(c, here.getId(), fuel);
+			if (market == -1) { continue; }
+			int buy = world.getPrice(here, c);
+			int sell = markets.getExpectedPrice(c, market);
+			if (sell <= buy) { continue; }
+			int quantity = (buy == 0) ? space :
+				Math.min(space, player.getMoney() / buy);
+			long profit = (long)quantity * (sell - buy);
+			Location l = template.getLocation(markets.getLocationId(c, market));
+			//of places as good as each other, the nearest
+			if (profit > bestProfit || (profit == bestProfit &&
+				best != null && this.nearer(template, here, l, best))) {
+				best = l;
+				bestProfit = profit;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Indicates whether one Location is nearer another than a third is, the
+	 * nearer of two the same distance away being the one with the lower id.
+	 */
+	private boolean nearer(WorldTemplate template, Location from, Location a,
+		Location b) {
+		int da = template.getDistance(from.getId(), a.getId());
+		int db = template.getDistance(from.getId(), b.getId());
+		return da < db || (da == db && a.getId() < b.getId());
+	}
+	
+	/**
+	 * Buys the Commodity expected to make the most money carried from here to
+	 * a destination, if any is expected to make money.
+	 */
+	private void buyTradeGoods(Player player, Location destination) {
+		int[] trade = new int[2];
+		if (this.tradeProfit(player, destination, trade) > 0) {
+			Commodity c = player.getWorld().getTemplate().getCommodity(
+				trade[0]);
+			player.buy(c.getName(), trade[1]);
+		}
+	}
+	
+	/**
+	 * Works out the best trade from here to a destination at the current
+	 * prices here and the expected prices there.
+	 * @return The expected profit, with the Commodity's ordinal and quantity
+	 * put in <tt>trade</tt> if it isn't null
+	 */
+	private long tradeProfit(Player player, Location destination,
+		int[] trade) {
+		World world = player.getWorld();
+		Location here = player.getLocation();
+		Commodity fuel = world.getCommodity(FUEL);
+		Commodity wanted = player.getMission().getCommodity();
+		int space = this.cargoSpace(player.getShip());
+		long best = 0;
+		List<Commodity> offered = here.getCommodities();
+		for (int i = 0; i < offered.size(); i++) {
+			Commodity c = offered.get(i);
+			if (c == fuel || c == wanted || !destination.hasCommodity(c)) {
+				continue;
+			}
+			int buy = world.getPrice(here, c);
+			int sell = (destination.getMinPrice(c) +
+				destination.getMaxPrice(c)) / 2;
+			if (sell <= buy) { continue; }
+			int quantity = (buy == 0) ? space :
+				Math.min(space, player.getMoney() / buy);
+			long profit = (long)quantity * (sell - buy);
+			if (profit > best) {
+				best = profit;
+				if (trade != null) {
+					trade[0] = c.getOrdinal();
+					trade[1] = quantity;
+				}
+			}
+		}
+		return best;
+	}
+	
+}
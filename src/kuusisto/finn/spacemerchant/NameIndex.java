@@ -0,0 +1,238 @@
+package kuusisto.finn.spacemerchant;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The NameIndex class finds things by name the way a player types them: in
+ * any case, and by any prefix that only one name starts with.  The names are
+ * kept case-folded in a trie, so finding one takes time in proportion to the
+ * length of the name typed, and a prefix that several names start with can
+ * be completed to all of them.  Each name is known by its index in the list
+ * the NameIndex is built from, such as a Location's id or a Commodity's
+ * ordinal.  Where names differ only in case, the one that matches exactly is
+ * found, or else the first of them.
+ * <br>
+ * The trie is a few parallel arrays rather than an object per node, and
+ * names are looked up from a range of any CharSequence, so finding a name
+ * allocates nothing.
+ * 
+ * @author Finn Kuusisto
+ */
+public class NameIndex {
+	
+	private static final int NONE = -1;
+	
+	private String[] names;
+	//the character of each node, and its first child and next sibling, with
+	//siblings in character order
+	private char[] label;
+	private int[] child;
+	private int[] sibling;
+	//the first name that ends at each node, or NONE
+	private int[] terminal;
+	//the number of names that start with each node's prefix
+	private int[] count;
+	//any one of those names
+	private int[] some;
+	//the next name that differs only in case, or NONE
+	private int[] sameFold;
+	private int size;
+	
+	/**
+	 * Constructs a new NameIndex of a list of names.
+	 * @param names The names, each known by its index in the list
+	 */
+	public NameIndex(List<String> names) {
+		this.names = names.toArray(new String[names.size()]);
+		this.sameFold = new int[this.names.length];
+		Arrays.fill(this.sameFold, NONE);
+		int capacity = 16;
+		this.label = new char[capacity];
+		this.child = new int[capacity];
+		this.sibling = new int[capacity];
+		this.terminal = new int[capacity];
+		this.count = new int[capacity];
+		this.some = new int[capacity];
+		this.newNode('\0');
+		for (int i = 0; i < this.names.length; i++) {
+			this.add(i);
+		}
+	}
+	
+	/**
+	 * Get the number of names in this NameIndex.
+	 * @return The number of names
+	 */
+	public int size() {
+		return this.names.length;
+	}
+	
+	/**
+	 * Get a name by its index.
+	 * @param index The index of the name
+	 * @return The name
+	 */
+	public String getName(int index) {
+		return this.names[index];
+	}
+	
+	/**
+	 * Finds a name as typed.
+	 * @param text The name as typed
+	 * @return The index of the name, or -1 if there is no such name
+	 */
+	public int find(CharSequence text) {
+		return this.find(text, 0, text.length());
+	}
+	
+	/**
+	 * Finds a name as typed.  A name that matches in any case is found first,
+	 * then the one name that starts with the text if there is only one.
+	 * @param text The characters holding the name as typed
+	 * @param start The index of the first character of the name
+	 * @param end The index after the last character of the name
+	 * @return The index of the name, or -1 if there is no such name or the
+	 * text is the start of more than one
+	 */
+	public int find(CharSequence text, int start, int end) {
+		if (start == end) { return NONE; }
+		int node = this.walk(text, start, end);
+		if (node == NONE) { return NONE; }
+		int name = this.terminal[node];
+		if (name != NONE) {
+			for (int n = name; n != NONE; n = this.sameFold[n]) {
+				if (NameIndex.equals(this.names[n], text, start, end)) {
+					return n;
+				}
+			}
+			return name;
+		}
+		return (this.count[node] == 1) ? this.some[node] : NONE;
+	}
+	
+	/**
+	 * Finds the names that start with some text, in any case.
+	 * @param text The characters holding the start of a name
+	 * @param start The index of the first character
+	 * @param end The index after the last character
+	 * @param found The array to fill with the indexes of the names, in
+	 * case-folded order, as many as will fit
+	 * @return The number of names that start with the text, which may be more
+	 * than were put in the array
+	 */
+	public int complete(CharSequence text, int start, int end, int[] found) {
+		int node = this.walk(text, start, end);
+		if (node == NONE) { return 0; }
+		this.collect(node, found, 0);
+		return this.count[node];
+	}
+	
+	/**
+	 * Follows the text down the trie.
+	 * @return The node of the whole text, or NONE if no name starts with it
+	 */
+	private int walk(CharSequence text, int start, int end) {
+		int node = 0;
+		for (int i = start; i < end && node != NONE; i++) {
+			char c = NameIndex.fold(text.charAt(i));
+			int next = this.child[node];
+			while (next != NONE && this.label[next] < c) {
+				next = this.sibling[next];
+			}
+			node = (next != NONE && this.label[next] == c) ? next : NONE;
+		}
+		return node;
+	}
+	
+	/**
+	 * Puts the names under a node into an array in order, as far as they fit.
+	 * @return The number of names in the array so far
+	 */
+	private int collect(int node, int[] found, int filled) {
+		for (int n = this.terminal[node]; n != NONE && filled < found.length;
+			n = this.sameFold[n]) {
+			found[filled++] = n;
+		}
+		for (int c = this.child[node]; c != NONE && filled < found.length;
+			c = this.sibling[c]) {
+			filled = this.collect(c, found, filled);
+		}
+		return filled;
+	}
+	
+	private void add(int index) {
+		String name = this.names[index];
+		int node = 0;
+		this.count[0]++;
+		this.some[0] = index;
+		for (int i = 0; i < name.length(); i++) {
+			char c = NameIndex.fold(name.charAt(i));
+			int prev = NONE;
+			int next = this.child[node];
+			while (next != NONE && this.label[next] < c) {
+				prev = next;
+				next = this.sibling[next];
+			}
+			if (next == NONE || this.label[next] != c) {
+				int created = this.newNode(c);
+				this.sibling[created] = next;
+				if (prev == NONE) {
+					this.child[node] = created;
+				}
+				else {
+					this.sibling[prev] = created;
+				}
+				next = created;
+			}
+			node = next;
+			this.count[node]++;
+			this.some[node] = index;
+		}
+		if (this.terminal[node] == NONE) {
+			this.terminal[node] = index;
+		}
+		else {
+			int last = this.terminal[node];
+			while (this.sameFold[last] != NONE) {
+				last = this.sameFold[last];
+			}
+			this.sameFold[last] = index;
+		}
+	}
+	
+	private int newNode(char c) {
+		if (this.size == this.label.length) {
+			int capacity = this.size * 2;
+			this.label = Arrays.copyOf(this.label, capacity);
+			this.child = Arrays.copyOf(this.child, capacity);
+			this.sibling = Arrays.copyOf(this.sibling, capacity);
+			this.terminal = Arrays.copyOf(this.terminal, capacity);
+			this.count = Arrays.copyOf(this.count, capacity);
+			this.some = Arrays.copyOf(this.some, capacity);
+		}
+		int node = this.size++;
+		this.label[node] = c;
+		this.child[node] = NONE;
+		this.sibling[node] = NONE;
+		this.terminal[node] = NONE;
+		return node;
+	}
+	
+	/**
+	 * Folds the case of a character the way
+	 * <tt>String.equalsIgnoreCase</tt> compares them.
+	 */
+	private static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+	
+	private static boolean equals(String name, CharSequence text, int start,
+		int end) {
+		if (name.length() != end - start) { return false; }
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) != text.charAt(start + i)) { return false; }
+		}
+		return true;
+	}
+	
+}
@@ -1,33 +1,74 @@
 package kuusisto.finn.spacemerchant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * The Player class represents the Player in a text-based game.  A Player has a
- * current Location, a Ship, a current Mission and money.
+ * World in which it plays, a current Location, a Ship, a current Mission and
+ * money.  A Player never prints anything: its actions return results (such as
+ * TravelResult and TradeResult) that a TextRenderer can describe to a user.
  * 
  * @author Finn Kuusisto
  */
 public class Player {
 
+	private static final String COMMANDS =
+		"[COMMANDS]\n" +
+		"travel [destination]\n" +
+		"   -to travel to the specified destination\n" +
+		"buy [quantity] [commodity]\n" +
+		"   -to buy the specified commodity\n" +
+		"sell [quantity] [commodity]\n" +
+		"   -to sell the specified commodity\n" +
+		"list [commodities|destinations|status|routes|commands]\n" +
+		"   -to list information:\n" +
+		"   -\"commodities\" to see the commodities available at the " +
+		"current location and their prices\n" +
+		"   -\"destinations\" to see the travel distances from the " +
+		"current location\n" +
+		"   -\"status\" to see information about the player's location, " +
+		"mission, money and ship\n" +
+		"   -\"routes\" to see the most profitable trade route from the " +
+		"current location\n" +
+		"   -\"commands\" to see these commands\n" +
+		"quit\n   -to quit without finishing\n";
+	//the most names suggested for a name that can't be found
+	private static final int MAX_SUGGESTIONS = 5;
+
+	private World world;
 	private Location location;
 	private Ship ship;
 	private Mission mission;
 	private int money;
 	
 	/**
-	 * Construct a Player with the specified starting Location, starting money,
-	 * the cargo capacity and fuel capacity of the Player's Ship.
+	 * Construct a Player in a World with the specified starting Location,
+	 * starting money, the cargo capacity and fuel capacity of the Player's
+	 * Ship.
+	 * @param world The World in which the Player plays
 	 * @param location The Player's starting Location
 	 * @param money The Player's starting money
 	 * @param shipCargoCapacity The cargo capacity of the Player's Ship
 	 * @param shipFuelCapacity The fuel capacity of the Player's Ship
 	 */
-	public Player(Location location, int money, int shipCargoCapacity,
-		int shipFuelCapacity) {
+	public Player(World world, Location location, int money,
+		int shipCargoCapacity, int shipFuelCapacity) {
+		this.world = world;
 		this.location = location;
-		this.location.drawCommodityPrices();
+		this.world.drawCommodityPrices(this.location);
 		this.money = money;
 		this.ship = new Ship(shipCargoCapacity, shipFuelCapacity);
 	}
 	
+	/**
+	 * Get the World in which the Player plays.
+	 * @return This Player's World
+	 */
+	public World getWorld() {
+		return this.world;
+	}
+	
 	/**
 	 * Get the Location of the Player.
 	 * @return This Player's Location
@@ -36,6 +77,57 @@ public class Player {
 		return this.location;
 	}
 	
+	/**
+	 * Moves the Player to a Location without travelling there: no fuel is
+	 * used, no prices are drawn and no Mission is checked.  This is for
+	 * restoring a saved game (see SessionSnapshot).
+	 * @param location The Player's new Location
+	 */
+	void setLocation(Location location) {
+		this.location = location;
+	}
+	
+	/**
+	 * Moves the Player into a new version of their game world, matching
+	 * their Location and cargo up by name (see <tt>World.migrate</tt>).  The
+	 * World must already have its Missions moved across.
+	 * @param previous The version of the game world the Player is leaving
+	 * @param next The version of the game world the Player is moving to
+	 */
+	void migrate(WorldTemplate previous, WorldTemplate next) {
+		Location location = next.getLocation(this.location.getName());
+		this.location = (location != null) ? location :
+			next.getStartLocation();
+		Ship ship = new Ship(this.ship.getCargoCapacity(),
+			this.ship.getFuelCapacity());
+		ship.removeFuel(ship.getFuel() - this.ship.getFuel());
+		//the cargo moves across as one batch, checked against the capacity
+		//once
+		Commodity[] cargo = new Commodity[previous.getCommodityCount()];
+		int[] quantities = new int[cargo.length];
+		int count = 0;
+		for (Commodity c : previous.getCommodities()) {
+			int quantity = this.ship.getQuantity(c);
+			Commodity same = next.getCommodity(c.getName());
+			if (quantity != 0 && same != null) {
+				cargo[count] = same;
+				quantities[count++] = quantity;
+			}
+		}
+		if (!ship.changeCommodities(cargo, quantities, count)) {
+			throw new IllegalStateException("Cargo doesn't fit the Ship");
+		}
+		this.ship = ship;
+		//once every Mission is complete the last one stays, as it does when
+		//the last one is completed in play
+		List<Mission> missions = next.getMissions();
+		Mission mission = this.world.getNextMission();
+		if (mission == null && !missions.isEmpty()) {
+			mission = missions.get(missions.size() - 1);
+		}
+		this.mission = mission;
+	}
+	
 	/**
 	 * Get the Player's count of money.
 	 * @return This Player's count of money
@@ -69,174 +161,248 @@ public class Player {
 	}
 	
 	/**
-	 * Set the Player's current Mission.  It should also print the 
-	 * human-readable form of the new Mission to the screen.
+	 * Set the Player's current Mission.
 	 * @param mission This Player's new current Mission
 	 */
 	public void setMission(Mission mission) {
-		System.out.println(mission);
-		System.out.println();
 		this.mission = mission;
 	}
 
 	/**
-	 * Prints the human-readable form of the Player's Location to the screen.
+	 * Request that the Player travel to the named Location.  The name may be
+	 * in any case, or just the start of a Location's name if no other starts
+	 * the same way (<tt>World.findLocation</tt>).  The fuel required
+	 * to travel to any Location is equal to the distance to that Location.  If
+	 * the Location doesn't exist, the result is UNKNOWN_LOCATION.  If the
+	 * Player doesn't have enough fuel to travel to the Location (use the
+	 * Player's <tt>World.getDistance</tt> to determine the distance to the
+	 * Location), the result is NOT_ENOUGH_FUEL.  Otherwise, the Player's
+	 * Location should be changed, the proper amount of fuel should be removed
+	 * from the Player's Ship, prices at the Player's new Location should be
+	 * randomly drawn (<tt>World.drawCommodityPrices</tt>) and the Player's
+	 * current Mission should be checked (<tt>location.checkMission</tt>).
+	 * Before anything else, the World moves to the current version of its
+	 * game world if it has been reloaded (<tt>World.migrate</tt>).
+	 * @param name The name of the desired Location
+	 * @return The result of the trip
 	 */
-	public void describeLocation() {
-		System.out.println(this.location);
-		System.out.println();
+	public TravelResult travel(String name) {
+		return this.travel(name, 0, name.length());
 	}
-
+	
 	/**
-	 * Request that the Player travel to the named Location.  The fuel required
-	 * to travel to any Location is equal to the distance to that Location.  If
-	 * the Location doesn't exist, the Player should say "I don't know where 
-	 * location_name is.".  If the Player doesn't have enough fuel to travel to 
-	 * the Location (use <tt>World.getDistance</tt> to determine the distance 
-	 * to the Location), the Player should say "I don't have enough fuel to get
-	 * to location_name."  Otherwise, the Player's Location should be changed,
-	 * the proper amount of fuel should be removed from the Player's Ship,
-	 * prices at the Player's new Location should be randomly drawn 
-	 * (<tt>location.drawCommodityPrices</tt>) and the Player's current Mission
-	 * should be checked (<tt>location.checkMission</tt>).
-	 * @param name The name of the desired Location
+	 * Request that the Player travel to a Location named by part of some
+	 * text, such as a parsed command, without making a String of it (see
+	 * <tt>travel(String)</tt>).  If the Location can't be found, the result
+	 * suggests the Locations whose names start with the text.
+	 * @param text The characters holding the name of the desired Location
+	 * @param start The index of the first character of the name
+	 * @param end The index after the last character of the name
+	 * @return The result of the trip
 	 */
-	public void travel(String name) {
-		int distance = World.getDistance(this.location.getName(), name);
-		if (distance == -1) {
-			System.out.println("I don't know where " + name + " is.");
-			System.out.println();
-		}
-		else if (distance > this.ship.getFuel()) {
-			System.out.println("I don't have enough fuel to get to " + name +
-					".");
-			System.out.println();
+	public TravelResult travel(CharSequence text, int start, int end) {
+		Location destination = this.world.findLocation(text, start, end);
+		if (destination == null) {
+			return new TravelResult(TravelResult.UNKNOWN_LOCATION,
+				text.subSequence(start, end).toString(), null, -1, null,
+				this.suggest(this.world.getTemplate().getLocationNames(),
+					text, start, end));
 		}
-		else {
-			this.ship.removeFuel(distance);
-			this.location = World.getLocation(name);
-			this.location.drawCommodityPrices();
-			this.describeLocation();
-			this.location.checkMission(this);
+		String name = destination.getName();
+		int distance = this.world.getDistance(this.location.getId(),
+			destination.getId());
+		if (distance > this.ship.getFuel()) {
+			return new TravelResult(TravelResult.NOT_ENOUGH_FUEL, name,
+				destination, distance, null);
 		}
+		this.ship.removeFuel(distance);
+		this.location = destination;
+		//only a trip that happens moves the session to a reloaded world,
+		//which may move the Player to its starting Location
+		this.world.migrate();
+		this.world.drawCommodityPrices(this.location);
+		MissionCompleted completed = this.location.checkMission(this);
+		return new TravelResult(TravelResult.TRAVELED,
+			this.location.getName(), this.location, distance, completed);
 	}
 	
 	/**
 	 * Request that the Player buy a specified quantity of a named Commodity at
 	 * their current Location.  If the Player's current Location doesn't have
-	 * the desired Commodity, the Player should say "I can't buy commodity_name
-	 * here."  If the Player can't afford the specified quantity or the
-	 * quantity is negative, the Player should say  "I can't buy quantity 
-	 * commodity_name."  Otherwise, it will have to check if the Player has
-	 * space for the Commodity.  <i>Fuel is a special Commodity</i>.  If the
-	 * desired Commodity is Fuel, it must check the Player's Ship's fuel
-	 * capacity.  If the Ship doesn't have enough space for the desired
-	 * quantity of fuel, the Player should say "I can't store that much Fuel."
-	 * Otherwise, the desired quantity should be added to Ship's fuel, the
-	 * Player's money should be decremented appropriately and the Player should
-	 * say "I bought quantity Fuel."  For all other Commodities, it must check
-	 * the Player's Ship's cargo capacity.  If the Player doesn't have enough
-	 * cargo space, the Player should say "I can't store that much cargo."
-	 * Otherwise, the desired quantity of the Commodity should be added to the
-	 * Ship's cargo, the Player's money should be decremented appropriately and
-	 * the Player should say "I bought quantity commodity_name." <i>You can get
-	 * a Commodity object by name by calling <tt>World.getCommodity</tt></i>.
+	 * the desired Commodity, the result is NOT_OFFERED.  If the Player can't
+	 * afford the specified quantity or the quantity is negative, the result is
+	 * BAD_QUANTITY.  Otherwise, it will have to check if the Player has space
+	 * for the Commodity.  <i>Fuel is a special Commodity</i>.  If the desired
+	 * Commodity is Fuel, it must check the Player's Ship's fuel capacity.  If
+	 * the Ship doesn't have enough space for the desired quantity of fuel, the
+	 * result is NO_FUEL_SPACE.  For all other Commodities, it must check the
+	 * Player's Ship's cargo capacity, and the result is NO_CARGO_SPACE if
+	 * there isn't enough.  Otherwise, the desired quantity should be added to
+	 * the Ship's fuel or cargo, the Player's money should be decremented
+	 * appropriately and the result is BOUGHT.  As with Locations, the name
+	 * may be in any case or the start of a unique name
+	 * (<tt>World.findCommodity</tt>).
 	 * @param name The name of the desired Commodity to buy
 	 * @param quantity The quantity of the desired Commodity to buy
+	 * @return The result of the purchase
 	 */
-	public void buy(String name, int quantity) {
-		Commodity commodity = World.getCommodity(name);
+	public TradeResult buy(String name, int quantity) {
+		return this.buy(name, 0, name.length(), quantity);
+	}
+	
+	/**
+	 * Request that the Player buy a Commodity named by part of some text,
+	 * such as a parsed command, without making a String of it (see
+	 * <tt>buy(String, int)</tt>).
+	 * @param text The characters holding the name of the Commodity
+	 * @param start The index of the first character of the name
+	 * @param end The index after the last character of the name
+	 * @param quantity The quantity of the desired Commodity to buy
+	 * @return The result of the purchase
+	 */
+	public TradeResult buy(CharSequence text, int start, int end,
+		int quantity) {
+		Commodity commodity = this.world.findCommodity(text, start, end);
+		if (commodity == null) {
+			return this.unknownCommodity(true, text, start, end, quantity);
+		}
+		String name = commodity.getName();
 		if (!this.location.hasCommodity(commodity)) {
-			System.out.println("I can't buy " + name + " here.");
+			return new TradeResult(TradeResult.NOT_OFFERED, true, name,
+				quantity, -1);
 		}
-		else if (this.location.getPrice(commodity) * quantity > this.money ||
-				quantity < 0) {
-			System.out.println("I can't buy " + quantity + " " + name + ".");
+		int price = this.world.getPrice(this.location, commodity);
+		if (price * quantity > this.money || quantity < 0) {
+			return new TradeResult(TradeResult.BAD_QUANTITY, true, name,
+				quantity, -1);
 		}
-		else if (name.equals("Fuel")) {
+		if (name.equals("Fuel")) {
 			if (this.ship.getFuel() + quantity > this.ship.getFuelCapacity()) {
-				System.out.println("I can't store that much Fuel.");
-			}
-			else {
-				this.money -= this.location.getPrice(commodity) * quantity;
-				this.ship.addFuel(quantity);
-				System.out.println("I bought " + quantity + " Fuel.");
+				return new TradeResult(TradeResult.NO_FUEL_SPACE, true, name,
+					quantity, -1);
 			}
+			this.ship.addFuel(quantity);
 		}
 		else {
 			if (this.ship.getTotalCargoQuantity() + quantity > 
 				this.ship.getCargoCapacity()) {
-				System.out.println("I can't store that much cargo.");
-			}
-			else {
-				this.money -= this.location.getPrice(commodity) * quantity;
-				this.ship.addCommodity(commodity, quantity);
-				System.out.println("I bought " + quantity + " " + name + ".");
+				return new TradeResult(TradeResult.NO_CARGO_SPACE, true, name,
+					quantity, -1);
 			}
+			this.ship.addCommodity(commodity, quantity);
 		}
-		System.out.println();
+		this.money -= price * quantity;
+		return new TradeResult(TradeResult.BOUGHT, true, name, quantity,
+			price);
 	}
 
 	/**
 	 * Request that the Player sell a specified quantity of a named Commodity
 	 * at their current Location.  If the Player's current Location doesn't 
-	 * have the desired Commodity, the Player should say "I can't sell 
-	 * commodity_name here."  Otherwise, it will have to check if the Player
-	 * has the desired quantity to sell.  <i>Fuel is a special Commodity</i>.
-	 * If the desired Commodity to sell is Fuel, it must check the Player's
-	 * Ship's fuel.  If the Ship doesn't have enough fuel to sell, the Player
-	 * should say "I can't sell quantity Fuel."  Otherwise, the desired 
-	 * quantity should be removed from the Ship's fuel, the Player's money
-	 * should be incremented accordingly and the Player should say "I sold
-	 * quantity Fuel."  For other Commodities, it must check the Ship's stored
-	 * quantity of the Commodity in cargo.  If the Ship doesn't have enough of
-	 * the Commodity to sell, the Player should say "I can't sell quantity
-	 * commodity_name."  Otherwise, the desired quantity should be removed from
-	 * the Ship's cargo, the Player's money should be incremented appropriately
-	 * and the Player should say "I sold quantity commodity_name."  <i>You can
-	 * get a Commodity object by name by calling
-	 * <tt>World.getCommodity</tt></i>.
+	 * have the desired Commodity, the result is NOT_OFFERED.  Otherwise, it
+	 * will have to check if the Player has the desired quantity to sell.
+	 * <i>Fuel is a special Commodity</i>.  If the desired Commodity to sell is
+	 * Fuel, it must check the Player's Ship's fuel, and for other Commodities
+	 * the Ship's stored quantity of the Commodity in cargo.  If the Ship
+	 * doesn't have enough to sell, or the quantity is negative, the result is
+	 * BAD_QUANTITY.  Otherwise, the desired quantity should be removed from
+	 * the Ship's fuel or cargo, the Player's money should be incremented
+	 * appropriately and the result is SOLD.  As with Locations, the name may
+	 * be in any case or the start of a unique name
+	 * (<tt>World.findCommodity</tt>).
 	 * @param name The name of the desired Commodity to sell
 	 * @param quantity The quantity of the desired Commodity to sell
+	 * @return The result of the sale
 	 */
-	public void sell(String name, int quantity) {
-		Commodity commodity = World.getCommodity(name);
+	public TradeResult sell(String name, int quantity) {
+		return this.sell(name, 0, name.length(), quantity);
+	}
+	
+	/**
+	 * Request that the Player sell a Commodity named by part of some text,
+	 * such as a parsed command, without making a String of it (see
+	 * <tt>sell(String, int)</tt>).
+	 * @param text The characters holding the name of the Commodity
+	 * @param start The index of the first character of the name
+	 * @param end The index after the last character of the name
+	 * @param quantity The quantity of the desired Commodity to sell
+	 * @return The result of the sale
+	 */
+	public TradeResult sell(CharSequence text, int start, int end,
+		int quantity) {
+		Commodity commodity = this.world.findCommodity(text, start, end);
+		if (commodity == null) {
+			return this.unknownCommodity(false, text, start, end, quantity);
+		}
+		String name = commodity.getName();
 		if (!this.location.hasCommodity(commodity)) {
-			System.out.println("I can't sell " + name + " here.");
+			return new TradeResult(TradeResult.NOT_OFFERED, false, name,
+				quantity, -1);
 		}
-		else if (name.equals("Fuel")) {
-			if (quantity > this.ship.getFuel() || quantity < 0) {
-				System.out.println("I can't sell " + quantity + " " + name +
-						".");
-			}
-			else {
-				this.money += this.location.getPrice(commodity) * quantity;
-				this.ship.removeFuel(quantity);
-				System.out.println("I sold " + quantity + " Fuel.");
-			}
+		boolean fuel = name.equals("Fuel");
+		int held = fuel ? this.ship.getFuel() :
+			this.ship.getQuantity(commodity);
+		if (quantity > held || quantity < 0) {
+			return new TradeResult(TradeResult.BAD_QUANTITY, false, name,
+				quantity, -1);
 		}
-		else if (quantity > this.ship.getQuantity(commodity) ||
-			quantity < 0) {
-			System.out.println("I can't sell " + quantity + " " + name + ".");
+		int price = this.world.getPrice(this.location, commodity);
+		this.money += price * quantity;
+		if (fuel) {
+			this.ship.removeFuel(quantity);
 		}
 		else {
-			this.money += this.location.getPrice(commodity) * quantity;
 			this.ship.removeCommodity(commodity, quantity);
-			System.out.println("I sold " + quantity + " " + name + ".");
 		}
-		System.out.println();
+		return new TradeResult(TradeResult.SOLD, false, name, quantity,
+			price);
+	}
+	
+	/**
+	 * The result of a trade in a Commodity that can't be found, suggesting
+	 * the Commodities whose names start with the text.
+	 */
+	private TradeResult unknownCommodity(boolean buying, CharSequence text,
+		int start, int end, int quantity) {
+		return new TradeResult(TradeResult.NOT_OFFERED, buying,
+			text.subSequence(start, end).toString(), quantity, -1,
+			this.suggest(this.world.getTemplate().getCommodityNames(), text,
+				start, end));
+	}
+	
+	/**
+	 * Lists the first few names that start with some text, for a name that
+	 * can't be found because several do.
+	 */
+	private List<String> suggest(NameIndex names, CharSequence text,
+		int start, int end) {
+		if (start == end) {
+			return Collections.emptyList();
+		}
+		int[] found = new int[MAX_SUGGESTIONS];
+		int count = Math.min(names.complete(text, start, end, found),
+			found.length);
+		List<String> suggestions = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			suggestions.add(names.getName(found[i]));
+		}
+		return suggestions;
 	}
 
 	/**
-	 * Request that the Player list a named set of information.  If the desired
-	 * information is "commodities", the Player should print their current
+	 * Get a named set of information about the Player as text.  If the desired
+	 * information is "commodities", the Player should give their current
 	 * Location's commodity list (the list with available Commodities and
 	 * prices).  If the desired information is "destinations", the Player
-	 * should print their current Location's destinations list (the list with
-	 * distances to all other Locations).  If the desired information is
-	 * "status", the Player should print out information about their current
+	 * should give their current Location's destinations list (the list with
+	 * distances to the other Locations within the fuel on board, nearest
+	 * first).  If the desired information is
+	 * "status", the Player should give information about their current
 	 * status, including their current Location, Mission, money and Ship
-	 * information.  It should follow the convention:<br>
+	 * information.  If the desired information is "routes", the Player should
+	 * give the most profitable trade route from their current Location (use
+	 * <tt>RoutePlanner.plan</tt>).  For "status" it should follow the
+	 * convention:<br>
 	 * <tt>[Status]</tt><br>
 	 * <tt>Location: location_name</tt><br>
 	 * <tt>Mission: title - description</tt><br>
@@ -263,7 +429,7 @@ public class Player {
 	 * <tt>Inventory -</tt><br>
 	 * <tt>&nbsp;&nbsp;Cow: 600</tt><br>
 	 * <tt>&nbsp;&nbsp;Scrap Metal: 50</tt><br>
-	 * If the desired information is "commands" it should print out the
+	 * If the desired information is "commands" it should give the
 	 * commands available to the user.  It should look like:<br>
 	 * <tt>[COMMANDS]</tt><br>
 	 * <tt>travel [destination]</tt><br>
@@ -272,7 +438,7 @@ public class Player {
 	 * <tt>&nbsp;&nbsp;&nbsp;-to buy the specified commodity</tt><br>
 	 * <tt>sell [quantity] [commodity]</tt><br>
 	 * <tt>&nbsp;&nbsp;&nbsp;-to sell the specified commodity</tt><br>
-	 * <tt>list [commodities|destinations|status|commands]</tt><br>
+	 * <tt>list [commodities|destinations|status|routes|commands]</tt><br>
 	 * <tt>&nbsp;&nbsp;&nbsp;-to list information:</tt><br>
 	 * <tt>&nbsp;&nbsp;&nbsp;-"commodities" to see the commodities available at
 	 * the current location and their prices</tt><br>
@@ -280,20 +446,23 @@ public class Player {
 	 * the current location</tt><br>
 	 * <tt>&nbsp;&nbsp;&nbsp;-"status" to see information about the player's
 	 * location, mission, money and ship</tt><br>
+	 * <tt>&nbsp;&nbsp;&nbsp;-"routes" to see the most profitable trade route
+	 * from the current location</tt><br>
 	 * <tt>&nbsp;&nbsp;&nbsp;-"commands" to see these commands</tt><br>
 	 * <tt>quit</tt><br>
 	 * <tt>&nbsp;&nbsp;&nbsp;-to quit without finishing</tt><br>
 	 * If the desired information is anything other than "commodities",
-	 * "destinations", "status" or "commands", the Player should say "I don't
-	 * know how to list information_name."
+	 * "destinations", "status", "routes" or "commands", the Player should say
+	 * "I don't know how to list information_name."
 	 * @param name The name of the desired information to list
+	 * @return The information as text, ending with a newline
 	 */
-	public void list(String name) {
+	public String list(String name) {
 		if (name.equals("commodities")) {
-			System.out.println(this.location.getCommodityList());
+			return this.location.getCommodityList(this.world);
 		}
 		else if (name.equals("destinations")) {
-			System.out.println(this.location.getDestinationList());
+			return this.location.getDestinationList(this.ship.getFuel());
 		}
 		else if (name.equals("status")){
 			StringBuilder str = new StringBuilder();
@@ -304,31 +473,17 @@ public class Player {
 			str.append("Money: " + this.money + "\n");
 			str.append("Ship:\n");
 			str.append(this.ship.toString());
-			System.out.println(str.toString());
+			return str.toString();
+		}
+		else if (name.equals("routes")) {
+			RoutePlanner planner = new RoutePlanner(this.world.getTemplate());
+			return planner.plan(this).toString();
 		}
 		else if (name.equals("commands")) {
-			System.out.println("[COMMANDS]");
-			System.out.println("travel [destination]");
-			System.out.println("   -to travel to the specified destination");
-			System.out.println("buy [quantity] [commodity]");
-			System.out.println("   -to buy the specified commodity");
-			System.out.println("sell [quantity] [commodity]");
-			System.out.println("   -to sell the specified commodity");
-			System.out.println("list [commodities|destinations|status|" + 
-				"commands]");
-			System.out.println("   -to list information:");
-			System.out.println("   -\"commodities\" to see the commodities " +
-				"available at the current location and their prices");
-			System.out.println("   -\"destinations\" to see the travel " +
-				"distances from the current location");
-			System.out.println("   -\"status\" to see information about the " +
-				"player's location, mission, money and ship");
-			System.out.println("   -\"commands\" to see these commands");
-			System.out.println("quit\n   -to quit without finishing\n");
+			return COMMANDS;
 		}
 		else {
-			System.out.println("I don't know how to list " + name + ".");
-			System.out.println();
+			return "I don't know how to list " + name + ".\n";
 		}
 	}
 	
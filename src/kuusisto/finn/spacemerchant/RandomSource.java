@@ -0,0 +1,36 @@
+package kuusisto.finn.spacemerchant;
+
+/**
+ * A RandomSource is a stream of pseudo-random numbers belonging to one owner,
+ * such as a single game session or simulation worker.  A RandomSource is not
+ * safe for use by many threads at once; instead each thread should be given
+ * its own stream with <tt>split</tt>, so that draws never contend and every
+ * stream can be replayed from the seed it started with.
+ * 
+ * @author Finn Kuusisto
+ */
+public interface RandomSource {
+	
+	/**
+	 * Gets the next pseudo-random 64-bit value of the stream.
+	 * @return A pseudo-random long
+	 */
+	public long nextLong();
+	
+	/**
+	 * Gets a pseudo-random integer with specified lowest and highest values.
+	 * @param low The smallest integer desired
+	 * @param high The largest integer desired
+	 * @return A pseudo-random integer from <tt>low</tt> up to and including
+	 * <tt>high</tt>
+	 */
+	public int nextInt(int low, int high);
+	
+	/**
+	 * Creates a new, independent stream seeded from this one.  The new stream
+	 * shares no state with this one and may be used by another thread.
+	 * @return A new RandomSource
+	 */
+	public RandomSource split();
+	
+}
@@ -0,0 +1,345 @@
+package kuusisto.finn.spacemerchant;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The ResumeTest class checks that a game session cut off from a server can
+ * be resumed after the server restarts.  For both the GameServer and the
+ * BlockingServer it starts a server in the same process, which logs to a
+ * journal and keeps its SessionStore in a file, plays the first half of a
+ * script over a connection, drops the connection and stops the server.  It
+ * checks that the session was left open in the journal, starts a new server
+ * on the same files, connects again and resumes the session with its token,
+ * then plays the rest of the script.  What the new server sends after the
+ * resume must be what the same session gets when the whole script is played
+ * straight on a World, and the journal must be left with no open sessions.
+ * <br>
+ * Blank lines of the script are skipped, and it must end the game, such as
+ * with "quit".
+ * <br>
+ * It is run on a world file and a script:<br>
+ * <tt>java kuusisto.finn.spacemerchant.ResumeTest world_file script_file</tt>
+ * 
+ * @author Finn Kuusisto
+ */
+public class ResumeTest {
+	
+	/**
+	 * The kind of server to test: a GameServer.
+	 */
+	public static final int GAME_SERVER = 0;
+	/**
+	 * The kind of server to test: a BlockingServer.
+	 */
+	public static final int BLOCKING_SERVER = 1;
+	
+	//the base seeds of the servers before and after the restart
+	private static final long SEED = 42;
+	private static final long RESTART_SEED = 43;
+	//how long to wait for the server, in milliseconds
+	private static final int TIMEOUT = 10000;
+	private static final Pattern TOKEN = Pattern.compile(
+		"resume ([0-9a-f]{" + SessionStore.TOKEN_LENGTH + "})");
+	
+	private final WorldTemplate template;
+	private final List<String> script;
+	
+	/**
+	 * Constructs a new ResumeTest.
+	 * @param template The game world in which to play
+	 * @param script The lines of the script, which must end the game
+	 */
+	public ResumeTest(WorldTemplate template, List<String> script) {
+		this.template = template;
+		this.script = new ArrayList<String>();
+		for (String line : script) {
+			if (line.trim().length() > 0) { this.script.add(line); }
+		}
+	}
+	
+	/**
+	 * Plays half of the script on one server and the rest on another
+	 * started on the same files, resuming the session in between.
+	 * @param kind The kind of server, <tt>GAME_SERVER</tt> or
+	 * <tt>BLOCKING_SERVER</tt>
+	 * @return A description of what went wrong, or null if nothing did
+	 * @throws IOException If a server can't be started, a connection fails
+	 * or the files can't be used
+	 * @throws InterruptedException If interrupted while stopping a server
+	 */
+	public String run(int kind) throws IOException, InterruptedException {
+		File journalFile = File.createTempFile("resume", ".journal");
+		File storeFile = File.createTempFile("resume", ".sessions");
+		try {
+			return this.run(kind, journalFile.getPath(), storeFile.getPath());
+		}
+		finally {
+			journalFile.delete();
+			storeFile.delete();
+		}
+	}
+	
+	private String run(int kind, String journalFile, String storeFile)
+		throws IOException, InterruptedException {
+		int half = this.script.size() / 2;
+		//before the restart
+		ActionJournal journal = new ActionJournal(this.template, journalFile);
+		SessionStore store = new SessionStore(storeFile, this.template);
+		Server server = ResumeTest.start(kind, this.template, SEED, journal,
+			store);
+		String token;
+		try {
+			Socket socket = server.connect();
+			try {
+				String welcome = ResumeTest.read(socket, 1);
+				Matcher matcher = TOKEN.matcher(welcome);
+				if (!matcher.find()) { return "No token in the welcome"; }
+				token = matcher.group(1);
+				ResumeTest.send(socket, this.script.subList(0, half));
+				ResumeTest.read(socket, half);
+			}
+			finally {
+				socket.close();
+			}
+			//the session is saved once the server sees the connection close
+			long deadline = System.currentTimeMillis() + TIMEOUT;
+			while (store.size() == 0 &&
+				System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+		}
+		finally {
+			server.close();
+			journal.close();
+			store.close();
+		}
+		long id = SplitMixRandom.mix64(SEED);
+		if (!ActionJournal.replay(this.template, journalFile).containsKey(id)) {
+			return "The saved session was ended in the journal";
+		}
+		//after the restart
+		journal = new ActionJournal(this.template, journalFile);
+		store = new SessionStore(storeFile, this.template);
+		if (store.size() != 1) {
+			return store.size() + " sessions in the store after the restart";
+		}
+		server = ResumeTest.start(kind, this.template, RESTART_SEED, journal,
+			store);
+		String resumed;
+		String rest;
+		try {
+			Socket socket = server.connect();
+			try {
+				ResumeTest.read(socket, 1);
+				List<String> lines = new ArrayList<String>();
+				lines.add("resume " + token);
+				lines.addAll(this.script.subList(half, this.script.size()));
+				ResumeTest.send(socket, lines);
+				resumed = ResumeTest.read(socket, 1);
+				rest = ResumeTest.read(socket, -1);
+			}
+			finally {
+				socket.close();
+			}
+		}
+		finally {
+			server.close();
+			journal.close();
+			store.close();
+		}
+		if (!resumed.startsWith("Welcome back!")) {
+			return "The session wasn't resumed: " + resumed;
+		}
+		if (!rest.equals(this.expected(half))) {
+			return "The resumed session was sent the wrong text";
+		}
+		int open = ActionJournal.replay(this.template, journalFile).size();
+		if (open != 0) {
+			return open + " sessions left open in the journal";
+		}
+		return null;
+	}
+	
+	/**
+	 * Plays the whole script on a World with the first session seed of the
+	 * first server, and gets the text of what comes after the first lines.
+	 */
+	private String expected(int half) {
+		World world = new World(this.template, new SplitMixRandom(
+			SplitMixRandom.mix64(SEED)));
+		world.getPlayer().setMission(world.getNextMission());
+		BatchRunner runner = new BatchRunner(world);
+		Action action = new Action();
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < this.script.size(); i++) {
+			if (i == half) {
+				//as the resumed session does, with a new runner
+				runner = new BatchRunner(world);
+				out.setLength(0);
+			}
+			if (CommandParser.parse(this.script.get(i), action)) {
+				runner.execute(action, out);
+			}
+			else {
+				runner.invalid(out);
+			}
+			if (runner.isOver()) { break; }
+			out.append(GameServer.PROMPT);
+		}
+		return out.toString();
+	}
+	
+	/**
+	 * Sends lines to a server.
+	 */
+	private static void send(Socket socket, List<String> lines)
+		throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (String line : lines) {
+			text.append(line).append('\n');
+		}
+		OutputStream out = socket.getOutputStream();
+		out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+	
+	/**
+	 * Reads from a server until it has asked for a number of commands, or
+	 * until it closes the connection if the number is -1.
+	 * @return The text read
+	 */
+	private static String read(Socket socket, int prompts)
+		throws IOException {
+		InputStream in = socket.getInputStream();
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		int last = 0;
+		int b;
+		while (prompts != 0 && (b = in.read()) != -1) {
+			text.write(b);
+			if (last == '\n' && b == '>') { prompts--; }
+			last = b;
+		}
+		if (prompts > 0) {
+			throw new IOException("The server closed the connection");
+		}
+		return new String(text.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Starts a server of a kind on the loopback interface.
+	 */
+	private static Server start(int kind, WorldTemplate template, long seed,
+		ActionJournal journal, SessionStore store) throws IOException {
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1", 0);
+		TemplateHolder holder = new TemplateHolder(template);
+		if (kind == GAME_SERVER) {
+			final GameServer server = new GameServer(holder, address, 1,
+				seed);
+			server.setJournal(journal);
+			server.setSessionStore(store);
+			server.start();
+			return new Server(server.getPort()) {
+				public void close() throws IOException,
+					InterruptedException {
+					server.close();
+				}
+			};
+		}
+		final BlockingServer server = new BlockingServer(holder, address,
+			seed);
+		server.setJournal(journal);
+		server.setSessionStore(store);
+		server.start();
+		return new Server(server.getPort()) {
+			public void close() throws IOException, InterruptedException {
+				server.close();
+			}
+		};
+	}
+	
+	/**
+	 * A Server is either kind of server, started and listening on a port.
+	 */
+	private static abstract class Server {
+		
+		private final int port;
+		
+		public Server(int port) {
+			this.port = port;
+		}
+		
+		public Socket connect() throws IOException {
+			Socket socket = new Socket("127.0.0.1", this.port);
+			socket.setSoTimeout(TIMEOUT);
+			return socket;
+		}
+		
+		public abstract void close() throws IOException,
+			InterruptedException;
+	
+	}
+	
+	/**
+	 * Checks both kinds of server with a world file and a script, exiting
+	 * with 1 if either fails.
+	 * @param args The world file and the script
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.out.println("Usage: ResumeTest <world file> " +
+				"<script file>");
+			System.exit(1);
+		}
+		try {
+			WorldTemplate template = WorldTemplate.load(args[0]);
+			List<String> script = new ArrayList<String>();
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(args[1]), StandardCharsets.UTF_8));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					script.add(line);
+				}
+			}
+			finally {
+				in.close();
+			}
+			ResumeTest test = new ResumeTest(template, script);
+			String[] names = {"GameServer", "BlockingServer"};
+			boolean failed = false;
+			for (int kind = GAME_SERVER; kind <= BLOCKING_SERVER; kind++) {
+				String problem = test.run(kind);
+				System.out.println(names[kind] + ": " + ((problem == null) ?
+					"resumed across a restart" : problem));
+				failed |= problem != null;
+			}
+			if (failed) { System.exit(1); }
+		}
+		catch (IOException e) {
+			System.out.println("Failed: " + e.getMessage());
+			System.exit(1);
+		}
+		catch (WorldParseException e) {
+			System.out.println("Failed parsing " + args[0] + "! " +
+				e.getMessage());
+			System.exit(1);
+		}
+		catch (InterruptedException e) {
+			System.exit(1);
+		}
+	}
+	
+}
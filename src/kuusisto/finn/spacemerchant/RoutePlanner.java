@@ -0,0 +1,341 @@
+package kuusisto.finn.spacemerchant;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The RoutePlanner class searches a game world for the trade route that is
+ * expected to leave the Player with the most money after some number of hops.
+ * On each hop the Ship carries as much as it can afford and hold of a single
+ * Commodity (or nothing) from one Location to another, where it is sold.
+ * Prices are expected to be the middle of each price range.  Before every hop
+ * the Ship's fuel tank is filled, so a hop is only possible from a Location
+ * that sells Fuel (the start is the exception, where the fuel on board may be
+ * used) and only to Locations within the Ship's fuel capacity.  The cost of
+ * the fuel is taken from the money along the way.
+ * <br>
+ * Since more money never makes a later hop worse, keeping only the most money
+ * that can be had at each Location after each number of hops finds the best
+ * route exactly.  The search goes one hop at a time and stops when its time
+ * budget runs out, returning the best route found so far.
+ * 
+ * @author Finn Kuusisto
+ */
+public class RoutePlanner {
+	
+	/**
+	 * The default most number of hops in a route.
+	 */
+	public static final int DEFAULT_MAX_HOPS = 5;
+	/**
+	 * The default time budget of a search, in nanoseconds (100ms).
+	 */
+	public static final long DEFAULT_TIME_BUDGET = 100000000L;
+	
+	private static final String FUEL = "Fuel";
+	
+	private WorldTemplate template;
+	private Commodity fuel;
+	
+	/**
+	 * Constructs a new RoutePlanner for a game world.
+	 * @param template The game world in which to plan routes
+	 */
+	public RoutePlanner(WorldTemplate template) {
+		this.template = template;
+		this.fuel = template.getCommodity(FUEL);
+	}
+	
+	/**
+	 * Plans the best route for a Player from their current Location, money,
+	 * fuel and free cargo space, with the default number of hops and time
+	 * budget.
+	 * @param player The Player for whom to plan a route
+	 * @return The best Route found
+	 */
+	public Route plan(Player player) {
+		Ship ship = player.getShip();
+		return this.plan(player.getLocation(), player.getMoney(),
+			ship.getFuel(), ship.getFuelCapacity(),
+			ship.getCargoCapacity() - ship.getTotalCargoQuantity(),
+			DEFAULT_MAX_HOPS, DEFAULT_TIME_BUDGET);
+	}
+	
+	/**
+	 * Plans the best route from a Location.
+	 * @param start The Location at which the route starts
+	 * @param money The money available at the start
+	 * @param fuel The fuel on board at the start
+	 * @param fuelCapacity The fuel capacity of the Ship
+	 * @param cargoSpace The cargo space free for trading
+	 * @param maxHops The most number of hops in the route
+	 * @param timeBudget The most time to search, in nanoseconds
+	 * @return The best Route found, which has no hops if there is no route
+	 * expected to make money
+	 */
+	public Route plan(Location start, long money, int fuel, int fuelCapacity,
+		int cargoSpace, int maxHops, long timeBudget) {
+		long deadline = System.nanoTime() + timeBudget;
+		int n = this.template.getLocationCount();
+		//the most money at each Location, ready to leave with a full tank
+		long[] ready = new long[n];
+		Arrays.fill(ready, -1);
+		//how each of those was reached: from where, carrying what
+		int[][] from = new int[maxHops][];
+		int[][] carried = new int[maxHops][];
+		int[][] quantities = new int[maxHops][];
+		
+		//the start may leave on what is in the tank if it can't be filled
+		int startFuel = fuel;
+		ready[start.getId()] = money;
+		long fill = this.fuelCost(start, fuelCapacity - fuel);
+		if (fill >= 0 && fill <= money) {
+			startFuel = fuelCapacity;
+			ready[start.getId()] = money - fill;
+		}
+		
+		long bestMoney = money;
+		int bestHops = 0;
+		int bestEnd = start.getId();
+		int bestFrom = -1;
+		int bestCarried = -1;
+		int bestQuantity = 0;
+		boolean complete = true;
+		long[] nextReady = new long[n];
+		int[] trade = new int[2];
+		search:
+		for (int hop = 0; hop < maxHops; hop++) {
+			int departFuel = (hop == 0) ? startFuel : fuelCapacity;
+			Arrays.fill(nextReady, -1);
+			from[hop] = new int[n];
+			carried[hop] = new int[n];
+			quantities[hop] = new int[n];
+			boolean any = false;
+			for (int i = 0; i < n; i++) {
+				if (ready[i] < 0) { continue; }
+				if (System.nanoTime() > deadline) {
+					complete = false;
+					break search;
+				}
+				Location source = this.template.getLocation(i);
+				int[] reachable = this.template.getSpatialIndex().withinRange(
+					i, departFuel);
+				for (int r = 0; r < reachable.length; r++) {
+					int j = reachable[r];
+					int distance = this.template.getDistance(i, j);
+					Location dest = this.template.getLocation(j);
+					long arrived = ready[i] + this.bestTrade(source, dest,
+						ready[i], cargoSpace, trade);
+					if (arrived > bestMoney) {
+						bestMoney = arrived;
+						bestHops = hop + 1;
+						bestEnd = j;
+						bestFrom = i;
+						bestCarried = trade[0];
+						bestQuantity = trade[1];
+					}
+					//refill what this hop burned before leaving again
+					long refill = this.fuelCost(dest,
+						fuelCapacity - departFuel + distance);
+					if (refill < 0 || arrived - refill <= nextReady[j]) {
+						continue;
+					}
+					nextReady[j] = arrived - refill;
+					from[hop][j] = i;
+					carried[hop][j] = trade[0];
+					quantities[hop][j] = trade[1];
+					any = true;
+				}
+			}
+			long[] swap = ready;
+			ready = nextReady;
+			nextReady = swap;
+			if (!any) { break; }
+		}
+		
+		//follow the hops back from the best place to end
+		Location[] stops = new Location[bestHops + 1];
+		Commodity[] cargo = new Commodity[bestHops];
+		int[] cargoQuantities = new int[bestHops];
+		stops[bestHops] = this.template.getLocation(bestEnd);
+		int at = bestFrom;
+		int what = bestCarried;
+		int howMany = bestQuantity;
+		for (int hop = bestHops - 1; hop >= 0; hop--) {
+			stops[hop] = this.template.getLocation(at);
+			cargo[hop] = (what < 0) ? null : this.template.getCommodity(what);
+			cargoQuantities[hop] = howMany;
+			if (hop > 0) {
+				what = carried[hop - 1][at];
+				howMany = quantities[hop - 1][at];
+				at = from[hop - 1][at];
+			}
+		}
+		return new Route(stops, cargo, cargoQuantities, money, bestMoney,
+			complete);
+	}
+	
+	/**
+	 * Finds the Commodity expected to make the most money carried from one
+	 * Location to another.
+	 * @return The expected profit, with the Commodity's ordinal (or -1 for
+	 * nothing) and quantity put in <tt>trade</tt>
+	 */
+	private long bestTrade(Location source, Location dest, long money,
+		int cargoSpace, int[] trade) {
+		long best = 0;
+		trade[0] = -1;
+		trade[1] = 0;
+		List<Commodity> offered = source.getCommodities();
+		for (int k = 0; k < offered.size(); k++) {
+			Commodity c = offered.get(k);
+			if (c == this.fuel || !dest.hasCommodity(c)) { continue; }
+			long buy = RoutePlanner.expectedPrice(source, c);
+			long sell = RoutePlanner.expectedPrice(dest, c);
+			if (sell <= buy) { continue; }
+			long quantity = (buy == 0) ? cargoSpace :
+				Math.min(cargoSpace, money / buy);
+			long profit = quantity * (sell - buy);
+			if (profit > best) {
+				best = profit;
+				trade[0] = c.getOrdinal();
+				trade[1] = (int)quantity;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Gets the expected cost of buying fuel at a Location.
+	 * @return The cost, or -1 if the Location doesn't sell Fuel
+	 */
+	private long fuelCost(Location location, int quantity) {
+		if (this.fuel == null || !location.hasCommodity(this.fuel)) {
+			return -1;
+		}
+		return quantity * RoutePlanner.expectedPrice(location, this.fuel);
+	}
+	
+	private static long expectedPrice(Location location, Commodity c) {
+		return ((long)location.getMinPrice(c) + location.getMaxPrice(c)) / 2;
+	}
+	
+	/**
+	 * A Route is the result of a search: the Locations visited in order and
+	 * what is carried on each hop between them.
+	 */
+	public static class Route {
+		
+		private Location[] stops;
+		private Commodity[] cargo;
+		private int[] quantities;
+		private long startMoney;
+		private long expectedMoney;
+		private boolean complete;
+		
+		Route(Location[] stops, Commodity[] cargo, int[] quantities,
+			long startMoney, long expectedMoney, boolean complete) {
+			this.stops = stops;
+			this.cargo = cargo;
+			this.quantities = quantities;
+			this.startMoney = startMoney;
+			this.expectedMoney = expectedMoney;
+			this.complete = complete;
+		}
+		
+		/**
+		 * Gets the number of hops in the Route.
+		 * @return The number of hops, 0 if no route makes money
+		 */
+		public int getHopCount() {
+			return this.cargo.length;
+		}
+		
+		/**
+		 * Gets a Location visited on the Route.
+		 * @param stop The stop, from 0 (the start) to the hop count
+		 * @return The Location of the stop
+		 */
+		public Location getStop(int stop) {
+			return this.stops[stop];
+		}
+		
+		/**
+		 * Gets the Commodity carried on a hop.
+		 * @param hop The hop, starting at 0
+		 * @return The Commodity carried, or null if nothing is carried
+		 */
+		public Commodity getCargo(int hop) {
+			return this.cargo[hop];
+		}
+		
+		/**
+		 * Gets the quantity of the Commodity carried on a hop.
+		 * @param hop The hop, starting at 0
+		 * @return The quantity carried
+		 */
+		public int getQuantity(int hop) {
+			return this.quantities[hop];
+		}
+		
+		/**
+		 * Gets the money expected at the end of the Route.
+		 * @return The expected money
+		 */
+		public long getExpectedMoney() {
+			return this.expectedMoney;
+		}
+		
+		/**
+		 * Gets the money expected to be made by following the Route.
+		 * @return The expected profit
+		 */
+		public long getExpectedProfit() {
+			return this.expectedMoney - this.startMoney;
+		}
+		
+		/**
+		 * Indicates whether the whole search finished within its time budget.
+		 * @return true if the Route is the best possible, false if it is only
+		 * the best found in time
+		 */
+		public boolean isComplete() {
+			return this.complete;
+		}
+		
+		/**
+		 * Converts a Route to a human-readable form.  It follows the
+		 * convention:<br>
+		 * <tt>[ROUTES]</tt><br>
+		 * <tt>from -&gt; to: carry quantity commodity_name</tt><br>
+		 * <tt>Expected profit: profit</tt><br>
+		 */
+		public String toString() {
+			StringBuilder str = new StringBuilder();
+			str.append("[ROUTES]\n");
+			if (this.getHopCount() == 0) {
+				str.append("No route is expected to make money.\n");
+			}
+			for (int hop = 0; hop < this.getHopCount(); hop++) {
+				str.append(this.stops[hop].getName() + " -> " +
+					this.stops[hop + 1].getName() + ": ");
+				if (this.cargo[hop] == null) {
+					str.append("carry nothing\n");
+				}
+				else {
+					str.append("carry " + this.quantities[hop] + " " +
+						this.cargo[hop].getName() + "\n");
+				}
+			}
+			if (this.getHopCount() > 0) {
+				str.append("Expected profit: " + this.getExpectedProfit() +
+					"\n");
+			}
+			if (!this.complete) {
+				str.append("(out of time, there may be better routes)\n");
+			}
+			return str.toString();
+		}
+	
+	}
+	
+}
@@ -0,0 +1,221 @@
+package kuusisto.finn.spacemerchant;
+import java.io.IOException;
+
+/**
+ * The ServerSession class is one player's game session on a server (see
+ * GameServer and BlockingServer): their World, the BatchRunner that carries
+ * out their commands and the token with which they can resume the session
+ * later.  The token is sent along with the welcome.  If the connection is
+ * lost once the session has been played but before the game is over, it is
+ * saved to the server's SessionStore, and a player who connects again can
+ * enter "resume" and their token, before any other command, to carry on in
+ * the saved session instead of the new one.
+ * <br>
+ * When the server logs sessions to an ActionJournal, a session that is saved
+ * when its connection is lost is left open in the journal, since it can
+ * still be resumed, even after the server restarts if the SessionStore keeps
+ * a file; any other session is ended when its connection is lost.  A
+ * resumed session is logged under its old id again, starting from a
+ * snapshot, while the new session it replaces is ended.  Responses must
+ * only be sent once the session is synced (see <tt>sync</tt> and
+ * <tt>synced</tt>).
+ * 
+ * @author Finn Kuusisto
+ */
+public class ServerSession {
+	
+	private final TemplateHolder holder;
+	private final SessionStore store;
+	private final ActionJournal journal;
+	private World world;
+	private BatchRunner runner;
+	private long id;
+	private String token;
+	//whether a command has been run, after which it's too late to resume
+	private boolean played;
+	//whether a resume has logged anything that hasn't been synced
+	private boolean unsynced;
+	
+	/**
+	 * Constructs a new game session, logging its start to the journal.
+	 * @param holder The holder of the game world in which to play
+	 * @param store The store to which to save the session if it's cut off,
+	 * and from which to resume others
+	 * @param journal The journal to which to log the session, or null for
+	 * none
+	 * @param seed The seed of the session, which is also its id in the
+	 * journal
+	 */
+	public ServerSession(TemplateHolder holder, SessionStore store,
+		ActionJournal journal, long seed) {
+		this.holder = holder;
+		this.store = store;
+		this.journal = journal;
+		this.world = new World(holder, new SplitMixRandom(seed));
+		this.id = seed;
+		if (this.journal != null && this.journal.isFor(this.world)) {
+			this.journal.start(seed, seed);
+		}
+		this.runner = new BatchRunner(this.world, journal, seed);
+		this.token = store.newToken();
+	}
+	
+	/**
+	 * Get the token with which this session can be resumed.
+	 * @return The session's token
+	 */
+	public String getToken() {
+		return this.token;
+	}
+	
+	/**
+	 * Indicates whether the game is over (see <tt>BatchRunner.isOver</tt>).
+	 * @return true if the game is over, false otherwise
+	 */
+	public boolean isOver() {
+		return this.runner.isOver();
+	}
+	
+	/**
+	 * Describes the start of the game, as the console game does, followed by
+	 * the token with which to resume it.
+	 * @param out The text to which to append
+	 */
+	public void welcome(StringBuilder out) {
+		SpaceMerchant.welcome(this.world, out);
+		ServerSession.describeToken(this.token, out);
+	}
+	
+	/**
+	 * Tells the player how to resume their session with its token.
+	 * @param token The token of the session
+	 * @param out The text to which to append
+	 */
+	static void describeToken(String token, StringBuilder out) {
+		out.append("If you are cut off, connect again and enter \"resume ");
+		out.append(token).append("\" to carry on.\n\n");
+	}
+	
+	/**
+	 * Carries out an Action and appends the text of its result.
+	 * @param action The Action to carry out
+	 * @param out The text to which to append
+	 */
+	public void execute(Action action, StringBuilder out) {
+		if (action.getActionValue() == Action.RESUME) {
+			this.resume(action.getName(), out);
+			return;
+		}
+		this.played = true;
+		this.runner.execute(action, out);
+	}
+	
+	/**
+	 * Appends the reply to a line of input that isn't a valid command, as
+	 * the console game would give it (see <tt>BatchRunner.invalid</tt>).
+	 * @param out The text to which to append
+	 */
+	public void invalid(StringBuilder out) {
+		this.runner.invalid(out);
+	}
+	
+	/**
+	 * Replaces this session with the one saved under a token, if it hasn't
+	 * been played yet.
+	 */
+	private void resume(String token, StringBuilder out) {
+		if (this.played) {
+			out.append("You can only resume a game before playing.\n\n");
+			return;
+		}
+		SessionStore.Saved saved = this.store.take(token);
+		World resumed = null;
+		if (saved != null) {
+			try {
+				resumed = saved.restore(this.holder);
+			}
+			catch (IOException e) {
+				System.out.println("Failed to resume a session: " +
+					e.getMessage());
+			}
+		}
+		if (resumed == null) {
+			out.append("There is no saved game with that token.\n\n");
+			return;
+		}
+		this.runner.end();
+		this.world = resumed;
+		this.id = saved.getSession();
+		this.token = token;
+		if (this.journal != null && this.journal.isFor(resumed)) {
+			this.journal.snapshot(this.id, resumed);
+		}
+		this.runner = new BatchRunner(resumed, this.journal, this.id);
+		this.played = true;
+		this.unsynced = this.journal != null;
+		TextRenderer renderer = new TextRenderer();
+		out.append("Welcome back!\n\n");
+		renderer.render(resumed.getPlayer().getLocation(), out);
+		if (resumed.getPlayer().getMission() != null) {
+			renderer.render(resumed.getPlayer().getMission(), out);
+		}
+	}
+	
+	/**
+	 * Indicates whether everything this session has logged to the journal is
+	 * known to be on disk, so that its response can be sent without a
+	 * <tt>sync</tt>.
+	 * @return true if nothing has been logged since the last sync
+	 */
+	public boolean isSynced() {
+		return !this.unsynced && this.runner.isSynced();
+	}
+	
+	/**
+	 * Waits until everything this session has logged to the journal is on
+	 * disk.
+	 * @throws IOException If the journal can't be written
+	 */
+	public void sync() throws IOException {
+		if (this.unsynced) {
+			this.journal.sync();
+			this.unsynced = false;
+		}
+		this.runner.sync();
+	}
+	
+	/**
+	 * Marks everything this session has logged as on disk, once the caller
+	 * has seen the journal made durable up to where it was when the session
+	 * last logged anything, without waiting itself (see
+	 * <tt>ActionJournal.whenDurable</tt>).
+	 */
+	public void synced() {
+		this.unsynced = false;
+		this.runner.synced();
+	}
+	
+	/**
+	 * Ends the session in the journal without saving it, such as when it
+	 * failed.
+	 */
+	public void end() {
+		this.runner.end();
+	}
+	
+	/**
+	 * Saves the session under its token once the connection is gone, if it
+	 * has been played and the game isn't over, or else ends it in the
+	 * journal.  A session that was never played is no different from a new
+	 * one, so it isn't kept.
+	 */
+	public void disconnect() {
+		if (this.played && !this.runner.isOver()) {
+			//still resumable, so it stays open in the journal
+			this.store.save(this.token, this.id, this.world);
+			return;
+		}
+		this.runner.end();
+	}
+	
+}
@@ -0,0 +1,336 @@
+package kuusisto.finn.spacemerchant;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The SessionSnapshot class saves a game session (a World) as a few bytes
+ * and restores it again, so that a game can outlive the process playing it.
+ * A snapshot only holds what changes as the game is played; the game world
+ * itself is referred to by its content hash (see
+ * <tt>WorldTemplate.getContentHash</tt>), and a snapshot can only be restored
+ * into the same world.  A session of <tt>universe.world</tt> takes a little
+ * over a hundred bytes, and should never take <tt>MAX_SIZE</tt>.
+ * <br>
+ * All values are big-endian and the snapshot is laid out as:<br>
+ * <tt>magic, version (ints)</tt><br>
+ * <tt>world content hash (32 bytes)</tt><br>
+ * <tt>random state, random gamma, price seed (longs)</tt><br>
+ * <tt>price epoch, location id, money, fuel, mission id or -1 (ints)</tt>
+ * <br>
+ * <tt>completed mission word count (int), then the words of the completed
+ * mission ids as a bit set (longs)</tt><br>
+ * <tt>cargo count, then the ordinal and quantity of each Commodity carried
+ * (ints)</tt><br>
+ * Only a World whose RandomSource is a SplitMixRandom can be saved, since
+ * that is the generator whose state can be restored exactly.  A restored
+ * World carries on just as the saved one would have, drawing the same prices
+ * and random numbers.
+ * <br>
+ * It can also be run to check the size of snapshots in a world file:<br>
+ * <tt>java kuusisto.finn.spacemerchant.SessionSnapshot world_file
+ * [games]</tt>
+ * 
+ * @author Finn Kuusisto
+ */
+public class SessionSnapshot {
+	
+	/**
+	 * The first four bytes of every session snapshot ("SMSS").
+	 */
+	public static final int MAGIC = 0x534D5353;
+	/**
+	 * The version of the format written by this class.
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * The most bytes a snapshot should take, so that a server can keep the
+	 * sessions of many cut off players (see SessionStore).
+	 */
+	public static final int MAX_SIZE = 1024;
+	/**
+	 * The number of games played by <tt>main</tt> when none is given.
+	 */
+	public static final int DEFAULT_GAMES = 100;
+	
+	//the most turns of each game played by main
+	private static final int MAX_TURNS = 1000;
+	
+	//the bytes of a snapshot before its variable-length parts
+	private static final int HEADER_SIZE = 4 + 4 + 32 + 3 * 8 + 5 * 4;
+	
+	/**
+	 * Saves a game session into a new array.
+	 * @param world The game session to save
+	 * @return The snapshot
+	 * @throws IllegalArgumentException If the World's RandomSource isn't a
+	 * SplitMixRandom
+	 */
+	public static byte[] save(World world) {
+		byte[] bytes = new byte[SessionSnapshot.size(world)];
+		SessionSnapshot.save(world, ByteBuffer.wrap(bytes));
+		return bytes;
+	}
+	
+	/**
+	 * Gets the number of bytes a game session's snapshot takes as things
+	 * stand.
+	 * @param world The game session
+	 * @return The size of its snapshot
+	 */
+	public static int size(World world) {
+		return HEADER_SIZE + 4 +
+			SessionSnapshot.completedWords(world).length * 8 + 4 +
+			SessionSnapshot.cargoCount(world) * 8;
+	}
+	
+	/**
+	 * Saves a game session at the position of a ByteBuffer, which is left
+	 * after the snapshot.
+	 * @param world The game session to save
+	 * @param buf The buffer to which to write the snapshot, with at least
+	 * <tt>size(world)</tt> bytes remaining
+	 * @throws IllegalArgumentException If the World's RandomSource isn't a
+	 * SplitMixRandom
+	 * @throws java.nio.BufferOverflowException If the snapshot doesn't fit
+	 */
+	public static void save(World world, ByteBuffer buf) {
+		if (!(world.getRandom() instanceof SplitMixRandom)) {
+			throw new IllegalArgumentException(
+				"Only a World using a SplitMixRandom can be saved");
+		}
+		SplitMixRandom random = (SplitMixRandom)world.getRandom();
+		WorldTemplate template = world.getTemplate();
+		Player player = world.getPlayer();
+		Ship ship = player.getShip();
+		Mission mission = player.getMission();
+		buf.putInt(SessionSnapshot.MAGIC);
+		buf.putInt(SessionSnapshot.VERSION);
+		buf.put(template.contentHash());
+		buf.putLong(random.getState());
+		buf.putLong(random.getGamma());
+		buf.putLong(world.getPriceSeed());
+		buf.putInt(world.getPriceEpoch());
+		buf.putInt(player.getLocation().getId());
+		buf.putInt(player.getMoney());
+		buf.putInt(ship.getFuel());
+		buf.putInt((mission == null) ? -1 : mission.getId());
+		long[] completed = SessionSnapshot.completedWords(world);
+		buf.putInt(completed.length);
+		for (int i = 0; i < completed.length; i++) {
+			buf.putLong(completed[i]);
+		}
+		buf.putInt(SessionSnapshot.cargoCount(world));
+		List<Commodity> commodities = template.getCommodities();
+		for (int i = 0; i < commodities.size(); i++) {
+			int quantity = ship.getQuantity(commodities.get(i));
+			if (quantity != 0) {
+				buf.putInt(i);
+				buf.putInt(quantity);
+			}
+		}
+	}
+	
+	/**
+	 * Restores a game session from a snapshot.
+	 * @param template The game world the session was played in
+	 * @param bytes The snapshot
+	 * @return The restored World
+	 * @throws IOException If the bytes aren't a valid snapshot of a session
+	 * in the given world
+	 */
+	public static World restore(WorldTemplate template, byte[] bytes)
+		throws IOException {
+		return SessionSnapshot.restore(template, ByteBuffer.wrap(bytes));
+	}
+	
+	/**
+	 * Restores a game session from a snapshot at the position of a
+	 * ByteBuffer, which is left after the snapshot.
+	 * @param template The game world the session was played in
+	 * @param buf The buffer from which to read the snapshot
+	 * @return The restored World
+	 * @throws IOException If the bytes aren't a valid snapshot of a session
+	 * in the given world
+	 */
+	public static World restore(WorldTemplate template, ByteBuffer buf)
+		throws IOException {
+		try {
+			return SessionSnapshot.restoreChecked(template, buf);
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("Truncated session snapshot");
+		}
+	}
+	
+	private static World restoreChecked(WorldTemplate template,
+		ByteBuffer buf) throws IOException {
+		check(buf.getInt() == SessionSnapshot.MAGIC, "Not a session snapshot");
+		int version = buf.getInt();
+		check(version == SessionSnapshot.VERSION,
+			"Unsupported session snapshot version " + version);
+		byte[] hash = new byte[32];
+		buf.get(hash);
+		check(Arrays.equals(hash, template.contentHash()),
+			"Saved in a different world");
+		long state = buf.getLong();
+		long gamma = buf.getLong();
+		long priceSeed = buf.getLong();
+		int priceEpoch = buf.getInt();
+		int locationId = buf.getInt();
+		int money = buf.getInt();
+		int fuel = buf.getInt();
+		int missionId = buf.getInt();
+		List<Mission> missions = template.getMissions();
+		check(locationId >= 0 && locationId < template.getLocationCount(),
+			"Bad location " + locationId);
+		check(missionId >= -1 && missionId < missions.size(),
+			"Bad mission " + missionId);
+		
+		World world = new World(template, new SplitMixRandom(state, gamma),
+			priceSeed);
+		Player player = world.getPlayer();
+		Ship ship = player.getShip();
+		Location location = template.getLocation(locationId);
+		player.setLocation(location);
+		world.setPriceEpoch(location, priceEpoch);
+		player.addMoney(money - player.getMoney());
+		ship.addFuel(fuel - ship.getFuel());
+		player.setMission((missionId == -1) ? null : missions.get(missionId));
+		
+		int words = buf.getInt();
+		check(words >= 0 && (long)words * 8 <= buf.remaining(),
+			"Bad count " + words);
+		long[] completed = new long[words];
+		for (int i = 0; i < words; i++) {
+			completed[i] = buf.getLong();
+		}
+		BitSet complete = BitSet.valueOf(completed);
+		check(complete.length() <= missions.size(), "Bad completed missions");
+		for (int i = complete.nextSetBit(0); i >= 0;
+			i = complete.nextSetBit(i + 1)) {
+			world.setComplete(missions.get(i), true);
+		}
+		
+		int cargo = buf.getInt();
+		check(cargo >= 0 && (long)cargo * 8 <= buf.remaining(),
+			"Bad count " + cargo);
+		Commodity[] commodities = new Commodity[cargo];
+		int[] quantities = new int[cargo];
+		boolean[] seen = new boolean[template.getCommodityCount()];
+		for (int i = 0; i < cargo; i++) {
+			int ordinal = buf.getInt();
+			int quantity = buf.getInt();
+			check(ordinal >= 0 && ordinal < template.getCommodityCount() &&
+				!seen[ordinal], "Bad commodity " + ordinal);
+			check(quantity > 0, "Bad quantity " + quantity);
+			seen[ordinal] = true;
+			commodities[i] = template.getCommodity(ordinal);
+			quantities[i] = quantity;
+		}
+		//the whole cargo is checked against the capacity at once
+		check(ship.changeCommodities(commodities, quantities, cargo),
+			"Cargo over capacity");
+		return world;
+	}
+	
+	/**
+	 * Gets the ids of the Missions completed in a World as the words of a bit
+	 * set.
+	 */
+	private static long[] completedWords(World world) {
+		List<Mission> missions = world.getTemplate().getMissions();
+		long[] words = new long[(missions.size() + 63) / 64];
+		int used = 0;
+		for (int i = 0; i < missions.size(); i++) {
+			if (world.isComplete(missions.get(i))) {
+				words[i >>> 6] |= 1L << i;
+				used = (i >>> 6) + 1;
+			}
+		}
+		return (used == words.length) ? words : Arrays.copyOf(words, used);
+	}
+	
+	private static int cargoCount(World world) {
+		Ship ship = world.getPlayer().getShip();
+		int count = 0;
+		for (Commodity c : world.getTemplate().getCommodities()) {
+			if (ship.getQuantity(c) != 0) { count++; }
+		}
+		return count;
+	}
+	
+	private static void check(boolean ok, String message) throws IOException {
+		if (!ok) {
+			throw new IOException("Bad session snapshot: " + message);
+		}
+	}
+	
+	/**
+	 * Checks the snapshots of a world file: plays a number of games with a
+	 * MissionStrategy, saving the session after every turn and restoring it
+	 * again, and reports the largest snapshot and how long saving took.
+	 * Exits with 1 if any snapshot takes <tt>MAX_SIZE</tt> bytes or more, or
+	 * doesn't restore to the same session.
+	 * @param args The world file, then optionally the number of games (100)
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: SessionSnapshot <world file> [games]");
+			System.exit(1);
+		}
+		int games = (args.length > 1) ? Integer.parseInt(args[1]) :
+			DEFAULT_GAMES;
+		WorldTemplate template = null;
+		try {
+			template = WorldTemplate.load(args[0]);
+		}
+		catch (IOException e) {
+			System.out.println("Failed to open world file: " + args[0]);
+			System.exit(1);
+		}
+		catch (WorldParseException e) {
+			System.out.println("Failed parsing " + args[0] + "! " +
+				e.getMessage());
+			System.exit(1);
+		}
+		Strategy strategy = new MissionStrategy();
+		int largest = 0;
+		long snapshots = 0;
+		long nanos = 0;
+		try {
+			for (int game = 0; game < games; game++) {
+				World world = new World(template, game);
+				Player player = world.getPlayer();
+				player.setMission(world.getNextMission());
+				for (int turn = 0; turn < MAX_TURNS &&
+					!world.allMissionsComplete(); turn++) {
+					if (!strategy.takeTurn(player)) { break; }
+					long start = System.nanoTime();
+					byte[] bytes = SessionSnapshot.save(world);
+					nanos += System.nanoTime() - start;
+					snapshots++;
+					largest = Math.max(largest, bytes.length);
+					byte[] again = SessionSnapshot.save(
+						SessionSnapshot.restore(template, bytes));
+					if (!Arrays.equals(bytes, again)) {
+						throw new IOException("Game " + game + " turn " + turn +
+							" doesn't restore to the same session");
+					}
+				}
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Failed: " + e.getMessage());
+			System.exit(1);
+		}
+		System.out.println(snapshots + " snapshots of " + games + " games: " +
+			"largest " + largest + " bytes (limit " + MAX_SIZE + "), " +
+			(nanos / Math.max(1, snapshots)) + "ns to save");
+		if (largest >= MAX_SIZE) { System.exit(1); }
+	}
+	
+}
@@ -0,0 +1,442 @@
+package kuusisto.finn.spacemerchant;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The SessionStore class keeps the game sessions of players who lost their
+ * connection to a server, so that they can carry on where they left off when
+ * they connect again.  Each session is saved as a SessionSnapshot under a
+ * token, a random string handed to the player when the session started, and
+ * is taken out of the store again when the player presents the token (see
+ * ServerSession).  A snapshot is only about a hundred bytes, but the store
+ * still holds at most a fixed number of them, dropping the oldest first.
+ * <br>
+ * A SessionStore can also keep its sessions in a file, so that they can
+ * still be resumed after the server restarts.  Every session saved or taken
+ * is added to the end of the file straight away, though not forced to disk,
+ * so the sessions outlive the server but not necessarily a crash of the
+ * machine.  When the file is opened, the sessions in it are loaded, those
+ * of any other game world than the one given are dropped, and the file is
+ * rewritten with only the sessions that are left.  It is rewritten the same
+ * way whenever it holds more than twice as many records as sessions.
+ * <br>
+ * All values are big-endian and the file is laid out as:<br>
+ * <tt>magic, version (ints)</tt><br>
+ * then records, each of which is:<br>
+ * <tt>body length, CRC-32 of the body, kind (ints), token (ASCII)</tt><br>
+ * followed, for a saved session, by:<br>
+ * <tt>session id (long), world content hash (32 bytes), SessionSnapshot</tt>
+ * <br>
+ * and by nothing for a taken one.  A record cut short by a crash fails its
+ * checksum, and it and anything after it are dropped.
+ * <br>
+ * A SessionStore may be shared by any number of threads.
+ * 
+ * @author Finn Kuusisto
+ */
+public class SessionStore {
+	
+	/**
+	 * The number of sessions held when no capacity is given.
+	 */
+	public static final int DEFAULT_CAPACITY = 100000;
+	/**
+	 * The number of characters in a token.
+	 */
+	public static final int TOKEN_LENGTH = 16;
+	/**
+	 * The first four bytes of every session store file ("SMSS").
+	 */
+	public static final int MAGIC = 0x534D5353;
+	/**
+	 * The version of the file format written by this class.
+	 */
+	public static final int VERSION = 1;
+	
+	//kinds of record
+	private static final int SAVED = 1;
+	private static final int TAKEN = 2;
+	
+	private static final int HEADER_SIZE = 4 + 4;
+	//length and checksum, then kind and token
+	private static final int RECORD_HEADER_SIZE = 4 + 4;
+	private static final int BODY_HEADER_SIZE = 4 + TOKEN_LENGTH;
+	//a saved session's id and world hash, before its snapshot
+	private static final int SAVED_HEADER_SIZE = 8 + 32;
+	//the fewest records the file holds before it is rewritten
+	private static final int MIN_REWRITE = 1024;
+	
+	private final int capacity;
+	private final Map<String,Saved> saved;
+	private final SecureRandom random;
+	private final Path path;
+	private final CRC32 crc;
+	//the open file, or null if the sessions are only kept in memory
+	private FileChannel channel;
+	//the number of records in the file
+	private int records;
+	//the number of sessions in the file that were for another game world
+	private int dropped;
+	
+	/**
+	 * Constructs a new SessionStore that holds up to
+	 * <tt>DEFAULT_CAPACITY</tt> sessions.
+	 */
+	public SessionStore() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Constructs a new SessionStore that only keeps its sessions in memory.
+	 * @param capacity The most sessions to hold at once
+	 */
+	public SessionStore(int capacity) {
+		this(capacity, null);
+	}
+	
+	/**
+	 * Opens a SessionStore that keeps its sessions in a file and holds up to
+	 * <tt>DEFAULT_CAPACITY</tt> sessions, creating the file if it doesn't
+	 * exist and otherwise loading the sessions in it.
+	 * @param filename The name of the file
+	 * @param template The game world whose sessions to load
+	 * @throws IOException If the file can't be opened, read or rewritten,
+	 * or isn't a session store
+	 */
+	public SessionStore(String filename, WorldTemplate template)
+		throws IOException {
+		this(filename, template, DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Opens a SessionStore that keeps its sessions in a file, creating the
+	 * file if it doesn't exist and otherwise loading the sessions in it.
+	 * @param filename The name of the file
+	 * @param template The game world whose sessions to load
+	 * @param capacity The most sessions to hold at once
+	 * @throws IOException If the file can't be opened, read or rewritten,
+	 * or isn't a session store
+	 */
+	public SessionStore(String filename, WorldTemplate template, int capacity)
+		throws IOException {
+		this(capacity, Paths.get(filename));
+		this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE,
+			StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			this.load(template);
+			this.rewrite();
+		}
+		catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+	}
+	
+	private SessionStore(final int capacity, Path path) {
+		this.capacity = capacity;
+		this.saved = new LinkedHashMap<String,Saved>() {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,Saved> e) {
+				return this.size() > capacity;
+			}
+		};
+		this.random = new SecureRandom();
+		this.path = path;
+		this.crc = new CRC32();
+	}
+	
+	/**
+	 * Get the most sessions held at once.
+	 * @return The capacity of this store
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+	
+	/**
+	 * Makes a new token for a session, which can't be guessed from any
+	 * other.
+	 * @return <tt>TOKEN_LENGTH</tt> hexadecimal digits
+	 */
+	public String newToken() {
+		StringBuilder token = new StringBuilder(TOKEN_LENGTH);
+		while (token.length() < TOKEN_LENGTH) {
+			token.append(Character.forDigit(this.random.nextInt(16), 16));
+		}
+		return token.toString();
+	}
+	
+	/**
+	 * Get the number of sessions in the file when it was opened that were
+	 * dropped for being of another game world.
+	 * @return The number of sessions dropped
+	 */
+	public int getDroppedCount() {
+		return this.dropped;
+	}
+	
+	/**
+	 * Saves a game session under a token, replacing any other session saved
+	 * under it.  A failure to add it to the file is reported on the standard
+	 * output, and leaves it saved only in memory.
+	 * @param token The token of the session
+	 * @param session The id of the session in the server's ActionJournal
+	 * @param world The game session to save
+	 * @throws IllegalArgumentException If the World's RandomSource isn't a
+	 * SplitMixRandom, or the token isn't <tt>TOKEN_LENGTH</tt> characters
+	 */
+	public void save(String token, long session, World world) {
+		if (token.length() != TOKEN_LENGTH) {
+			throw new IllegalArgumentException("Bad token: " + token);
+		}
+		Saved entry = new Saved(world.getTemplate(), session,
+			SessionSnapshot.save(world));
+		synchronized (this.saved) {
+			this.saved.put(token, entry);
+			if (this.channel != null) {
+				this.append(SAVED, token, entry);
+			}
+		}
+	}
+	
+	/**
+	 * Takes the session saved under a token out of the store, so that it can
+	 * only be resumed once.
+	 * @param token The token of the session
+	 * @return The saved session, or null if there is none under the token
+	 */
+	public Saved take(String token) {
+		synchronized (this.saved) {
+			Saved entry = this.saved.remove(token);
+			if (entry != null && this.channel != null) {
+				this.append(TAKEN, token, null);
+			}
+			return entry;
+		}
+	}
+	
+	/**
+	 * Get the number of sessions held.
+	 * @return The number of saved sessions
+	 */
+	public int size() {
+		synchronized (this.saved) {
+			return this.saved.size();
+		}
+	}
+	
+	/**
+	 * Closes the file, if any.  Sessions saved after this are only kept in
+	 * memory.
+	 * @throws IOException If the file can't be closed
+	 */
+	public void close() throws IOException {
+		synchronized (this.saved) {
+			if (this.channel != null) {
+				this.channel.close();
+				this.channel = null;
+			}
+		}
+	}
+	
+	/**
+	 * Adds a record to the end of the file, and rewrites the file if it
+	 * holds too many records.
+	 */
+	private void append(int kind, String token, Saved entry) {
+		try {
+			this.write(this.channel, this.record(kind, token, entry));
+			this.records++;
+			if (this.records > MIN_REWRITE &&
+				this.records > 2 * this.saved.size()) {
+				this.rewrite();
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Failed writing the session store: " +
+				e.getMessage());
+		}
+	}
+	
+	/**
+	 * Makes a record with its length and checksum.
+	 */
+	private ByteBuffer record(int kind, String token, Saved entry) {
+		int size = BODY_HEADER_SIZE;
+		if (entry != null) {
+			size += SAVED_HEADER_SIZE + entry.snapshot.length;
+		}
+		ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER_SIZE + size);
+		buf.putInt(size);
+		buf.putInt(0);
+		buf.putInt(kind);
+		buf.put(token.getBytes(StandardCharsets.US_ASCII));
+		if (entry != null) {
+			buf.putLong(entry.session);
+			buf.put(entry.template.contentHash());
+			buf.put(entry.snapshot);
+		}
+		this.crc.reset();
+		this.crc.update(buf.array(), RECORD_HEADER_SIZE, size);
+		buf.putInt(4, (int)this.crc.getValue());
+		buf.flip();
+		return buf;
+	}
+	
+	private void write(FileChannel channel, ByteBuffer buf)
+		throws IOException {
+		while (buf.hasRemaining()) { channel.write(buf); }
+	}
+	
+	/**
+	 * Loads the sessions in the file, stopping at the first record that is
+	 * cut short or fails its checksum.
+	 */
+	private void load(WorldTemplate template) throws IOException {
+		long size = this.channel.size();
+		if (size == 0) { return; }
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Session store too large to load");
+		}
+		ByteBuffer buf = ByteBuffer.allocate((int)size);
+		while (buf.hasRemaining()) {
+			if (this.channel.read(buf, buf.position()) < 0) { break; }
+		}
+		buf.flip();
+		if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC) {
+			throw new IOException("Not a session store");
+		}
+		int version = buf.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported session store version " +
+				version);
+		}
+		byte[] hash = template.contentHash();
+		byte[] token = new byte[TOKEN_LENGTH];
+		byte[] entryHash = new byte[32];
+		while (buf.remaining() >= RECORD_HEADER_SIZE + BODY_HEADER_SIZE) {
+			int length = buf.getInt(buf.position());
+			int check = buf.getInt(buf.position() + 4);
+			int body = buf.position() + RECORD_HEADER_SIZE;
+			if (length < BODY_HEADER_SIZE || length > buf.limit() - body) {
+				break;
+			}
+			this.crc.reset();
+			this.crc.update(buf.array(), body, length);
+			if ((int)this.crc.getValue() != check) { break; }
+			buf.position(body);
+			int kind = buf.getInt();
+			buf.get(token);
+			String key = new String(token, StandardCharsets.US_ASCII);
+			if (kind == SAVED && length >= BODY_HEADER_SIZE +
+				SAVED_HEADER_SIZE) {
+				long session = buf.getLong();
+				buf.get(entryHash);
+				byte[] snapshot = new byte[body + length - buf.position()];
+				buf.get(snapshot);
+				if (Arrays.equals(entryHash, hash)) {
+					this.saved.put(key, new Saved(template, session,
+						snapshot));
+				}
+				else {
+					this.dropped++;
+				}
+			}
+			else if (kind == TAKEN) {
+				this.saved.remove(key);
+			}
+			else {
+				throw new IOException("Bad session store: unknown record " +
+					"kind " + kind);
+			}
+			buf.position(body + length);
+		}
+	}
+	
+	/**
+	 * Writes the sessions held to a new file that then replaces the old one.
+	 */
+	private void rewrite() throws IOException {
+		Path temp = this.path.resolveSibling(this.path.getFileName() +
+			".tmp");
+		FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+			StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.flip();
+			this.write(out, header);
+			for (Map.Entry<String,Saved> e : this.saved.entrySet()) {
+				this.write(out, this.record(SAVED, e.getKey(), e.getValue()));
+			}
+			out.force(true);
+		}
+		finally {
+			out.close();
+		}
+		Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+		this.channel.close();
+		this.channel = FileChannel.open(this.path, StandardOpenOption.READ,
+			StandardOpenOption.WRITE);
+		this.channel.position(this.channel.size());
+		this.records = this.saved.size();
+	}
+	
+	/**
+	 * A Saved session is the snapshot of a session along with the game world
+	 * it was played in and its id.
+	 */
+	public static class Saved {
+		
+		private final WorldTemplate template;
+		private final long session;
+		private final byte[] snapshot;
+		
+		Saved(WorldTemplate template, long session, byte[] snapshot) {
+			this.template = template;
+			this.session = session;
+			this.snapshot = snapshot;
+		}
+		
+		/**
+		 * Get the id of the session in the server's ActionJournal.
+		 * @return The session id
+		 */
+		public long getSession() {
+			return this.session;
+		}
+		
+		/**
+		 * Restores the session into the version of the game world it was
+		 * saved in, from which it moves to the holder's current version at
+		 * its next travel.
+		 * @param holder The holder of the game world the server plays
+		 * @return The restored World
+		 * @throws IOException If the snapshot can't be restored
+		 */
+		public World restore(TemplateHolder holder) throws IOException {
+			World world = SessionSnapshot.restore(this.template,
+				this.snapshot);
+			world.setHolder(holder);
+			return world;
+		}
+	
+	}
+	
+}
@@ -1,19 +1,20 @@
 package kuusisto.finn.spacemerchant;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * The Ship class represents a Ship used for travel in a text-based game.  Each
- * ship has a list of Commodities that it is carrying along with a list of
- * their quantities, a maximum cargo capacity, a current amount of fuel and a 
- * maximum capacity of fuel.
+ * ship has the Commodities that it is carrying along with their quantities
+ * (both indexed by Commodity ordinal), a running total of that cargo, a
+ * maximum cargo capacity, a current amount of fuel and a maximum capacity of
+ * fuel.
  * 
  * @author Finn Kuusisto
  */
 public class Ship {
 
-	private List<Commodity> commodities;
-	private List<Integer> quantities;
+	private Commodity[] commodities;
+	private int[] quantities;
+	private int cargoQuantity;
 	private int cargoCapacity;
 	private int fuelCapacity;
 	private int fuel;
@@ -29,8 +30,9 @@ public class Ship {
 		this.cargoCapacity = cargoCapacity;
 		this.fuelCapacity = fuelCapacity;
 		this.fuel = fuelCapacity;
-		this.commodities = new ArrayList<Commodity>();
-		this.quantities = new ArrayList<Integer>();
+		this.commodities = new Commodity[0];
+		this.quantities = new int[0];
+		this.cargoQuantity = 0;
 	}
 	
 	/**
@@ -43,13 +45,19 @@ public class Ship {
 	
 	/**
 	 * Gets the total quantity of cargo currently carried by a Ship.  <i>Fuel
-	 * does not count as cargo</i>.
+	 * does not count as cargo</i>.  The total is kept up to date as cargo is
+	 * added and removed, so this does not depend on the size of the cargo.
 	 * @return The total quantity of cargo currently carried by this Ship
 	 */
 	public int getTotalCargoQuantity() {
+		assert this.cargoQuantity == this.sumCargoQuantities();
+		return this.cargoQuantity;
+	}
+	
+	private int sumCargoQuantities() {
 		int quantity = 0;
-		for (int i = 0; i < this.quantities.size(); i++) {
-			quantity += quantities.get(i);
+		for (int i = 0; i < this.quantities.length; i++) {
+			quantity += this.quantities[i];
 		}
 		return quantity;
 	}
@@ -58,51 +66,94 @@ public class Ship {
 	 * Gets the quantity of a particular Commodity carried by a Ship.
 	 * @param commodity The Commodity to find the quantity
 	 * @return The quantity of the specified Commodity carried by this Ship, 0
-	 * if the Commodity is not in this Ship's list of Commodities
+	 * if the Commodity is not in this Ship's Commodities
 	 */
 	public int getQuantity(Commodity commodity) {
-		int index = this.commodities.indexOf(commodity);
-		if (index >= 0) {
-			return this.quantities.get(index);
+		int ordinal = commodity.getOrdinal();
+		if (ordinal < this.quantities.length) {
+			return this.quantities[ordinal];
 		}
 		return 0;
 	}
 	
 	/**
 	 * Adds some quantity of a particular Commodity to a Ship.  If the
-	 * specified Commodity is not on the list of Commodities carried by the
-	 * Ship, the Commodity is first added to the list and then the quantity is
-	 * added to the list of quantities.  If the Commodity is on the list of
-	 * Commodities carried by the Ship, the quantity is simply modified.
+	 * specified Commodity is not among the Commodities carried by the Ship,
+	 * the Commodity is first added to them.  Then the quantity is simply
+	 * modified.
 	 * @param commodity The Commodity to add
 	 * @param quantity The quantity of the Commodity to add
+	 * @throws IllegalArgumentException If the quantity is negative
 	 */
 	public void addCommodity(Commodity commodity, int quantity) {
-		int index = this.commodities.indexOf(commodity);
-		if (index >= 0) {
-			int newQuant = this.quantities.get(index) + quantity;
-			this.quantities.set(index, newQuant);
+		if (quantity < 0) {
+			throw new IllegalArgumentException("Negative quantity " + quantity);
 		}
-		else {
-			this.commodities.add(commodity);
-			this.quantities.add(quantity);
+		int ordinal = commodity.getOrdinal();
+		if (ordinal >= this.quantities.length) {
+			this.commodities = Arrays.copyOf(this.commodities, ordinal + 1);
+			this.quantities = Arrays.copyOf(this.quantities, ordinal + 1);
 		}
+		this.commodities[ordinal] = commodity;
+		this.quantities[ordinal] += quantity;
+		this.cargoQuantity += quantity;
 	}
 	
 	/**
-	 * Removes some quantity of a particular Commodity from a Ship.  If the
-	 * specified Commodity is not on the list of Commodities carried by the
-	 * Ship, nothing needs to be done.  If the Commodity is on the list of
-	 * Commodities carried by the Ship, the quantity is modified.
+	 * Removes some quantity of a particular Commodity from a Ship.  The Ship
+	 * must carry at least that much of the Commodity, so that no quantity
+	 * (or the running total) ever goes negative.
 	 * @param commodity The Commodity to remove
 	 * @param quantity The quantity of the Commodity to remove
+	 * @throws IllegalArgumentException If the quantity is negative or more
+	 * than the Ship carries
 	 */
 	public void removeCommodity(Commodity commodity, int quantity) {
-		int index = this.commodities.indexOf(commodity);
-		if (index >= 0) {
-			int newQuant = this.quantities.get(index) - quantity;
-			this.quantities.set(index, newQuant);
+		if (quantity < 0 || quantity > this.getQuantity(commodity)) {
+			throw new IllegalArgumentException("Can't remove " + quantity +
+				" " + commodity.getName());
+		}
+		if (quantity == 0) { return; }
+		int ordinal = commodity.getOrdinal();
+		this.quantities[ordinal] -= quantity;
+		this.cargoQuantity -= quantity;
+	}
+	
+	/**
+	 * Changes the quantities of several Commodities in a Ship at once, as
+	 * long as the whole batch fits.  Positive changes add cargo and negative
+	 * changes remove it.  The cargo capacity is checked once against the net
+	 * change of the batch, so cargo removed in the batch makes room for cargo
+	 * added in it.  If the batch would exceed the cargo capacity or remove
+	 * more of a Commodity than the Ship carries, nothing is changed.
+	 * @param commodities The Commodities to change, each listed at most once
+	 * @param changes The change in quantity for each of the Commodities
+	 * @param count The number of changes in the batch, from the start of the
+	 * arrays
+	 * @return true if the changes were made, false otherwise
+	 */
+	public boolean changeCommodities(Commodity[] commodities, int[] changes,
+		int count) {
+		long net = 0;
+		for (int i = 0; i < count; i++) {
+			if (changes[i] < 0 &&
+				-(long)changes[i] > this.getQuantity(commodities[i])) {
+				return false;
+			}
+			net += changes[i];
+		}
+		if (this.cargoQuantity + net > this.cargoCapacity) {
+			return false;
+		}
+		for (int i = 0; i < count; i++) {
+			if (changes[i] > 0) {
+				this.addCommodity(commodities[i], changes[i]);
+			}
+			else {
+				this.removeCommodity(commodities[i], -changes[i]);
+			}
 		}
+		return true;
 	}
 	
 	/**
@@ -164,10 +215,10 @@ public class Ship {
 		str.append("Total Cargo Quantity - " + this.getTotalCargoQuantity() + 
 				"\n");
 		str.append("Inventory - \n");
-		for (int i = 0; i < this.commodities.size(); i++) {
-			String name = this.commodities.get(i).getName();
-			int quantity = this.quantities.get(i);
+		for (int i = 0; i < this.commodities.length; i++) {
+			int quantity = this.quantities[i];
 			if (quantity > 0) {
+				String name = this.commodities[i].getName();
 				str.append("  " + name + ": " + quantity);
 				str.append("\n");
 			}
@@ -0,0 +1,349 @@
+package kuusisto.finn.spacemerchant;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The Simulator class plays many games of one game world without a user, to
+ * see how long games take and whether they can be finished at all.  Each game
+ * is a new World with its own RandomSource, seeded from the game's number and
+ * a base seed, and is played by a Strategy one turn at a time until every
+ * Mission is complete, the Strategy is stuck or a turn limit is reached.
+ * Nothing is rendered as text while playing.  The games are spread over the
+ * common ForkJoinPool and their results are added up into a Report, which is
+ * the same for the same seed however the games happen to be split up.
+ * <br>
+ * It can also be run on a world file:<br>
+ * <tt>java kuusisto.finn.spacemerchant.Simulator world_file [games
+ * [max_turns [seed]]]</tt>
+ * 
+ * @author Finn Kuusisto
+ */
+public class Simulator {
+	
+	//the fewest games played by one task before it splits no further
+	private static final int GAMES_PER_TASK = 64;
+	//how often the money is sampled, in turns
+	private static final int MONEY_SAMPLE_TURNS = 10;
+	
+	private WorldTemplate template;
+	private Strategy strategy;
+	
+	/**
+	 * Constructs a new Simulator for a game world.
+	 * @param template The game world in which to play
+	 * @param strategy The Strategy that plays every game
+	 */
+	public Simulator(WorldTemplate template, Strategy strategy) {
+		this.template = template;
+		this.strategy = strategy;
+	}
+	
+	/**
+	 * Plays a number of games in parallel.
+	 * @param games The number of games to play
+	 * @param seed The base seed from which every game's seed is made
+	 * @param maxTurns The most turns a game may take before it is given up
+	 * @return The combined results of all of the games
+	 */
+	public Report run(int games, long seed, int maxTurns) {
+		return ForkJoinPool.commonPool().invoke(
+			new Games(0, games, seed, maxTurns));
+	}
+	
+	/**
+	 * Plays a single game to its end, adding its result to a Report.
+	 */
+	private void play(long seed, int maxTurns, Report report) {
+		World world = new World(this.template, new SplitMixRandom(seed));
+		Player player = world.getPlayer();
+		player.setMission(world.getNextMission());
+		int turns = 0;
+		boolean stuck = false;
+		report.addMoney(0, player.getMoney());
+		while (!world.allMissionsComplete() && turns < maxTurns) {
+			if (!this.strategy.takeTurn(player)) {
+				stuck = true;
+				break;
+			}
+			turns++;
+			if (turns % MONEY_SAMPLE_TURNS == 0) {
+				report.addMoney(turns, player.getMoney());
+			}
+		}
+		//finished games keep their last money for the rest of the curve
+		for (int t = turns - turns % MONEY_SAMPLE_TURNS + MONEY_SAMPLE_TURNS;
+			t <= maxTurns; t += MONEY_SAMPLE_TURNS) {
+			report.addMoney(t, player.getMoney());
+		}
+		if (world.allMissionsComplete()) {
+			report.addWin(turns);
+		}
+		else if (stuck) {
+			report.addStuck(player.getMission(), player.getLocation());
+		}
+		else {
+			report.addOutOfTurns();
+		}
+	}
+	
+	/**
+	 * A Games task plays a range of games, splitting itself in two until the
+	 * range is small.
+	 */
+	private class Games extends RecursiveTask<Report> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private int first;
+		private int last;
+		private long seed;
+		private int maxTurns;
+		
+		Games(int first, int last, long seed, int maxTurns) {
+			this.first = first;
+			this.last = last;
+			this.seed = seed;
+			this.maxTurns = maxTurns;
+		}
+		
+		@Override
+		protected Report compute() {
+			if (this.last - this.first > GAMES_PER_TASK) {
+				int mid = (this.first + this.last) >>> 1;
+				Games other = new Games(mid, this.last, this.seed,
+					this.maxTurns);
+				other.fork();
+				Report report = new Games(this.first, mid, this.seed,
+					this.maxTurns).compute();
+				report.add(other.join());
+				return report;
+			}
+			Report report = new Report(this.maxTurns);
+			for (int game = this.first; game < this.last; game++) {
+				long gameSeed = SplitMixRandom.mix64(
+					this.seed + game * SplitMixRandom.GOLDEN_GAMMA);
+				Simulator.this.play(gameSeed, this.maxTurns, report);
+			}
+			return report;
+		}
+	
+	}
+	
+	/**
+	 * A Report holds the combined results of many simulated games: how many
+	 * were won, got stuck or ran out of turns, how many turns the wins took,
+	 * the mean money over time and where stuck games got stuck.
+	 */
+	public static class Report {
+		
+		private int maxTurns;
+		private int games;
+		private int outOfTurns;
+		private int[] winTurns;
+		private long[] moneySums;
+		private Map<String,Integer> stuck;
+		
+		Report(int maxTurns) {
+			this.maxTurns = maxTurns;
+			this.winTurns = new int[maxTurns + 1];
+			this.moneySums = new long[maxTurns / MONEY_SAMPLE_TURNS + 1];
+			this.stuck = new TreeMap<String,Integer>();
+		}
+		
+		void addMoney(int turn, int money) {
+			this.moneySums[turn / MONEY_SAMPLE_TURNS] += money;
+		}
+		
+		void addWin(int turns) {
+			this.games++;
+			this.winTurns[turns]++;
+		}
+		
+		void addStuck(Mission mission, Location location) {
+			this.games++;
+			String where = mission.getTitle() + " at " + location.getName();
+			Integer count = this.stuck.get(where);
+			this.stuck.put(where, (count == null) ? 1 : count + 1);
+		}
+		
+		void addOutOfTurns() {
+			this.games++;
+			this.outOfTurns++;
+		}
+		
+		void add(Report other) {
+			this.games += other.games;
+			this.outOfTurns += other.outOfTurns;
+			for (int i = 0; i < this.winTurns.length; i++) {
+				this.winTurns[i] += other.winTurns[i];
+			}
+			for (int i = 0; i < this.moneySums.length; i++) {
+				this.moneySums[i] += other.moneySums[i];
+			}
+			for (Map.Entry<String,Integer> e : other.stuck.entrySet()) {
+				Integer count = this.stuck.get(e.getKey());
+				this.stuck.put(e.getKey(), (count == null) ? e.getValue() :
+					count + e.getValue());
+			}
+		}
+		
+		/**
+		 * Gets the number of games played.
+		 * @return The number of games
+		 */
+		public int getGames() {
+			return this.games;
+		}
+		
+		/**
+		 * Gets the number of games in which every Mission was completed.
+		 * @return The number of games won
+		 */
+		public int getWins() {
+			int wins = 0;
+			for (int count : this.winTurns) { wins += count; }
+			return wins;
+		}
+		
+		/**
+		 * Gets the number of games in which the Strategy got stuck.
+		 * @return The number of stuck games
+		 */
+		public int getStuck() {
+			int stuck = 0;
+			for (int count : this.stuck.values()) { stuck += count; }
+			return stuck;
+		}
+		
+		/**
+		 * Gets the number of games that reached the turn limit unfinished.
+		 * @return The number of games out of turns
+		 */
+		public int getOutOfTurns() {
+			return this.outOfTurns;
+		}
+		
+		/**
+		 * Gets the number of games won in exactly a number of turns.
+		 * @param turns The number of turns
+		 * @return The number of games won in that many turns
+		 */
+		public int getWins(int turns) {
+			return this.winTurns[turns];
+		}
+		
+		/**
+		 * Gets a percentile of the number of turns taken by won games.
+		 * @param percent The percentile, from 0 to 100
+		 * @return The number of turns within which that percent of the won
+		 * games were won, or -1 if no games were won
+		 */
+		public int getWinTurnsPercentile(int percent) {
+			long wins = this.getWins();
+			if (wins == 0) { return -1; }
+			long needed = Math.max(1, (wins * percent + 99) / 100);
+			long seen = 0;
+			for (int turns = 0; turns < this.winTurns.length; turns++) {
+				seen += this.winTurns[turns];
+				if (seen >= needed) { return turns; }
+			}
+			return this.maxTurns;
+		}
+		
+		/**
+		 * Gets the mean money of all games after a number of turns.  Games
+		 * that ended earlier count with the money they ended with.
+		 * @param turn The turn, rounded down to a multiple of ten
+		 * @return The mean money at that turn
+		 */
+		public long getMeanMoney(int turn) {
+			if (this.games == 0) { return 0; }
+			return this.moneySums[turn / MONEY_SAMPLE_TURNS] / this.games;
+		}
+		
+		/**
+		 * Gets how many games got stuck on each Mission and Location.
+		 * @return A map from "mission_title at location_name" to the number
+		 * of games stuck there
+		 */
+		public Map<String,Integer> getStuckStates() {
+			return new TreeMap<String,Integer>(this.stuck);
+		}
+		
+		/**
+		 * Converts a Report to a human-readable form.
+		 */
+		public String toString() {
+			StringBuilder str = new StringBuilder();
+			str.append("[SIMULATION]\n");
+			str.append("Games: " + this.games + "\n");
+			str.append("Won: " + this.getWins() + "\n");
+			str.append("Stuck: " + this.getStuck() + "\n");
+			str.append("Out of turns: " + this.outOfTurns + "\n");
+			if (this.getWins() > 0) {
+				str.append("Turns to win: " +
+					"min " + this.getWinTurnsPercentile(0) +
+					", median " + this.getWinTurnsPercentile(50) +
+					", 90% " + this.getWinTurnsPercentile(90) +
+					", 99% " + this.getWinTurnsPercentile(99) +
+					", max " + this.getWinTurnsPercentile(100) + "\n");
+			}
+			str.append("Mean money by turn:\n");
+			int step = Math.max(1, this.moneySums.length / 10);
+			for (int i = 0; i < this.moneySums.length; i += step) {
+				int turn = i * MONEY_SAMPLE_TURNS;
+				str.append("  " + turn + ": " + this.getMeanMoney(turn) +
+					"\n");
+			}
+			if (!this.stuck.isEmpty()) {
+				str.append("Stuck at:\n");
+				for (Map.Entry<String,Integer> e : this.stuck.entrySet()) {
+					str.append("  " + e.getKey() + ": " + e.getValue() +
+						"\n");
+				}
+			}
+			return str.toString();
+		}
+	
+	}
+	
+	/**
+	 * Simulates games of a world file with the MissionStrategy and prints the
+	 * Report.
+	 * @param args The world file, then optionally the number of games (1000),
+	 * the most turns per game (1000) and the base seed (42)
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: Simulator <world file> [games " +
+				"[max turns [seed]]]");
+			System.exit(1);
+		}
+		int games = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		int maxTurns = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+		long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42;
+		WorldTemplate template = null;
+		try {
+			template = WorldTemplate.load(args[0]);
+		}
+		catch (IOException e) {
+			System.out.println("Failed to open world file: " + args[0]);
+			System.exit(1);
+		}
+		catch (WorldParseException e) {
+			System.out.println("Failed parsing " + args[0] + "! " +
+				e.getMessage());
+			System.exit(1);
+		}
+		Simulator simulator = new Simulator(template, new MissionStrategy());
+		long start = System.nanoTime();
+		Report report = simulator.run(games, seed, maxTurns);
+		long millis = (System.nanoTime() - start) / 1000000;
+		System.out.print(report);
+		System.out.println("(" + games + " games in " + millis + "ms)");
+	}
+	
+}
@@ -1,4 +1,11 @@
 package kuusisto.finn.spacemerchant;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
 /**
  * The SpaceMerchant class is the main class of the game.  It loads a World
  * from a file and plays the game to completion.
@@ -9,42 +16,81 @@ public class SpaceMerchant {
 	
 	/**
 	 * This is the game's main method.  It begins by loading the World from a 
-	 * file and printing a welcome message.  While the player has not completed
-	 * all of the Missions (use <tt>World.allMissionsComplete</tt>), it gets a
-	 * user requested Action from the UserInterface (use 
-	 * <tt>UserInterface.getUserAction</tt>) and carries them out.  A message
-	 * is printed to the user upon completion along with their final status
-	 * information.
-	 * @param args Unused
+	 * file (exiting if the file can't be loaded) and printing a welcome
+	 * message.  While the game is not over (use <tt>BatchRunner.isOver</tt>),
+	 * it gets a user requested Action from the UserInterface (use 
+	 * <tt>UserInterface.getUserAction</tt>), carries it out with a BatchRunner
+	 * and prints its results.  A message is printed to the user upon
+	 * completion along with their final status information.  If a script file
+	 * is given, its commands are carried out in batches instead of asking the
+	 * user, and the output of each batch is written and flushed at once.
+	 * @param args [world_file [script_file]] (default "universe.world")
 	 */
 	public static void main(String[] args) {
-		World.loadWorld("universe.world");
-		Player player = World.getPlayer();
-		
-		System.out.println("Welcome To Space Merchant!");
-		System.out.println("--------------------------");
-		player.list("commands");
-		System.out.println("--------------------------\n");
-		
-		player.describeLocation();
-		player.setMission(World.getNextMission());
-		while (!World.allMissionsComplete()) {
-			Action action = UserInterface.getUserAction();
-			switch (action.getActionValue()) {
-				case Action.TRAVEL:
-					player.travel(action.getName()); break;
-				case Action.BUY:
-					player.buy(action.getName(), action.getQuantity()); break;
-				case Action.SELL:
-					player.sell(action.getName(), action.getQuantity()); break;
-				case Action.LIST:
-					player.list(action.getName()); break;
-				case Action.QUIT:
-					System.out.println("Bye!"); return;
+		String filename = args.length > 0 ? args[0] : "universe.world";
+		World world = null;
+		try {
+			world = World.loadWorld(filename);
+		}
+		catch (IOException e) {
+			System.out.println("Failed to open world file: " + filename);
+			System.exit(1);
+		}
+		catch (WorldParseException e) {
+			System.out.println("Failed parsing " + filename + "! " +
+				e.getMessage());
+			System.exit(1);
+		}
+		BatchRunner runner = new BatchRunner(world);
+		StringBuilder out = new StringBuilder();
+		SpaceMerchant.welcome(world, out);
+		if (args.length > 1) {
+			Writer writer = new BufferedWriter(
+				new OutputStreamWriter(System.out));
+			try {
+				writer.append(out);
+				BufferedReader script = new BufferedReader(
+					new FileReader(args[1]));
+				try {
+					runner.runScript(script, writer);
+				}
+				finally {
+					script.close();
+				}
+			}
+			catch (IOException e) {
+				System.out.println("Failed to run script file: " + args[1]);
+				System.exit(1);
 			}
+			return;
 		}
-		System.out.println("Finally!  You won!");
-		player.list("status");
+		System.out.print(out);
+		while (!runner.isOver()) {
+			Action action = UserInterface.getUserAction();
+			out.setLength(0);
+			runner.execute(action, out);
+			System.out.print(out);
+		}
+	}
+	
+	/**
+	 * Gives the Player their first Mission and describes the start of the
+	 * game: the welcome message, the list of commands, the starting Location
+	 * and the first Mission.
+	 * @param world The game session that is starting
+	 * @param out The text to which to append
+	 */
+	static void welcome(World world, StringBuilder out) {
+		Player player = world.getPlayer();
+		TextRenderer renderer = new TextRenderer();
+		out.append("Welcome To Space Merchant!\n");
+		out.append("--------------------------\n");
+		renderer.render(player.list("commands"), out);
+		out.append("--------------------------\n\n");
+		
+		renderer.render(player.getLocation(), out);
+		player.setMission(world.getNextMission());
+		renderer.render(player.getMission(), out);
 	}
 	
 }
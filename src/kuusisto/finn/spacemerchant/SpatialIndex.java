@@ -0,0 +1,213 @@
+package kuusisto.finn.spacemerchant;
+import java.util.Arrays;
+
+/**
+ * The SpatialIndex class finds the Locations of a game world near a point,
+ * by the same L1 distance that travel uses, without looking at every
+ * Location.  The world's bounding box is cut into a grid of square cells,
+ * sized so that each holds a few Locations on average, and the ids of the
+ * Locations in each cell are kept together in one array.  A range query
+ * only looks in the cells the range overlaps, and a nearest query looks in
+ * rings of cells outward from the point until nothing nearer can be left.
+ * <br>
+ * Results are sorted by distance, then by id.
+ *
+ * @author Finn Kuusisto
+ */
+public class SpatialIndex {
+
+	//the average number of Locations in a cell the grid is sized for
+	private static final int LOCATIONS_PER_CELL = 4;
+
+	private final WorldTemplate template;
+	private final int minX;
+	private final int minY;
+	private final int cellSize;
+	private final int columns;
+	private final int rows;
+	//the ids in each cell are cellIds[cellStart[cell]..cellStart[cell + 1]]
+	private final int[] cellStart;
+	private final int[] cellIds;
+
+	/**
+	 * Constructs a new SpatialIndex of the Locations of a game world.
+	 * @param template The game world, whose Locations all have coordinates
+	 */
+	public SpatialIndex(WorldTemplate template) {
+		this.template = template;
+		int n = template.getLocationCount();
+		int minX = 0, minY = 0, maxX = 0, maxY = 0;
+		for (int i = 0; i < n; i++) {
+			int x = template.getX(i);
+			int y = template.getY(i);
+			if (i == 0 || x < minX) { minX = x; }
+			if (i == 0 || y < minY) { minY = y; }
+			if (i == 0 || x > maxX) { maxX = x; }
+			if (i == 0 || y > maxY) { maxY = y; }
+		}
+		this.minX = minX;
+		this.minY = minY;
+		long width = (long)maxX - minX + 1;
+		long height = (long)maxY - minY + 1;
+		//square cells of about LOCATIONS_PER_CELL Locations each
+		double area = (double)width * height * LOCATIONS_PER_CELL /
+			Math.max(1, n);
+		long size = Math.max(1, (long)Math.ceil(Math.sqrt(area)));
+		size = Math.max(size, Math.max(width, height) / 65536 + 1);
+		this.cellSize = (int)Math.min(size, Integer.MAX_VALUE);
+		this.columns = (int)((width - 1) / this.cellSize + 1);
+		this.rows = (int)((height - 1) / this.cellSize + 1);
+		//counting sort of the ids by cell
+		this.cellStart = new int[this.columns * this.rows + 1];
+		for (int i = 0; i < n; i++) {
+			this.cellStart[this.cellOf(i) + 1]++;
+		}
+		for (int c = 0; c < this.columns * this.rows; c++) {
+			this.cellStart[c + 1] += this.cellStart[c];
+		}
+		this.cellIds = new int[n];
+		int[] next = Arrays.copyOf(this.cellStart, this.cellStart.length - 1);
+		for (int i = 0; i < n; i++) {
+			this.cellIds[next[this.cellOf(i)]++] = i;
+		}
+	}
+
+	/**
+	 * Finds the other Locations within a distance of a Location.
+	 * @param id The id of the Location to search around
+	 * @param range The greatest distance to include
+	 * @return The ids of the Locations within range, nearest first
+	 */
+	public int[] withinRange(int id, int range) {
+		int x = this.template.getX(id);
+		int y = this.template.getY(id);
+		int c0 = this.column((long)x - range);
+		int c1 = this.column((long)x + range);
+		int r0 = this.row((long)y - range);
+		int r1 = this.row((long)y + range);
+		long[] found = new long[16];
+		int count = 0;
+		for (int r = r0; r <= r1; r++) {
+			for (int c = c0; c <= c1; c++) {
+				int cell = r * this.columns + c;
+				for (int k = this.cellStart[cell];
+					k < this.cellStart[cell + 1]; k++) {
+					int other = this.cellIds[k];
+					long distance = this.distance(x, y, other);
+					if (other == id || distance > range) { continue; }
+					if (count == found.length) {
+						found = Arrays.copyOf(found, count * 2);
+					}
+					found[count++] = (distance << 32) | other;
+				}
+			}
+		}
+		return SpatialIndex.sortedIds(found, count, count);
+	}
+
+	/**
+	 * Finds the other Locations nearest a Location, only counting those that
+	 * offer a Commodity if one is given.
+	 * @param id The id of the Location to search around
+	 * @param k The most Locations to find
+	 * @param offering The Commodity the Locations must offer, or null for
+	 * any Location
+	 * @return The ids of up to k Locations, nearest first
+	 */
+	public int[] nearest(int id, int k, Commodity offering) {
+		int x = this.template.getX(id);
+		int y = this.template.getY(id);
+		int cx = this.column(x);
+		int cy = this.row(y);
+		int maxRing = Math.max(Math.max(cx, this.columns - 1 - cx),
+			Math.max(cy, this.rows - 1 - cy));
+		long[] found = new long[Math.max(16, k)];
+		int count = 0;
+		for (int ring = 0; ring <= maxRing && k > 0; ring++) {
+			for (int r = cy - ring; r <= cy + ring; r++) {
+				if (r < 0 || r >= this.rows) { continue; }
+				//the whole row at the ring's edges, its two ends otherwise
+				int step = (r == cy - ring || r == cy + ring) ? 1 :
+					Math.max(1, 2 * ring);
+				for (int c = cx - ring; c <= cx + ring; c += step) {
+					if (c < 0 || c >= this.columns) { continue; }
+					int cell = r * this.columns + c;
+					for (int j = this.cellStart[cell];
+						j < this.cellStart[cell + 1]; j++) {
+						int other = this.cellIds[j];
+						if (other == id || (offering != null &&
+							!this.template.getLocation(other).hasCommodity(
+								offering))) {
+							continue;
+						}
+						if (count == found.length) {
+							found = Arrays.copyOf(found, count * 2);
+						}
+						found[count++] = (this.distance(x, y, other) << 32) |
+							other;
+					}
+				}
+			}
+			//anything in the next ring is more than this far away
+			long beyond = (long)ring * this.cellSize;
+			if (count >= k && SpatialIndex.countWithin(found, count,
+				beyond) >= k) {
+				break;
+			}
+		}
+		return SpatialIndex.sortedIds(found, count, Math.min(k, count));
+	}
+
+	/**
+	 * Get the number of columns of the grid, cells being numbered along each
+	 * row and then row by row.
+	 * @return The number of columns
+	 */
+	int getColumns() {
+		return this.columns;
+	}
+
+	private long distance(int x, int y, int id) {
+		return Math.abs((long)x - this.template.getX(id)) +
+			Math.abs((long)y - this.template.getY(id));
+	}
+
+	//the cell a Location is in
+	int cellOf(int id) {
+		return this.row(this.template.getY(id)) * this.columns +
+			this.column(this.template.getX(id));
+	}
+
+	//the column of an x coordinate, clamped to the grid
+	int column(long x) {
+		long c = (x - this.minX) / this.cellSize;
+		return (int)Math.max(0, Math.min(this.columns - 1, c));
+	}
+
+	//the row of a y coordinate, clamped to the grid
+	int row(long y) {
+		long r = (y - this.minY) / this.cellSize;
+		return (int)Math.max(0, Math.min(this.rows - 1, r));
+	}
+
+	private static int countWithin(long[] found, int count, long distance) {
+		int within = 0;
+		for (int i = 0; i < count; i++) {
+			if ((found[i] >>> 32) <= distance) { within++; }
+		}
+		return within;
+	}
+
+	/**
+	 * Sorts (distance, id) pairs packed into longs and keeps the first ids.
+	 */
+	private static int[] sortedIds(long[] found, int count, int keep) {
+		Arrays.sort(found, 0, count);
+		int[] ids = new int[keep];
+		for (int i = 0; i < keep; i++) {
+			ids[i] = (int)found[i];
+		}
+		return ids;
+	}
+
+}
@@ -0,0 +1,100 @@
+package kuusisto.finn.spacemerchant;
+
+/**
+ * The SplitMixRandom class is a RandomSource using the SplitMix64 algorithm
+ * (the one behind <tt>java.util.SplittableRandom</tt>).  Its whole state is a
+ * pair of longs, so it is cheap to create one per session and it can be saved
+ * and restored exactly, and it never synchronizes.
+ * 
+ * @author Finn Kuusisto
+ */
+public class SplitMixRandom implements RandomSource {
+	
+	/**
+	 * The default increment, the odd integer closest to 2^64 divided by the
+	 * golden ratio.
+	 */
+	static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	
+	private long state;
+	private long gamma;
+	
+	/**
+	 * Constructs a new SplitMixRandom from a seed.  Two SplitMixRandoms with
+	 * the same seed produce the same stream.
+	 * @param seed The seed of the stream
+	 */
+	public SplitMixRandom(long seed) {
+		this(seed, GOLDEN_GAMMA);
+	}
+	
+	/**
+	 * Constructs a SplitMixRandom with an exact state, such as one saved with
+	 * <tt>getState</tt> and <tt>getGamma</tt>.
+	 * @param state The current state of the stream
+	 * @param gamma The odd increment of the stream
+	 */
+	SplitMixRandom(long state, long gamma) {
+		this.state = state;
+		this.gamma = gamma | 1;
+	}
+	
+	/**
+	 * Gets the current state of the stream.
+	 * @return The state
+	 */
+	long getState() {
+		return this.state;
+	}
+	
+	/**
+	 * Gets the increment of the stream.
+	 * @return The gamma
+	 */
+	long getGamma() {
+		return this.gamma;
+	}
+	
+	@Override
+	public long nextLong() {
+		this.state += this.gamma;
+		return SplitMixRandom.mix64(this.state);
+	}
+	
+	@Override
+	public int nextInt(int low, int high) {
+		long range = (long)high - low + 1;
+		//scale the top 32 bits into the range rather than taking a modulus
+		return (int)(low + (((this.nextLong() >>> 32) * range) >>> 32));
+	}
+	
+	@Override
+	public RandomSource split() {
+		long seed = this.nextLong();
+		this.state += this.gamma;
+		return new SplitMixRandom(seed, SplitMixRandom.mixGamma(this.state));
+	}
+	
+	/**
+	 * Scrambles the bits of a value with the SplitMix64 finalizer.  Nearby
+	 * inputs give unrelated outputs, so this can also be used to hash
+	 * counters into pseudo-random values.
+	 * @param z The value to scramble
+	 * @return The scrambled value
+	 */
+	static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+		z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		//gammas with too few bit transitions give poor streams
+		int n = Long.bitCount(z ^ (z >>> 1));
+		return (n < 24) ? z ^ 0xAAAAAAAAAAAAAAAAL : z;
+	}
+	
+}
@@ -0,0 +1,23 @@
+package kuusisto.finn.spacemerchant;
+
+/**
+ * A Strategy plays a game in place of a user, one turn at a time, by calling
+ * <tt>Player.travel</tt>, <tt>Player.buy</tt> and <tt>Player.sell</tt>.  One
+ * Strategy is shared by every game a Simulator runs, on many threads at once,
+ * so it must not keep any state of its own between turns; anything random
+ * should be drawn from the game's <tt>World.getRandom</tt>.
+ * 
+ * @author Finn Kuusisto
+ */
+public interface Strategy {
+	
+	/**
+	 * Takes one turn for a Player: any buying and selling at the Player's
+	 * Location followed by at most one travel.
+	 * @param player The Player whose turn it is
+	 * @return true if a turn was taken, false if the Strategy can see no way
+	 * to go on (the game is stuck)
+	 */
+	public boolean takeTurn(Player player);
+	
+}
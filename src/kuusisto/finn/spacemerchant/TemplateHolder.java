@@ -0,0 +1,190 @@
+package kuusisto.finn.spacemerchant;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The TemplateHolder class holds the current version of a game world, so
+ * that the world file can be edited and reloaded while games are being
+ * played in it.  A reload parses the new world on the thread that asks for
+ * it, off to the side, and only once it has loaded without problems is it
+ * published, with a single volatile write.  Sessions never wait for a
+ * reload, so they carry on with their commands throughout, and a world file
+ * that fails to load leaves the old world in place.
+ * <br>
+ * Worlds made from a TemplateHolder move to its current world at their
+ * next travel (see <tt>World.migrate</tt>); new sessions start in the
+ * current world straight away.
+ * <br>
+ * A TemplateHolder can be frozen so that its world never changes again,
+ * such as while sessions are logged to an ActionJournal, which is only for
+ * one version of the world.  A frozen TemplateHolder refuses every other
+ * world, and a watched world file that changes is then reported, loudly,
+ * but not reloaded.
+ * 
+ * @author Finn Kuusisto
+ */
+public class TemplateHolder {
+	
+	/**
+	 * The time between checks of a watched world file, in milliseconds, that
+	 * the servers use.
+	 */
+	public static final long WATCH_INTERVAL = 1000;
+	
+	private final String filename;
+	private volatile WorldTemplate template;
+	//the modification time of the file when it was last loaded
+	private volatile long loaded;
+	//why the world may no longer change, or null if it may
+	private volatile String frozen;
+	
+	/**
+	 * Constructs a new TemplateHolder of a game world that isn't loaded from
+	 * a file, so it is only ever changed with <tt>publish</tt>.
+	 * @param template The game world
+	 */
+	public TemplateHolder(WorldTemplate template) {
+		this.filename = null;
+		this.template = template;
+	}
+	
+	/**
+	 * Constructs a new TemplateHolder and loads a world file into it.
+	 * @param filename The name of the world file to load, and later reload
+	 * @throws IOException If the file can't be opened or read
+	 * @throws WorldParseException If the file isn't a valid world
+	 */
+	public TemplateHolder(String filename) throws IOException,
+		WorldParseException {
+		this.filename = filename;
+		this.loaded = new File(filename).lastModified();
+		this.template = WorldTemplate.load(filename);
+	}
+	
+	/**
+	 * Get the current version of the game world.
+	 * @return The current WorldTemplate
+	 */
+	public WorldTemplate get() {
+		return this.template;
+	}
+	
+	/**
+	 * Stops the game world from changing from now on.  This can't be undone.
+	 * @param reason Why the world may no longer change, which is given when
+	 * another world is refused
+	 */
+	public synchronized void freeze(String reason) {
+		this.frozen = reason;
+	}
+	
+	/**
+	 * Indicates whether the game world may no longer change (see
+	 * <tt>freeze</tt>).
+	 * @return true if this TemplateHolder is frozen
+	 */
+	public boolean isFrozen() {
+		return this.frozen != null;
+	}
+	
+	/**
+	 * Makes a game world the current one.  A world with the same content as
+	 * the current one (see <tt>WorldTemplate.getContentHash</tt>) is left
+	 * unpublished, so that sessions don't move for nothing.
+	 * @param template The new game world
+	 * @return true if the world was published, false if it was the same
+	 * @throws IllegalStateException If this TemplateHolder is frozen, in
+	 * which case any world but the current one is refused, even one with the
+	 * same content
+	 */
+	public synchronized boolean publish(WorldTemplate template) {
+		if (template == this.template) { return false; }
+		if (this.frozen != null) {
+			throw new IllegalStateException("The world can't change: " +
+				this.frozen);
+		}
+		if (Arrays.equals(template.contentHash(),
+			this.template.contentHash())) {
+			return false;
+		}
+		this.template = template;
+		return true;
+	}
+	
+	/**
+	 * Loads the world file again and publishes it.
+	 * @return true if a changed world was published, false if it was the
+	 * same
+	 * @throws IOException If the file can't be opened or read
+	 * @throws WorldParseException If the file isn't a valid world
+	 * @throws IllegalStateException If this TemplateHolder has no world file
+	 * or is frozen
+	 */
+	public synchronized boolean reload() throws IOException,
+		WorldParseException {
+		if (this.filename == null) {
+			throw new IllegalStateException("No world file to reload");
+		}
+		this.loaded = new File(this.filename).lastModified();
+		if (this.frozen != null) {
+			//not worth parsing a world that will be refused
+			throw new IllegalStateException("The world can't change: " +
+				this.frozen);
+		}
+		return this.publish(WorldTemplate.load(this.filename));
+	}
+	
+	/**
+	 * Starts a thread that checks the world file every so often and reloads
+	 * it when it has changed.  Reloads and failures to reload are reported
+	 * on the standard output.  The thread doesn't keep the Java runtime
+	 * going.
+	 * @param interval The time between checks, in milliseconds
+	 * @throws IllegalStateException If this TemplateHolder has no world file
+	 */
+	public void watch(final long interval) {
+		if (this.filename == null) {
+			throw new IllegalStateException("No world file to watch");
+		}
+		Thread watcher = new Thread(new Runnable() {
+			public void run() {
+				while (true) {
+					try {
+						Thread.sleep(interval);
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+					TemplateHolder.this.reloadIfChanged();
+				}
+			}
+		}, "TemplateHolder-watch");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+	
+	private void reloadIfChanged() {
+		long modified = new File(this.filename).lastModified();
+		if (modified == this.loaded) { return; }
+		try {
+			if (this.reload()) {
+				System.out.println("Reloaded " + this.filename);
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Failed to reload " + this.filename + ": " +
+				e.getMessage());
+		}
+		catch (WorldParseException e) {
+			System.out.println("Failed reloading " + this.filename + "! " +
+				e.getMessage());
+		}
+		catch (IllegalStateException e) {
+			System.out.println("WARNING: " + this.filename + " has changed " +
+				"but was NOT reloaded.  " + e.getMessage() + ".  Restart " +
+				"the server to play the changed world.");
+		}
+	}
+	
+}
@@ -0,0 +1,141 @@
+package kuusisto.finn.spacemerchant;
+import java.util.List;
+
+/**
+ * The TextRenderer class turns the results of the Player's actions into the
+ * text the game shows the user.  Each method appends to a StringBuilder, so
+ * that any number of results can be gathered and written out at once, and
+ * nothing is formatted at all when no one is watching.
+ * 
+ * @author Finn Kuusisto
+ */
+public class TextRenderer {
+	
+	/**
+	 * Describes the outcome of a trip.  A successful trip describes the new
+	 * Location (<tt>render(Location)</tt>) and any Mission completed on
+	 * arrival (<tt>render(MissionCompleted)</tt>).  Otherwise it says "I
+	 * don't know where location_name is." (followed by "Did you mean ...?" if
+	 * there are suggestions) or "I don't have enough fuel to get to
+	 * location_name."
+	 * @param result The result of the trip
+	 * @param out The text to which to append
+	 */
+	public void render(TravelResult result, StringBuilder out) {
+		switch (result.getStatus()) {
+			case TravelResult.TRAVELED:
+				this.render(result.getDestination(), out);
+				if (result.getMissionCompleted() != null) {
+					this.render(result.getMissionCompleted(), out);
+				}
+				break;
+			case TravelResult.UNKNOWN_LOCATION:
+				out.append("I don't know where ").append(result.getName());
+				out.append(" is.");
+				this.renderSuggestions(result.getSuggestions(), out);
+				out.append("\n\n");
+				break;
+			case TravelResult.NOT_ENOUGH_FUEL:
+				out.append("I don't have enough fuel to get to ");
+				out.append(result.getName()).append(".\n\n");
+				break;
+		}
+	}
+	
+	/**
+	 * Describes the outcome of a trade: "I bought quantity commodity_name.",
+	 * "I sold quantity commodity_name.", "I can't buy commodity_name here.",
+	 * "I can't buy quantity commodity_name.", "I can't store that much
+	 * Fuel." or "I can't store that much cargo." (and the same for selling).
+	 * A Commodity that couldn't be found may be followed by "Did you mean
+	 * ...?"
+	 * @param result The result of the trade
+	 * @param out The text to which to append
+	 */
+	public void render(TradeResult result, StringBuilder out) {
+		String verb = result.isBuying() ? "buy" : "sell";
+		switch (result.getStatus()) {
+			case TradeResult.BOUGHT:
+				out.append("I bought ").append(result.getQuantity());
+				out.append(' ').append(result.getName()).append('.');
+				break;
+			case TradeResult.SOLD:
+				out.append("I sold ").append(result.getQuantity());
+				out.append(' ').append(result.getName()).append('.');
+				break;
+			case TradeResult.NOT_OFFERED:
+				out.append("I can't ").append(verb).append(' ');
+				out.append(result.getName()).append(" here.");
+				this.renderSuggestions(result.getSuggestions(), out);
+				break;
+			case TradeResult.BAD_QUANTITY:
+				out.append("I can't ").append(verb).append(' ');
+				out.append(result.getQuantity()).append(' ');
+				out.append(result.getName()).append('.');
+				break;
+			case TradeResult.NO_FUEL_SPACE:
+				out.append("I can't store that much Fuel.");
+				break;
+			case TradeResult.NO_CARGO_SPACE:
+				out.append("I can't store that much cargo.");
+				break;
+		}
+		out.append("\n\n");
+	}
+	
+	/**
+	 * Adds "  Did you mean first, second or third?" for any suggested names.
+	 */
+	private void renderSuggestions(List<String> names, StringBuilder out) {
+		if (names.isEmpty()) { return; }
+		out.append("  Did you mean ");
+		for (int i = 0; i < names.size(); i++) {
+			if (i > 0) {
+				out.append((i == names.size() - 1) ? " or " : ", ");
+			}
+			out.append(names.get(i));
+		}
+		out.append('?');
+	}
+	
+	/**
+	 * Describes a completed Mission: <tt>***Mission Completed***</tt>
+	 * followed by the next Mission, if there is one.
+	 * @param completed The completed Mission
+	 * @param out The text to which to append
+	 */
+	public void render(MissionCompleted completed, StringBuilder out) {
+		out.append("***Mission Completed***\n\n");
+		if (completed.getNext() != null) {
+			this.render(completed.getNext(), out);
+		}
+	}
+	
+	/**
+	 * Describes a Mission in its human-readable form.
+	 * @param mission The Mission to describe
+	 * @param out The text to which to append
+	 */
+	public void render(Mission mission, StringBuilder out) {
+		out.append(mission.toString()).append("\n\n");
+	}
+	
+	/**
+	 * Describes a Location in its human-readable form.
+	 * @param location The Location to describe
+	 * @param out The text to which to append
+	 */
+	public void render(Location location, StringBuilder out) {
+		out.append(location.toString()).append("\n\n");
+	}
+	
+	/**
+	 * Adds a list of information from <tt>Player.list</tt>.
+	 * @param list The list to add
+	 * @param out The text to which to append
+	 */
+	public void render(String list, StringBuilder out) {
+		out.append(list).append('\n');
+	}
+	
+}
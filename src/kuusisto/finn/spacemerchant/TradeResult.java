@@ -0,0 +1,139 @@
+package kuusisto.finn.spacemerchant;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The TradeResult class represents the outcome of a request to buy or sell a
+ * Commodity (<tt>Player.buy</tt> and <tt>Player.sell</tt>).  It holds no
+ * text; use a TextRenderer to describe it to a user.
+ * 
+ * @author Finn Kuusisto
+ */
+public class TradeResult {
+	
+	/**
+	 * Value of a successful purchase
+	 */
+	public static final int BOUGHT = 1;
+	/**
+	 * Value of a successful sale
+	 */
+	public static final int SOLD = 2;
+	/**
+	 * Value of a trade in a Commodity the Location doesn't offer
+	 */
+	public static final int NOT_OFFERED = 3;
+	/**
+	 * Value of a trade in a quantity that is negative, can't be afforded or
+	 * isn't on board
+	 */
+	public static final int BAD_QUANTITY = 4;
+	/**
+	 * Value of a purchase of more Fuel than the Ship can hold
+	 */
+	public static final int NO_FUEL_SPACE = 5;
+	/**
+	 * Value of a purchase of more cargo than the Ship can hold
+	 */
+	public static final int NO_CARGO_SPACE = 6;
+	
+	private final int status;
+	private final boolean buying;
+	private final String name;
+	private final int quantity;
+	private final int price;
+	private final List<String> suggestions;
+	
+	/**
+	 * Constructs a new TradeResult.
+	 * @param status What happened (BOUGHT, SOLD, NOT_OFFERED, etc.)
+	 * @param buying true for a purchase, false for a sale
+	 * @param name The name of the Commodity as it was requested
+	 * @param quantity The quantity requested
+	 * @param price The price of each unit, or -1 if nothing was traded
+	 */
+	public TradeResult(int status, boolean buying, String name, int quantity,
+		int price) {
+		this(status, buying, name, quantity, price,
+			Collections.<String>emptyList());
+	}
+	
+	/**
+	 * Constructs a new TradeResult that suggests Commodities.
+	 * @param status What happened (BOUGHT, SOLD, NOT_OFFERED, etc.)
+	 * @param buying true for a purchase, false for a sale
+	 * @param name The name of the Commodity as it was requested
+	 * @param quantity The quantity requested
+	 * @param price The price of each unit, or -1 if nothing was traded
+	 * @param suggestions The names of Commodities that may have been meant
+	 */
+	public TradeResult(int status, boolean buying, String name, int quantity,
+		int price, List<String> suggestions) {
+		this.status = status;
+		this.buying = buying;
+		this.name = name;
+		this.quantity = quantity;
+		this.price = price;
+		this.suggestions = suggestions;
+	}
+	
+	/**
+	 * Get what happened.  Compare with TradeResult.BOUGHT,
+	 * TradeResult.NOT_OFFERED etc.
+	 * @return The status of the trade
+	 */
+	public int getStatus() {
+		return this.status;
+	}
+	
+	/**
+	 * Indicates whether anything was bought or sold.
+	 * @return true if the trade happened, false otherwise
+	 */
+	public boolean isSuccess() {
+		return this.status == BOUGHT || this.status == SOLD;
+	}
+	
+	/**
+	 * Indicates whether this was a purchase or a sale.
+	 * @return true for a purchase, false for a sale
+	 */
+	public boolean isBuying() {
+		return this.buying;
+	}
+	
+	/**
+	 * Get the name of the Commodity: its own name if it exists, or the name
+	 * as it was requested if not.
+	 * @return The name of the Commodity
+	 */
+	public String getName() {
+		return this.name;
+	}
+	
+	/**
+	 * Get the quantity requested.
+	 * @return The quantity
+	 */
+	public int getQuantity() {
+		return this.quantity;
+	}
+	
+	/**
+	 * Get the price of each unit traded.
+	 * @return The unit price, or -1 if nothing was traded
+	 */
+	public int getPrice() {
+		return this.price;
+	}
+	
+	/**
+	 * Get the names of the Commodities that start with the requested name,
+	 * when there are several and so none could be chosen.
+	 * @return The suggested names, which may be empty
+	 */
+	public List<String> getSuggestions() {
+		return this.suggestions;
+	}
+
+}
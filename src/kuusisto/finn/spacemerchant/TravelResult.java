@@ -0,0 +1,132 @@
+package kuusisto.finn.spacemerchant;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The TravelResult class represents the outcome of a request to travel to a
+ * Location (<tt>Player.travel</tt>), including any Mission completed on
+ * arrival.  It holds no text; use a TextRenderer to describe it to a user.
+ * 
+ * @author Finn Kuusisto
+ */
+public class TravelResult {
+	
+	/**
+	 * Value of a successful trip
+	 */
+	public static final int TRAVELED = 1;
+	/**
+	 * Value of a trip to a Location that doesn't exist
+	 */
+	public static final int UNKNOWN_LOCATION = 2;
+	/**
+	 * Value of a trip that needs more fuel than is on board
+	 */
+	public static final int NOT_ENOUGH_FUEL = 3;
+	
+	private final int status;
+	private final String name;
+	private final Location destination;
+	private final int distance;
+	private final MissionCompleted missionCompleted;
+	private final List<String> suggestions;
+	
+	/**
+	 * Constructs a new TravelResult.
+	 * @param status What happened (TRAVELED, UNKNOWN_LOCATION or
+	 * NOT_ENOUGH_FUEL)
+	 * @param name The name of the destination as it was requested
+	 * @param destination The destination, or null if it doesn't exist
+	 * @param distance The distance to the destination, or -1 if it doesn't
+	 * exist
+	 * @param missionCompleted The Mission completed on arrival, or null
+	 */
+	public TravelResult(int status, String name, Location destination,
+		int distance, MissionCompleted missionCompleted) {
+		this(status, name, destination, distance, missionCompleted,
+			Collections.<String>emptyList());
+	}
+	
+	/**
+	 * Constructs a new TravelResult that suggests destinations.
+	 * @param status What happened (TRAVELED, UNKNOWN_LOCATION or
+	 * NOT_ENOUGH_FUEL)
+	 * @param name The name of the destination as it was requested
+	 * @param destination The destination, or null if it doesn't exist
+	 * @param distance The distance to the destination, or -1 if it doesn't
+	 * exist
+	 * @param missionCompleted The Mission completed on arrival, or null
+	 * @param suggestions The names of Locations that may have been meant
+	 */
+	public TravelResult(int status, String name, Location destination,
+		int distance, MissionCompleted missionCompleted,
+		List<String> suggestions) {
+		this.status = status;
+		this.name = name;
+		this.destination = destination;
+		this.distance = distance;
+		this.missionCompleted = missionCompleted;
+		this.suggestions = suggestions;
+	}
+	
+	/**
+	 * Get what happened.  Compare with TravelResult.TRAVELED,
+	 * TravelResult.UNKNOWN_LOCATION etc.
+	 * @return The status of the trip
+	 */
+	public int getStatus() {
+		return this.status;
+	}
+	
+	/**
+	 * Indicates whether the Player arrived at the destination.
+	 * @return true if the trip happened, false otherwise
+	 */
+	public boolean isSuccess() {
+		return this.status == TRAVELED;
+	}
+	
+	/**
+	 * Get the name of the destination: its own name if it exists, or the
+	 * name as it was requested if not.
+	 * @return The name of the destination
+	 */
+	public String getName() {
+		return this.name;
+	}
+	
+	/**
+	 * Get the destination.
+	 * @return The destination, or null if it doesn't exist
+	 */
+	public Location getDestination() {
+		return this.destination;
+	}
+	
+	/**
+	 * Get the distance to the destination, which is also the fuel used by a
+	 * successful trip.
+	 * @return The distance, or -1 if the destination doesn't exist
+	 */
+	public int getDistance() {
+		return this.distance;
+	}
+	
+	/**
+	 * Get the Mission completed on arrival.
+	 * @return The completed Mission, or null if none was completed
+	 */
+	public MissionCompleted getMissionCompleted() {
+		return this.missionCompleted;
+	}
+	
+	/**
+	 * Get the names of the Locations that start with the requested name, when
+	 * there are several and so none could be chosen.
+	 * @return The suggested names, which may be empty
+	 */
+	public List<String> getSuggestions() {
+		return this.suggestions;
+	}
+
+}
@@ -1,101 +1,238 @@
 package kuusisto.finn.spacemerchant;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 
 /**
  * The UserInterface class provides a command-line interface to the player for
- * use in a text-based game.
+ * use in a text-based game.  The static methods talk to the console; an
+ * instance talks to any pair of streams, such as those of a network
+ * connection, so that each player of a server can have their own.
  * 
  * @author Finn Kuusisto
  */
 public class UserInterface {
 	
-	private static final String TRAVEL = "travel";
-	private static final String BUY = "buy";
-	private static final String SELL = "sell";
-	private static final String LIST = "list";
+	/**
+	 * The longest line, in bytes, read as a command.  Longer lines are
+	 * invalid.
+	 */
+	public static final int MAX_LINE = 256;
+	
+	//the most chars encoded at once when printing
+	private static final int PRINT_CHUNK = 512;
 	private static final String QUIT = "quit";
-	private static final String[] INVAL = 
-		{"Huh?", "What?", "Pardon?", "Say again?", "I don't understand."};
-
-	private static Scanner scan = new Scanner(System.in);
+	private static final String PROMPT = "What would you like to do?\n>";
+	
+	private static UserInterface console = new UserInterface(System.in,
+		System.out, Charset.defaultCharset());
+	
+	private InputStream in;
+	private OutputStream out;
+	private CharsetDecoder decoder;
+	private CharsetEncoder encoder;
+	//input read ahead of the current line, from inStart to inEnd
+	private byte[] input;
+	private int inStart;
+	private int inEnd;
+	private ByteBuffer line;
+	private CharBuffer chars;
+	//text waiting to be encoded and the bytes it's encoded into
+	private CharBuffer outChars;
+	private ByteBuffer outBytes;
+	private Action action;
+	//the number of invalid lines answered (see BatchRunner.invalidReply)
+	private int invalid;
+	private boolean ended;
 	
 	/**
-	 * Prints "What would you like to do?" and gets input from the player. The
-	 * input is then parsed and validated.  If the input is valid, an Action
-	 * object is created to represent what the player entered. Otherwise, the
-	 * player is re-prompted for input.
-	 * @return An Action object representing the player's input
+	 * Constructs a new UserInterface that reads commands from one stream and
+	 * writes prompts and other text to another.  Only a small buffer is kept
+	 * for each, which input is read and text encoded through, and a line and
+	 * an Action that are reused for every command, so one can be made for
+	 * every player of a server.
+	 * @param in The stream from which to read commands
+	 * @param out The stream to which to write text
+	 * @param charset The character set of both streams
+	 */
+	public UserInterface(InputStream in, OutputStream out, Charset charset) {
+		this.in = in;
+		this.out = out;
+		this.decoder = charset.newDecoder();
+		this.decoder.onMalformedInput(CodingErrorAction.REPLACE);
+		this.decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.encoder = charset.newEncoder();
+		this.encoder.onMalformedInput(CodingErrorAction.REPLACE);
+		this.encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.input = new byte[MAX_LINE];
+		this.line = ByteBuffer.allocate(MAX_LINE);
+		this.chars = CharBuffer.allocate(MAX_LINE);
+		this.outChars = CharBuffer.allocate(PRINT_CHUNK);
+		this.outBytes = ByteBuffer.allocate((int)Math.ceil(PRINT_CHUNK *
+			this.encoder.maxBytesPerChar()));
+		this.action = new Action();
+	}
+	
+	/**
+	 * Prints "What would you like to do?" to the console and gets input from
+	 * the player (<tt>nextAction</tt>).
+	 * @return An Action object representing the player's input, which is
+	 * only good until the next call
 	 */
 	public static Action getUserAction() {
-		Action retAction = null;
+		try {
+			return UserInterface.console.nextAction();
+		}
+		catch (IOException e) {
+			return new Action(Action.QUIT);
+		}
+	}
+	
+	/**
+	 * Prints "What would you like to do?" and gets input from the player. The
+	 * input is then parsed and validated (<tt>CommandParser.parse</tt>).  If
+	 * the input is valid, this UserInterface's Action is filled in to
+	 * represent what the player entered. Otherwise, the player is told so, with
+	 * each of a few replies in turn, and re-prompted for input.  The end of the
+	 * input is taken to mean quit (see <tt>isAtEnd</tt>).
+	 * @return An Action object representing the player's input, which is
+	 * reused and only good until the next call
+	 * @throws IOException If the input can't be read or the prompt can't be
+	 * written
+	 */
+	public Action nextAction() throws IOException {
+		boolean parsed = false;
 		do {
-			System.out.println("What would you like to do?");
-			System.out.print(">");
-			String input = scan.nextLine().trim();
+			this.print(PROMPT);
+			if (!this.readLine()) {
+				this.ended = true;
+				CommandParser.parse(QUIT, this.action);
+				return this.action;
+			}
+			parsed = CommandParser.parse(this.chars, this.action);
 			
-			//grab the action
-			String action = null;
-			int firstSpace = input.indexOf(' ');
-			int secondSpace = -1;
-			if (firstSpace == -1) {
-				action = input;
+			//did we successfully make an action?
+			if (!parsed) {
+				//no we didn't
+				this.print(BatchRunner.invalidReply(this.invalid++));
 			}
-			else {
-				action = input.substring(0, firstSpace);
-				//get the second space for later
-				secondSpace = input.indexOf(' ', firstSpace + 1);
+		
+		} while (!parsed);
+		return this.action;
+	}
+	
+	/**
+	 * Indicates whether the input has ended, in which case the last Action
+	 * returned was a quit that the player didn't enter.  A server can tell
+	 * from this that a connection was lost rather than quit.
+	 * @return true if the end of the input has been read, false otherwise
+	 */
+	public boolean isAtEnd() {
+		return this.ended;
+	}
+	
+	/**
+	 * Writes text to the player straight away.  The text is encoded a chunk
+	 * at a time into the same buffer for every call.
+	 * @param text The text to write
+	 * @throws IOException If the text can't be written
+	 */
+	public void print(CharSequence text) throws IOException {
+		CharBuffer chars = this.outChars;
+		ByteBuffer bytes = this.outBytes;
+		this.encoder.reset();
+		int next = 0;
+		int length = text.length();
+		boolean done = false;
+		while (!done) {
+			while (next < length && chars.hasRemaining()) {
+				chars.put(text.charAt(next++));
 			}
-			//check the action [name] pair
-			if (action.equalsIgnoreCase(UserInterface.TRAVEL) && 
-				firstSpace != -1) {
-				retAction = new Action(Action.TRAVEL, 
-						input.substring(firstSpace + 1));
+			chars.flip();
+			if (next < length) {
+				this.encoder.encode(chars, bytes, false);
 			}
-			else if (action.equalsIgnoreCase(UserInterface.BUY) && 
-					secondSpace != -1) {
-				String potentialQuant = input.substring(firstSpace + 1,
-						secondSpace);
-				String potentialComm = input.substring(secondSpace + 1);
-				if (UserInterface.canParseInt(potentialQuant)) {
-					retAction = new Action(Action.BUY,
-							Integer.parseInt(potentialQuant), potentialComm);
-				}
+			else {
+				this.encoder.encode(chars, bytes, true);
+				this.encoder.flush(bytes);
+				done = true;
 			}
-			else if (action.equalsIgnoreCase(UserInterface.SELL) && 
-					secondSpace != -1) {
-				String potentialQuant = input.substring(firstSpace + 1,
-						secondSpace);
-				String potentialComm = input.substring(secondSpace + 1);
-				if (UserInterface.canParseInt(potentialQuant)) {
-					retAction = new Action(Action.SELL,
-							Integer.parseInt(potentialQuant), potentialComm);
+			chars.compact();
+			this.out.write(bytes.array(), 0, bytes.position());
+			bytes.clear();
+		}
+		this.out.flush();
+	}
+	
+	/**
+	 * Reads a line of input, without its line ending, into <tt>chars</tt>.  A
+	 * line longer than MAX_LINE is read to its end but left empty (invalid).
+	 * @return true if a line was read, false at the end of the input
+	 */
+	private boolean readLine() throws IOException {
+		byte[] bytes = this.line.array();
+		int length = 0;
+		boolean read = false;
+		boolean tooLong = false;
+		boolean ended = false;
+		while (!ended) {
+			if (this.inStart == this.inEnd) {
+				int count = this.in.read(this.input);
+				if (count == -1) {
+					if (!read) { return false; }
+					break;
 				}
+				this.inStart = 0;
+				this.inEnd = count;
 			}
-			else if (action.equalsIgnoreCase(UserInterface.LIST) &&
-					firstSpace != -1) {
-				retAction = new Action(Action.LIST,
-						input.substring(firstSpace + 1));
+			int end = this.inStart;
+			while (end < this.inEnd && this.input[end] != '\n') {
+				end++;
 			}
-			else if (action.equalsIgnoreCase(QUIT) && firstSpace == -1) {
-				retAction = new Action(Action.QUIT);
+			int count = end - this.inStart;
+			if (length + count > MAX_LINE) {
+				tooLong = true;
 			}
-			
-			//did we successfully make an action?
-			if (retAction == null) {
-				//no we didn't
-				int msgInd = (int)(Math.random() * 10) % INVAL.length;
-				System.out.println(INVAL[msgInd]);
-				System.out.println();
+			else {
+				System.arraycopy(this.input, this.inStart, bytes, length,
+					count);
+				length += count;
 			}
-			
-		} while (retAction == null);
-		return retAction;
+			read = true;
+			ended = end < this.inEnd;
+			this.inStart = ended ? end + 1 : end;
+		}
+		if (tooLong) { length = 0; }
+		if (length > 0 && bytes[length - 1] == '\r') {
+			length--;
+		}
+		this.line.clear();
+		this.line.limit(length);
+		this.chars.clear();
+		this.decoder.reset();
+		this.decoder.decode(this.line, this.chars, true);
+		this.decoder.flush(this.chars);
+		this.chars.flip();
+		return true;
 	}
 	
-	private static boolean canParseInt(String s) {
-		try { Integer.parseInt(s); }
-		catch (NumberFormatException e) { return false; }
-		return true;
+	/**
+	 * Parses a line of input into a new Action.  The line may be a command in
+	 * any of the forms listed by "list commands", with the command word in any
+	 * case (see <tt>CommandParser</tt>).
+	 * @param line The line of input to parse
+	 * @return An Action object representing the input, or null if the input
+	 * isn't a valid command
+	 */
+	public static Action parseAction(String line) {
+		Action action = new Action();
+		return CommandParser.parse(line, action) ? action : null;
 	}
 	
 }
@@ -1,45 +1,184 @@
 package kuusisto.finn.spacemerchant;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.util.Scanner;
 
 /**
- * The World class loads and stores the entire game world.
+ * The World class represents a single game session in a game world.  All of
+ * the parts of the world that never change are kept in a shared
+ * WorldTemplate; a World only stores what changes as the game is played: the
+ * Player (and their Ship), the current prices at the Player's Location, which
+ * Missions have been completed and its own RandomSource.  Prices are only
+ * drawn when they are first looked at, from a hash of a seed taken from the
+ * RandomSource, the Location, the Commodity and the number of arrivals so
+ * far, so the same seed and the same moves always give the same prices.  Any
+ * number of Worlds may share one WorldTemplate, but each World should only be
+ * used by one thread at a time.
+ * <br>
+ * A World made from a TemplateHolder moves to the holder's current
+ * WorldTemplate whenever the Player travels, so the game world can be
+ * reloaded while it is being played (see <tt>migrate</tt>).
  * 
  * @author Finn Kuusisto
  */
 public class World {
 	
-	private static Random rand = new Random(42);
-	private static Map<String,Commodity> commodities = 
-		new HashMap<String,Commodity>();
-	private static Map<String,Location> locations =
-		new HashMap<String,Location>();
-	private static Map<String,Pair> locationCoordinates =
-		new HashMap<String,Pair>();
-	private static List<Mission> missions = new ArrayList<Mission>();
-	private static Player player;
-
+	private WorldTemplate template;
+	private TemplateHolder holder;
+	private RandomSource random;
+	private long priceSeed;
+	private Player player;
+	private BitSet completeMissions;
+	private Location priceLocation;
+	private int priceEpoch;
+	private int[] prices;
+	private int[] priceEpochs;
+	
+	/**
+	 * Constructs a new game session in a game world.  The Player is placed at
+	 * the starting Location given by the WorldTemplate and no Missions are
+	 * complete.
+	 * @param template The game world in which to play
+	 * @param seed The seed for this World's random number generator
+	 */
+	public World(WorldTemplate template, long seed) {
+		this(template, new SplitMixRandom(seed));
+	}
+	
+	/**
+	 * Constructs a new game session in a game world that draws its random
+	 * numbers from the given RandomSource, which it must not share.
+	 * @param template The game world in which to play
+	 * @param random The random number generator of this World
+	 */
+	public World(WorldTemplate template, RandomSource random) {
+		this(template, random, random.nextLong());
+	}
+	
+	/**
+	 * Constructs a new game session in the current version of a game world,
+	 * which moves to newer versions as they are published.
+	 * @param holder The holder of the game world in which to play
+	 * @param random The random number generator of this World
+	 */
+	public World(TemplateHolder holder, RandomSource random) {
+		this(holder.get(), random);
+		this.holder = holder;
+	}
+	
+	/**
+	 * Constructs a new game session with a given seed for its prices, such as
+	 * one being restored from a SessionSnapshot.
+	 * @param template The game world in which to play
+	 * @param random The random number generator of this World
+	 * @param priceSeed The seed from which prices are drawn
+	 */
+	World(WorldTemplate template, RandomSource random, long priceSeed) {
+		this.template = template;
+		this.random = random;
+		this.priceSeed = priceSeed;
+		this.prices = new int[template.getCommodityCount()];
+		this.priceEpochs = new int[template.getCommodityCount()];
+		this.completeMissions = new BitSet();
+		this.player = new Player(this, template.getStartLocation(),
+			template.getStartMoney(), template.getStartCargoCapacity(),
+			template.getStartFuelCapacity());
+	}
+	
+	/**
+	 * Lets a session made from a WorldTemplate, such as one restored from a
+	 * SessionSnapshot, move to the versions of its game world published by a
+	 * TemplateHolder from now on.
+	 * @param holder The holder of the game world in which to play
+	 */
+	void setHolder(TemplateHolder holder) {
+		this.holder = holder;
+	}
+	
+	/**
+	 * Get the game world in which this session is played.
+	 * @return The WorldTemplate of this World
+	 */
+	public WorldTemplate getTemplate() {
+		return this.template;
+	}
+	
+	/**
+	 * Moves this session to the current version of its game world, if it
+	 * was made from a TemplateHolder and a newer version has been published
+	 * since.  This is done by every travel once the Player has arrived, so a
+	 * travel that fails leaves the session as it is.  Everything is matched
+	 * up by name:
+	 * <ul>
+	 * <li>the Player stays at the Location of the same name, or goes back to
+	 * the starting Location if there is none</li>
+	 * <li>cargo is kept for each Commodity of the same name, and cargo of
+	 * Commodities that are gone is lost</li>
+	 * <li>each Mission with the title of a completed one stays complete, and
+	 * the Player's Mission becomes the first incomplete one</li>
+	 * <li>money, fuel and the Ship's capacities are kept as they are</li>
+	 * </ul>
+	 * No prices are drawn here; the travel draws them at the Location it
+	 * arrives at, as it always does, so a migration never draws prices
+	 * anew where the Player already is.
+	 * @return true if the session moved, false if it was already in the
+	 * current version
+	 */
+	public boolean migrate() {
+		if (this.holder == null) { return false; }
+		WorldTemplate next = this.holder.get();
+		if (next == this.template) { return false; }
+		//titles of completed Missions, with how many have each title
+		Map<String,Integer> completed = new HashMap<String,Integer>();
+		for (Mission m : this.template.getMissions()) {
+			if (this.isComplete(m)) {
+				Integer count = completed.get(m.getTitle());
+				completed.put(m.getTitle(), (count == null) ? 1 : count + 1);
+			}
+		}
+		WorldTemplate previous = this.template;
+		this.template = next;
+		this.completeMissions.clear();
+		for (Mission m : next.getMissions()) {
+			Integer count = completed.get(m.getTitle());
+			if (count != null && count > 0) {
+				this.setComplete(m, true);
+				completed.put(m.getTitle(), count - 1);
+			}
+		}
+		this.prices = new int[next.getCommodityCount()];
+		this.priceEpochs = new int[next.getCommodityCount()];
+		this.player.migrate(previous, next);
+		return true;
+	}
+	
+	/**
+	 * Get the random number generator of this session.  Split it to give
+	 * random numbers to another thread.
+	 * @return The RandomSource of this World
+	 */
+	public RandomSource getRandom() {
+		return this.random;
+	}
 	
 	/**
 	 * Get the Player in the game environment.
 	 * @return The Player
 	 */
-	public static Player getPlayer() {
-		return World.player;
+	public Player getPlayer() {
+		return this.player;
 	}
 	
 	/**
-	 * Get a list of the Locations in the game environment.
-	 * @return The Locations
+	 * Get a list of the Locations in the game environment.  Each Location's id
+	 * is its index in this list.
+	 * @return An unmodifiable list of the Locations
 	 */
-	public static List<Location> getLocations() {
-		return new ArrayList<Location>(World.locations.values());
+	public List<Location> getLocations() {
+		return this.template.getLocations();
 	}
 	
 	/**
@@ -47,16 +186,31 @@ public class World {
 	 * @param name The name of the desired Location
 	 * @return The Location requested by name
 	 */
-	public static Location getLocation(String name) {
-		return World.locations.get(name);
+	public Location getLocation(String name) {
+		return this.template.getLocation(name);
 	}
 	
 	/**
-	 * Get a list of the Commodities in the game environment.
-	 * @return The Commodities
+	 * Find a Location as a player typed its name: in any case, or by the
+	 * start of its name if no other Location's name starts the same way (see
+	 * <tt>NameIndex.find</tt>).
+	 * @param text The characters holding the name
+	 * @param start The index of the first character of the name
+	 * @param end The index after the last character of the name
+	 * @return The Location, or null if there is no one such Location
 	 */
-	public static List<Commodity> getCommodities() {
-		return new ArrayList<Commodity>(World.commodities.values());
+	public Location findLocation(CharSequence text, int start, int end) {
+		int id = this.template.getLocationNames().find(text, start, end);
+		return (id == -1) ? null : this.template.getLocation(id);
+	}
+	
+	/**
+	 * Get a list of the Commodities in the game environment.  Each
+	 * Commodity's ordinal is its index in this list.
+	 * @return An unmodifiable list of the Commodities
+	 */
+	public List<Commodity> getCommodities() {
+		return this.template.getCommodities();
 	}
 	
 	/**
@@ -64,8 +218,23 @@ public class World {
 	 * @param name The name of the desired Commodity
 	 * @return The Commodity requested by name
 	 */
-	public static Commodity getCommodity(String name) {
-		return World.commodities.get(name);
+	public Commodity getCommodity(String name) {
+		return this.template.getCommodity(name);
+	}
+	
+	/**
+	 * Find a Commodity as a player typed its name: in any case, or by the
+	 * start of its name if no other Commodity's name starts the same way (see
+	 * <tt>NameIndex.find</tt>).
+	 * @param text The characters holding the name
+	 * @param start The index of the first character of the name
+	 * @param end The index after the last character of the name
+	 * @return The Commodity, or null if there is no one such Commodity
+	 */
+	public Commodity findCommodity(CharSequence text, int start, int end) {
+		int ordinal = this.template.getCommodityNames().find(text, start,
+			end);
+		return (ordinal == -1) ? null : this.template.getCommodity(ordinal);
 	}
 	
 	/**
@@ -74,209 +243,176 @@ public class World {
 	 * @param locName2 The name of the second location
 	 * @return The distance between the two named locations
 	 */
-	public static int getDistance(String locName1, String locName2) {
-		if (!World.locationCoordinates.containsKey(locName1) ||
-			!World.locationCoordinates.containsKey(locName2)) {
-			return -1;
-		}
-		Pair p1 = World.locationCoordinates.get(locName1);
-		Pair p2 = World.locationCoordinates.get(locName2);
-		//L1 norm for whole numbers
-		return Math.abs(p1.getVal1() - p2.getVal1()) + 
-			Math.abs(p1.getVal2() - p2.getVal2());
+	public int getDistance(String locName1, String locName2) {
+		return this.template.getDistance(locName1, locName2);
+	}
+	
+	/**
+	 * Gets the distance between two Locations by their ids.
+	 * @param from The id of the first location
+	 * @param to The id of the second location
+	 * @return The distance between the two locations
+	 */
+	public int getDistance(int from, int to) {
+		return this.template.getDistance(from, to);
 	}
 	
 	/**
 	 * Get the next incomplete Mission.
 	 * @return The next Mission in the game that is incomplete
 	 */
-	public static Mission getNextMission() {
-		for (Mission m : World.missions) {
-			if (!m.isComplete()) { return m; }
-		}
-		return null;
+	public Mission getNextMission() {
+		List<Mission> missions = this.template.getMissions();
+		int next = this.completeMissions.nextClearBit(0);
+		return next < missions.size() ? missions.get(next) : null;
+	}
+	
+	/**
+	 * Indicates whether a Mission has been completed in this game.
+	 * @param mission The Mission to check
+	 * @return true if the Mission has been completed, false otherwise
+	 */
+	public boolean isComplete(Mission mission) {
+		return this.completeMissions.get(mission.getId());
+	}
+	
+	/**
+	 * Marks a Mission as complete or incomplete in this game.
+	 * @param mission The Mission to mark
+	 * @param complete The value to mark the Mission
+	 */
+	public void setComplete(Mission mission, boolean complete) {
+		this.completeMissions.set(mission.getId(), complete);
 	}
 	
 	/**
 	 * Determines if all Missions in the game are complete.
 	 * @return true if all Missions are complete, false otherwise
 	 */
-	public static boolean allMissionsComplete() {
-		return World.getNextMission() == null;
+	public boolean allMissionsComplete() {
+		return this.getNextMission() == null;
 	}
 	
 	/**
-	 * Get a random integer with specified lowest and highest values.
-	 * The smallest value this method will return is <tt>low</tt> and
-	 * the largest value this method will return is <tt>high</tt>.
-	 * <br>
-	 * For example:<br>
-	 * <tt>getRandomInt(1, 5)</tt> will return one of 1, 2, 3, 4 or 5.
-	 * @param low The smallest integer desired
-	 * @param high The largest integer desired
-	 * @return A random integer from <tt>low</tt> up to and including
-	 * <tt>high</tt>.
+	 * Generates new prices for all of the Commodities offered by a Location.
+	 * No prices are actually drawn here: this starts a new price epoch, and
+	 * each price of the epoch is drawn in its price range the first time it
+	 * is asked for with <tt>getPrice</tt>.  Only the prices of the most
+	 * recently drawn Location are kept.
+	 * @param location The Location for which to draw prices
 	 */
-	public static int getRandomInt(int low, int high) {
-		int range = (high - low) + 1;
-		return low + rand.nextInt(range);
+	public void drawCommodityPrices(Location location) {
+		this.priceLocation = location;
+		this.priceEpoch++;
 	}
 	
-	//strings for file parsing
-	private static final String COMMODITIES = "COMMODITIES:";
-	private static final String LOCATIONS = "LOCATIONS:";
-	private static final String PRICES = "PRICES:";
-	private static final String MISSIONS = "MISSIONS:";
-	private static final String PLAYER = "PLAYER:";
-	private static final String SEP = "#";
-	private static final String CMT = "//";
-	private static final int COMMODITIES_SEC = 0;
-	private static final int LOCATIONS_SEC = 1;
-	private static final int PRICES_SEC = 2;
-	private static final int MISSIONS_SEC = 3;
-	private static final int PLAYER_SEC = 4;
-	
 	/**
-	 * Load a world file.  This loads a game and must be called once before the
-	 * game can begin.
-	 * @param filename The name of the world file to load
+	 * Get the seed from which this World's prices are drawn.
+	 * @return The price seed
 	 */
-	public static void loadWorld(String filename) {
-		//first see if we can even open the file
-		Scanner scan = null;
-		try {
-			scan = new Scanner(new File(filename));
-		} catch (FileNotFoundException e) {
-			System.out.println("Failed to open world file: " + filename);
-			System.exit(1);
-		}
-		
-		//reset everything
-		World.commodities.clear();
-		World.locations.clear();
-		World.locationCoordinates.clear();
-		World.missions.clear();
-		World.player = null;
-		
-		//start parsing
-		int lineNum = 0;
-		int currSec = -1;
-		while (scan.hasNextLine()) {
-			//grab a line
-			String line = scan.nextLine().trim();
-			lineNum++;
-			//skip comments and blank lines
-			if (line.startsWith(CMT) || line.length() == 0) { continue; }
-			
-			//check if we are starting a new section
-			if (line.startsWith(World.COMMODITIES)) {
-				currSec = World.COMMODITIES_SEC; continue;
-			}
-			else if (line.startsWith(World.LOCATIONS)) {
-				currSec = World.LOCATIONS_SEC; continue;
-			}
-			else if (line.startsWith(World.PRICES)) {
-				currSec = World.PRICES_SEC; continue;
-			}
-			else if (line.startsWith(World.MISSIONS)) {
-				currSec = World.MISSIONS_SEC; continue;
-			}
-			else if (line.startsWith(PLAYER)) {
-				currSec = World.PLAYER_SEC; continue;
-			}
-			
-			//parse this line as part of the current section
-			String[] parts = line.split(SEP);
-			try {
-				switch (currSec) {
-					case World.COMMODITIES_SEC:
-						World.handleCommodity(parts); break;
-					case World.LOCATIONS_SEC:
-						World.handleLocation(parts); break;
-					case World.PRICES_SEC:
-						World.handlePrice(parts); break;
-					case World.MISSIONS_SEC:
-						World.handleMission(parts); break;
-					case World.PLAYER_SEC:
-						World.handlePlayer(parts); break;
-					default:
-						throw new IllegalArgumentException();
-				}
-			}
-			catch (Exception e) {
-				System.out.println("Failed parsing " + filename + "!" +
-					"[line " + lineNum + "]");
-				System.exit(1);
-			}
-		}
+	long getPriceSeed() {
+		return this.priceSeed;
 	}
 	
-	private static void handleLocation(String[] parts) {
-		if (parts.length != 3) {
-			throw new IllegalArgumentException();
-		}
-		Location l = new Location(parts[0],parts[1]);
-		Pair p = World.handlePair(parts[2]);
-		World.locations.put(l.getName(),l);
-		World.locationCoordinates.put(l.getName(), p);
+	/**
+	 * Get the number of times prices have been drawn in this World, which
+	 * together with the price seed gives the current prices.
+	 * @return The current price epoch
+	 */
+	int getPriceEpoch() {
+		return this.priceEpoch;
 	}
 	
-	private static void handleCommodity(String[] parts) {
-		if (parts.length != 2) {
-			throw new IllegalArgumentException();
-		}
-		Commodity c = new Commodity(parts[0],parts[1]);
-		World.commodities.put(c.getName(), c);
+	/**
+	 * Sets the Location and epoch of the current prices, such as those of a
+	 * restored SessionSnapshot.  The prices themselves are drawn again as
+	 * they are asked for, and come out the same as when they were saved.
+	 * @param location The Location whose prices are current
+	 * @param epoch The price epoch
+	 */
+	void setPriceEpoch(Location location, int epoch) {
+		this.priceLocation = location;
+		this.priceEpoch = epoch;
+		Arrays.fill(this.priceEpochs, epoch - 1);
 	}
 	
-	private static void handlePrice(String[] parts) {
-		if ((parts.length % 2) != 1 || parts.length < 1) {
-			throw new IllegalArgumentException();
+	/**
+	 * Gets the current price of a particular Commodity at a Location.
+	 * @param location The Location at which to find the price
+	 * @param commodity The Commodity to find a current price
+	 * @return The current price of the desired Commodity, or -1 if the
+	 * Location does not offer the Commodity or has no prices drawn
+	 */
+	public int getPrice(Location location, Commodity commodity) {
+		if (location != this.priceLocation ||
+			!location.hasCommodity(commodity)) {
+			return -1;
 		}
-		//grab the location for which we're adding prices
-		Location l = World.locations.get(parts[0]);
-		for (int i = 1; i < parts.length; i+= 2) {
-			Commodity c = World.commodities.get(parts[i]);
-			Pair p = World.handlePair(parts[i+1]);
-			l.addCommodity(c, p);
+		int ordinal = commodity.getOrdinal();
+		if (this.priceEpochs[ordinal] != this.priceEpoch) {
+			this.prices[ordinal] = this.drawPrice(location, commodity);
+			this.priceEpochs[ordinal] = this.priceEpoch;
 		}
+		return this.prices[ordinal];
 	}
 	
-	private static void handlePlayer(String[] parts) {
-		if (parts.length != 4) {
-			throw new IllegalArgumentException();
-		}
-		int money = Integer.parseInt(parts[1]);
-		int cargoCap = Integer.parseInt(parts[2]);
-		int fuelCap = Integer.parseInt(parts[3]);
-		World.player = new Player(World.locations.get(parts[0]), money,
-			cargoCap, fuelCap);
+	private int drawPrice(Location location, Commodity commodity) {
+		//a counter-based draw, so no generator state is used up
+		long gamma = SplitMixRandom.GOLDEN_GAMMA;
+		long h = this.priceSeed + location.getId() * gamma;
+		h = SplitMixRandom.mix64(SplitMixRandom.mix64(h) +
+			(commodity.getOrdinal() + 1) * gamma);
+		h = SplitMixRandom.mix64(h + this.priceEpoch * gamma);
+		int low = location.getMinPrice(commodity);
+		long range = (long)location.getMaxPrice(commodity) - low + 1;
+		//scale the top 32 bits into the range rather than taking a modulus
+		return (int)(low + (((h >>> 32) * range) >>> 32));
 	}
 	
-	private static void handleMission(String[] parts) {
-		if (parts.length != 6) {
-			throw new IllegalArgumentException();
-		}
-		Location location = World.locations.get(parts[2]);
-		Commodity commodity = World.commodities.get(parts[3]);
-		int quantity = Integer.parseInt(parts[4]);
-		int reward = Integer.parseInt(parts[5]);
-		World.missions.add(new Mission(parts[0], parts[1], location, commodity,
-			quantity, reward));
+	/**
+	 * Get a random integer with specified lowest and highest values.
+	 * The smallest value this method will return is <tt>low</tt> and
+	 * the largest value this method will return is <tt>high</tt>.
+	 * <br>
+	 * For example:<br>
+	 * <tt>getRandomInt(1, 5)</tt> will return one of 1, 2, 3, 4 or 5.
+	 * @param low The smallest integer desired
+	 * @param high The largest integer desired
+	 * @return A random integer from <tt>low</tt> up to and including
+	 * <tt>high</tt>.
+	 */
+	public int getRandomInt(int low, int high) {
+		return this.random.nextInt(low, high);
 	}
 	
-	private static Pair handlePair(String pair) {
-		String[] vals = pair.split(",");
-		if (vals.length != 2) {
-			throw new IllegalArgumentException();
-		}
-		try {
-			return new Pair(Integer.parseInt(vals[0]),
-				Integer.parseInt(vals[1]));
-		}
-		catch (NumberFormatException e) {
-			throw new IllegalArgumentException();
-		}
+	/**
+	 * Load a world file into a new World.  This loads a game and must be
+	 * called once for each game session before the game can begin.  To play
+	 * many games in the same world, load a WorldTemplate once with
+	 * <tt>WorldTemplate.load</tt> and construct a World from it for each game
+	 * instead.
+	 * @param filename The name of the world file to load
+	 * @return The newly loaded World
+	 * @throws IOException If the file can't be opened or read
+	 * @throws WorldParseException If the file isn't a valid world
+	 */
+	public static World loadWorld(String filename) throws IOException,
+		WorldParseException {
+		return World.loadWorld(filename, 42);
+	}
+	
+	/**
+	 * Load a world file into a new World whose random number generator is
+	 * seeded with the given seed.
+	 * @param filename The name of the world file to load
+	 * @param seed The seed for the new World's random number generator
+	 * @return The newly loaded World
+	 * @throws IOException If the file can't be opened or read
+	 * @throws WorldParseException If the file isn't a valid world
+	 */
+	public static World loadWorld(String filename, long seed)
+		throws IOException, WorldParseException {
+		return new World(WorldTemplate.load(filename), seed);
 	}
 	
 }
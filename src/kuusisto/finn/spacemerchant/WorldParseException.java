@@ -0,0 +1,58 @@
+package kuusisto.finn.spacemerchant;
+
+/**
+ * A WorldParseException is thrown when a world file can't be parsed.  It
+ * records the line and column at which the problem was found so that the
+ * world file can be fixed.
+ * 
+ * @author Finn Kuusisto
+ */
+public class WorldParseException extends Exception {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private String reason;
+	private int line;
+	private int column;
+	
+	/**
+	 * Constructs a new WorldParseException.
+	 * @param message A description of the problem
+	 * @param line The line on which the problem was found (starting at 1)
+	 * @param column The column at which the problem was found (starting at 1)
+	 */
+	public WorldParseException(String message, int line, int column) {
+		super("[line " + line + ", column " + column + "] " + message);
+		this.reason = message;
+		this.line = line;
+		this.column = column;
+	}
+	
+	/**
+	 * Gets the line on which the problem was found.
+	 * @return The line number, starting at 1
+	 */
+	public int getLine() {
+		return this.line;
+	}
+	
+	/**
+	 * Gets the column at which the problem was found.
+	 * @return The column number, starting at 1
+	 */
+	public int getColumn() {
+		return this.column;
+	}
+	
+	/**
+	 * Creates a copy of this exception moved down by a number of lines, for
+	 * problems found while parsing part of a file on its own.
+	 * @param lines The number of lines to add to the line number
+	 * @return A new WorldParseException with the same problem and column
+	 */
+	WorldParseException shiftLines(int lines) {
+		return new WorldParseException(this.reason, this.line + lines,
+			this.column);
+	}
+	
+}
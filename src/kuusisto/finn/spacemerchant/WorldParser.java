@@ -0,0 +1,325 @@
+package kuusisto.finn.spacemerchant;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The WorldParser class splits a world file into lines and the lines into
+ * fields in a single pass.  It reads either from a Reader, through its own
+ * buffer, or straight from the UTF-8 bytes of a ByteBuffer (such as a part of
+ * a memory-mapped file).  Either way it keeps only the current line and never
+ * uses regular expressions.  Numbers are parsed
+ * straight from the line, so the only Strings made are for the fields that
+ * are asked for as Strings.  Every problem it finds is reported as a
+ * WorldParseException with the line and column of the problem.
+ * 
+ * @author Finn Kuusisto
+ */
+class WorldParser {
+	
+	/**
+	 * The character separating the fields of a line.
+	 */
+	public static final char SEP = '#';
+	/**
+	 * The character separating the two values of a pair.
+	 */
+	public static final char PAIR_SEP = ',';
+	
+	private Reader in;
+	private ByteBuffer bytes;
+	private char[] buf;
+	private int bufPos;
+	private int bufLen;
+	private char[] line;
+	private int lineLen;
+	private int lineNum;
+	private int start;
+	private int end;
+	private int pos;
+	private int fieldStart;
+	private int pairVal1;
+	private int pairVal2;
+	
+	/**
+	 * Constructs a new WorldParser reading from a Reader.  The Reader doesn't
+	 * need to be buffered.
+	 * @param in The Reader from which to read the world
+	 */
+	public WorldParser(Reader in) {
+		this.in = in;
+		this.buf = new char[8192];
+		this.line = new char[256];
+	}
+	
+	/**
+	 * Constructs a new WorldParser reading UTF-8 text from the remaining bytes
+	 * of a ByteBuffer.  Line numbers start from <tt>firstLine</tt> so that a
+	 * part of a larger file can be parsed on its own.
+	 * @param bytes The bytes from which to read the world
+	 * @param firstLine The line number of the first line in the bytes
+	 */
+	public WorldParser(ByteBuffer bytes, int firstLine) {
+		this.bytes = bytes;
+		this.line = new char[256];
+		this.lineNum = firstLine - 1;
+	}
+	
+	/**
+	 * Moves to the next line, which is trimmed of leading and trailing
+	 * whitespace.
+	 * @return true if there was another line, false at the end of the input
+	 * @throws IOException If the input can't be read
+	 */
+	public boolean nextLine() throws IOException {
+		if (this.bytes != null) {
+			if (!this.nextByteLine()) { return false; }
+		}
+		else if (!this.nextCharLine()) {
+			return false;
+		}
+		this.lineNum++;
+		//trim the way String.trim does, which also takes care of '\r'
+		this.start = 0;
+		this.end = this.lineLen;
+		while (this.start < this.end && this.line[this.start] <= ' ') {
+			this.start++;
+		}
+		while (this.end > this.start && this.line[this.end - 1] <= ' ') {
+			this.end--;
+		}
+		this.pos = this.start;
+		this.fieldStart = this.start;
+		return true;
+	}
+	
+	private boolean nextCharLine() throws IOException {
+		this.lineLen = 0;
+		boolean any = false;
+		while (true) {
+			if (this.bufPos == this.bufLen) {
+				this.bufLen = this.in.read(this.buf, 0, this.buf.length);
+				this.bufPos = 0;
+				if (this.bufLen <= 0) {
+					this.bufLen = 0;
+					return any;
+				}
+			}
+			char c = this.buf[this.bufPos++];
+			any = true;
+			if (c == '\n') { return true; }
+			this.append(c);
+		}
+	}
+	
+	private boolean nextByteLine() {
+		if (!this.bytes.hasRemaining()) { return false; }
+		this.lineLen = 0;
+		int lineStart = this.bytes.position();
+		boolean ascii = true;
+		while (this.bytes.hasRemaining()) {
+			byte b = this.bytes.get();
+			if (b == '\n') { break; }
+			if (b < 0) { ascii = false; }
+			this.append((char)b);
+		}
+		if (!ascii) {
+			//only lines with multi-byte characters need real decoding
+			ByteBuffer raw = this.bytes.duplicate();
+			raw.position(lineStart);
+			raw.limit(lineStart + this.lineLen);
+			CharBuffer chars = StandardCharsets.UTF_8.decode(raw);
+			this.lineLen = 0;
+			while (chars.hasRemaining()) {
+				this.append(chars.get());
+			}
+		}
+		return true;
+	}
+	
+	private void append(char c) {
+		if (this.lineLen == this.line.length) {
+			char[] bigger = new char[this.line.length * 2];
+			System.arraycopy(this.line, 0, bigger, 0, this.lineLen);
+			this.line = bigger;
+		}
+		this.line[this.lineLen++] = c;
+	}
+	
+	/**
+	 * Gets the number of the current line.
+	 * @return The current line number, starting at 1
+	 */
+	public int getLineNumber() {
+		return this.lineNum;
+	}
+	
+	/**
+	 * Indicates whether the current line is empty once trimmed.
+	 * @return true if the current line is blank, false otherwise
+	 */
+	public boolean isBlank() {
+		return this.start == this.end;
+	}
+	
+	/**
+	 * Indicates whether the current line starts with some text.
+	 * @param prefix The text to look for
+	 * @return true if the trimmed line starts with the prefix
+	 */
+	public boolean startsWith(String prefix) {
+		int n = prefix.length();
+		if (this.end - this.start < n) { return false; }
+		for (int i = 0; i < n; i++) {
+			if (this.line[this.start + i] != prefix.charAt(i)) { return false; }
+		}
+		return true;
+	}
+	
+	/**
+	 * Indicates whether there are more fields on the current line.
+	 * @return true if there is another field, false otherwise
+	 */
+	public boolean hasMoreFields() {
+		return this.pos < this.end;
+	}
+	
+	/**
+	 * Reads the next field of the current line as a String.
+	 * @return The text up to the next separator or the end of the line
+	 * @throws WorldParseException If there are no more fields
+	 */
+	public String nextField() throws WorldParseException {
+		this.beginField();
+		int fieldEnd = this.pos;
+		while (fieldEnd < this.end && this.line[fieldEnd] != WorldParser.SEP) {
+			fieldEnd++;
+		}
+		String field = new String(this.line, this.pos, fieldEnd - this.pos);
+		this.pos = fieldEnd;
+		this.endField(WorldParser.SEP);
+		return field;
+	}
+	
+	/**
+	 * Reads the next field of the current line as a whole number.
+	 * @return The number in the field
+	 * @throws WorldParseException If there are no more fields or the field
+	 * isn't a whole number
+	 */
+	public int nextInt() throws WorldParseException {
+		this.beginField();
+		int value = this.parseInt();
+		this.endField(WorldParser.SEP);
+		return value;
+	}
+	
+	/**
+	 * Reads the next field of the current line as a pair of whole numbers
+	 * separated by a comma.  Rather than allocating a Pair, the values are
+	 * kept by the parser until the next pair is read (use
+	 * <tt>getPairVal1</tt> and <tt>getPairVal2</tt>).
+	 * @throws WorldParseException If there are no more fields or the field
+	 * isn't a pair of whole numbers
+	 */
+	public void nextPair() throws WorldParseException {
+		this.beginField();
+		this.pairVal1 = this.parseInt();
+		this.endField(WorldParser.PAIR_SEP);
+		this.pairVal2 = this.parseInt();
+		this.endField(WorldParser.SEP);
+	}
+	
+	/**
+	 * Gets the first value of the last pair read.
+	 * @return The first value of the last pair
+	 */
+	public int getPairVal1() {
+		return this.pairVal1;
+	}
+	
+	/**
+	 * Gets the second value of the last pair read.
+	 * @return The second value of the last pair
+	 */
+	public int getPairVal2() {
+		return this.pairVal2;
+	}
+	
+	/**
+	 * Checks that every field on the current line has been read.
+	 * @throws WorldParseException If there are fields left over
+	 */
+	public void endLine() throws WorldParseException {
+		if (this.pos < this.end) {
+			this.fieldStart = this.pos;
+			throw this.error("Unexpected extra field");
+		}
+	}
+	
+	/**
+	 * Creates an exception pointing at the start of the last field read.
+	 * @param message A description of the problem
+	 * @return A WorldParseException with the current line and column
+	 */
+	public WorldParseException error(String message) {
+		return new WorldParseException(message, this.lineNum,
+			this.fieldStart + 1);
+	}
+	
+	private void beginField() throws WorldParseException {
+		this.fieldStart = this.pos;
+		if (this.pos >= this.end) {
+			throw this.error("Missing field");
+		}
+	}
+	
+	private void endField(char separator) throws WorldParseException {
+		if (this.pos == this.end) { return; }
+		if (this.line[this.pos] != separator) {
+			throw new WorldParseException("Expected '" + separator + "'",
+				this.lineNum, this.pos + 1);
+		}
+		this.pos++;
+		//a separator must be followed by another field
+		if (this.pos == this.end) {
+			throw new WorldParseException("Missing field", this.lineNum,
+				this.pos + 1);
+		}
+	}
+	
+	private int parseInt() throws WorldParseException {
+		int i = this.pos;
+		boolean negative = false;
+		if (i < this.end && this.line[i] == '-') {
+			negative = true;
+			i++;
+		}
+		int digitsStart = i;
+		long value = 0;
+		while (i < this.end) {
+			char c = this.line[i];
+			if (c < '0' || c > '9') { break; }
+			value = value * 10 + (c - '0');
+			if (value > (long)Integer.MAX_VALUE + 1) {
+				throw new WorldParseException("Number out of range",
+					this.lineNum, this.pos + 1);
+			}
+			i++;
+		}
+		if (i == digitsStart) {
+			throw new WorldParseException("Expected a number", this.lineNum,
+				this.pos + 1);
+		}
+		if (negative) { value = -value; }
+		if (value > Integer.MAX_VALUE) {
+			throw new WorldParseException("Number out of range", this.lineNum,
+				this.pos + 1);
+		}
+		this.pos = i;
+		return (int)value;
+	}
+	
+}
@@ -0,0 +1,847 @@
+package kuusisto.finn.spacemerchant;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The WorldTemplate class loads and stores the parts of a game world that
+ * never change during a game: the Commodities, the Locations with their
+ * coordinates and price ranges, the Missions and the Player's starting
+ * values.  A WorldTemplate is immutable once loaded, so a single one can be
+ * shared by any number of game sessions (Worlds), on any number of threads.
+ * 
+ * @author Finn Kuusisto
+ */
+public class WorldTemplate {
+	
+	private CommodityRegistry commodities;
+	private Map<String,Location> locations;
+	private List<Location> locationList;
+	private int[] xCoords;
+	private int[] yCoords;
+	private int[] distances;
+	private List<Mission> missions;
+	private NameIndex locationNames;
+	private NameIndex commodityNames;
+	private SpatialIndex spatialIndex;
+	private MarketIndex marketIndex;
+	private Location startLocation;
+	private int startMoney;
+	private int startCargoCapacity;
+	private int startFuelCapacity;
+	//computed the first time it is asked for
+	private volatile byte[] contentHash;
+	
+	WorldTemplate() {
+		this.commodities = new CommodityRegistry();
+		this.locations = new HashMap<String,Location>();
+		this.locationList = new ArrayList<Location>();
+		this.xCoords = new int[16];
+		this.yCoords = new int[16];
+		this.missions = new ArrayList<Mission>();
+	}
+	
+	/**
+	 * Get a list of the Locations in the game world.  Each Location's id is
+	 * its index in this list.
+	 * @return An unmodifiable list of the Locations
+	 */
+	public List<Location> getLocations() {
+		return this.locationList;
+	}
+	
+	/**
+	 * Get the number of Locations in the game world.  Location ids run from 0
+	 * up to, but not including, this number.
+	 * @return The number of Locations
+	 */
+	public int getLocationCount() {
+		return this.locationList.size();
+	}
+	
+	/**
+	 * Get a Location in the game world by its id.
+	 * @param id The id of the desired Location
+	 * @return The Location with the given id
+	 */
+	public Location getLocation(int id) {
+		return this.locationList.get(id);
+	}
+	
+	/**
+	 * Get a Location in the game world by its name.
+	 * @param name The name of the desired Location
+	 * @return The Location requested by name
+	 */
+	public Location getLocation(String name) {
+		return this.locations.get(name);
+	}
+	
+	/**
+	 * Get the index of the names of the Locations in the game world, which
+	 * finds them in any case and by unique prefix.  Each name's index is the
+	 * Location's id.
+	 * @return The index of Location names
+	 */
+	public NameIndex getLocationNames() {
+		return this.locationNames;
+	}
+	
+	/**
+	 * Get a list of the Commodities in the game world.  Each Commodity's
+	 * ordinal is its index in this list.
+	 * @return An unmodifiable list of the Commodities
+	 */
+	public List<Commodity> getCommodities() {
+		return this.commodities.getCommodities();
+	}
+	
+	/**
+	 * Get the number of Commodities in the game world.  Commodity ordinals run
+	 * from 0 up to, but not including, this number.
+	 * @return The number of Commodities
+	 */
+	public int getCommodityCount() {
+		return this.commodities.size();
+	}
+	
+	/**
+	 * Get a Commodity in the game world by its ordinal.
+	 * @param ordinal The ordinal of the desired Commodity
+	 * @return The Commodity with the given ordinal
+	 */
+	public Commodity getCommodity(int ordinal) {
+		return this.commodities.get(ordinal);
+	}
+	
+	/**
+	 * Get a Commodity in the game world by its name.
+	 * @param name The name of the desired Commodity
+	 * @return The Commodity requested by name
+	 */
+	public Commodity getCommodity(String name) {
+		return this.commodities.get(name);
+	}
+	
+	/**
+	 * Get the index of the names of the Commodities in the game world, which
+	 * finds them in any case and by unique prefix.  Each name's index is the
+	 * Commodity's ordinal.
+	 * @return The index of Commodity names
+	 */
+	public NameIndex getCommodityNames() {
+		return this.commodityNames;
+	}
+	
+	/**
+	 * Gets the distance between two Locations.
+	 * @param locName1 The name of the first location
+	 * @param locName2 The name of the second location
+	 * @return The distance between the two named locations, or -1 if either
+	 * location does not exist
+	 */
+	public int getDistance(String locName1, String locName2) {
+		Location l1 = this.locations.get(locName1);
+		Location l2 = this.locations.get(locName2);
+		if (l1 == null || l2 == null) {
+			return -1;
+		}
+		return this.getDistance(l1.getId(), l2.getId());
+	}
+	
+	/**
+	 * Gets the distance between two Locations by their ids.  This neither
+	 * looks anything up by name nor allocates, so it is the one to use in
+	 * loops over many Locations.
+	 * @param from The id of the first location
+	 * @param to The id of the second location
+	 * @return The distance between the two locations
+	 */
+	public int getDistance(int from, int to) {
+		if (this.distances != null) {
+			return this.distances[from * this.locationList.size() + to];
+		}
+		return this.computeDistance(from, to);
+	}
+	
+	/**
+	 * Get the index of the Locations by their coordinates, which finds those
+	 * within a distance of a Location or nearest it.
+	 * @return The spatial index of the Locations
+	 */
+	public SpatialIndex getSpatialIndex() {
+		return this.spatialIndex;
+	}
+	
+	/**
+	 * Get the index of the Locations that trade each Commodity, which finds
+	 * the cheapest or dearest within a distance of a Location.
+	 * @return The market index of the Commodities
+	 */
+	public MarketIndex getMarketIndex() {
+		return this.marketIndex;
+	}
+	
+	/**
+	 * Get the x coordinate of a Location by its id.
+	 * @param id The id of the Location
+	 * @return The Location's x coordinate
+	 */
+	public int getX(int id) {
+		return this.xCoords[id];
+	}
+	
+	/**
+	 * Get the y coordinate of a Location by its id.
+	 * @param id The id of the Location
+	 * @return The Location's y coordinate
+	 */
+	public int getY(int id) {
+		return this.yCoords[id];
+	}
+	
+	private int computeDistance(int from, int to) {
+		//L1 norm for whole numbers
+		return Math.abs(this.xCoords[from] - this.xCoords[to]) +
+			Math.abs(this.yCoords[from] - this.yCoords[to]);
+	}
+	
+	/**
+	 * Get the Missions of the game world in the order they are to be
+	 * completed.  Each Mission's id is its index in this list.
+	 * @return An unmodifiable list of the Missions
+	 */
+	public List<Mission> getMissions() {
+		return this.missions;
+	}
+	
+	/**
+	 * Get the Location at which the Player starts.
+	 * @return The Player's starting Location
+	 */
+	public Location getStartLocation() {
+		return this.startLocation;
+	}
+	
+	/**
+	 * Get the amount of money with which the Player starts.
+	 * @return The Player's starting money
+	 */
+	public int getStartMoney() {
+		return this.startMoney;
+	}
+	
+	/**
+	 * Get the cargo capacity of the Player's starting Ship.
+	 * @return The starting Ship's cargo capacity
+	 */
+	public int getStartCargoCapacity() {
+		return this.startCargoCapacity;
+	}
+	
+	/**
+	 * Get the fuel capacity of the Player's starting Ship.
+	 * @return The starting Ship's fuel capacity
+	 */
+	public int getStartFuelCapacity() {
+		return this.startFuelCapacity;
+	}
+	
+	/**
+	 * Get a hash of the content of the game world: the SHA-256 digest of its
+	 * binary form (see BinaryWorld).  Two WorldTemplates have the same hash
+	 * exactly when they hold the same world, however each was loaded, so the
+	 * hash can stand in for the world in saved games (see SessionSnapshot).
+	 * It is worked out the first time it is asked for.
+	 * @return The 32 bytes of the hash
+	 */
+	public byte[] getContentHash() {
+		return this.contentHash().clone();
+	}
+	
+	byte[] contentHash() {
+		byte[] hash = this.contentHash;
+		if (hash == null) {
+			final MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			}
+			catch (NoSuchAlgorithmException e) {
+				//every Java runtime is required to have SHA-256
+				throw new IllegalStateException(e);
+			}
+			try {
+				BinaryWorld.write(this, new OutputStream() {
+					public void write(int b) {
+						digest.update((byte)b);
+					}
+					public void write(byte[] b, int off, int len) {
+						digest.update(b, off, len);
+					}
+				});
+			}
+			catch (IOException e) {
+				//the digest never fails to take bytes
+				throw new IllegalStateException(e);
+			}
+			hash = digest.digest();
+			this.contentHash = hash;
+		}
+		return hash;
+	}
+	
+	//largest world for which all distances are precomputed (16MB of ints)
+	private static final int MAX_DISTANCE_MATRIX_LOCATIONS = 2048;
+	
+	//strings for file parsing
+	private static final String COMMODITIES = "COMMODITIES:";
+	private static final String LOCATIONS = "LOCATIONS:";
+	private static final String PRICES = "PRICES:";
+	private static final String MISSIONS = "MISSIONS:";
+	private static final String PLAYER = "PLAYER:";
+	private static final String CMT = "//";
+	private static final int COMMODITIES_SEC = 0;
+	private static final int LOCATIONS_SEC = 1;
+	private static final int PRICES_SEC = 2;
+	private static final int MISSIONS_SEC = 3;
+	private static final int PLAYER_SEC = 4;
+	//section headers, indexed by section type
+	private static final String[] SECTIONS =
+		{COMMODITIES, LOCATIONS, PRICES, MISSIONS, PLAYER};
+	
+	//files at least this big are memory-mapped rather than read
+	private static final long MAPPED_LOAD_THRESHOLD = 16 * 1024 * 1024;
+	//mapped PRICES sections at least this big are parsed in parallel
+	private static final int PARALLEL_PRICES_THRESHOLD = 1024 * 1024;
+	//the smallest part of a PRICES section parsed as a task of its own
+	private static final int MIN_PRICE_CHUNK = 256 * 1024;
+	
+	/**
+	 * Load a world file into a new WorldTemplate.  This only needs to be done
+	 * once no matter how many games are played in the world.  Binary world
+	 * files (see BinaryWorld) are recognized and loaded directly, and large
+	 * text files are loaded with <tt>loadMapped</tt>.
+	 * @param filename The name of the world file to load
+	 * @return The newly loaded WorldTemplate
+	 * @throws IOException If the file can't be opened or read
+	 * @throws WorldParseException If the file isn't a valid world
+	 */
+	public static WorldTemplate load(String filename) throws IOException,
+		WorldParseException {
+		if (BinaryWorld.isBinary(filename)) {
+			return BinaryWorld.load(filename);
+		}
+		if (new File(filename).length() >= MAPPED_LOAD_THRESHOLD) {
+			return WorldTemplate.loadMapped(filename);
+		}
+		InputStream in = new FileInputStream(filename);
+		try {
+			return WorldTemplate.load(in);
+		}
+		finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Load a world from a stream of UTF-8 text into a new WorldTemplate.  The
+	 * stream is read to the end but not closed.
+	 * @param in The stream from which to read the world
+	 * @return The newly loaded WorldTemplate
+	 * @throws IOException If the stream can't be read
+	 * @throws WorldParseException If the stream doesn't hold a valid world
+	 */
+	public static WorldTemplate load(InputStream in) throws IOException,
+		WorldParseException {
+		return WorldTemplate.load(new InputStreamReader(in,
+			StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Load a world from a Reader into a new WorldTemplate.  The Reader is read
+	 * to the end but not closed.
+	 * @param in The Reader from which to read the world
+	 * @return The newly loaded WorldTemplate
+	 * @throws IOException If the Reader can't be read
+	 * @throws WorldParseException If the Reader doesn't hold a valid world
+	 */
+	public static WorldTemplate load(Reader in) throws IOException,
+		WorldParseException {
+		WorldTemplate template = new WorldTemplate();
+		template.parse(new WorldParser(in));
+		template.finish();
+		return template;
+	}
+	
+	/**
+	 * Load a world file into a new WorldTemplate by memory-mapping it.  The
+	 * file is first scanned for its section headers and then each section is
+	 * parsed straight from the mapped bytes, so the file is never decoded
+	 * into Strings as a whole.  Only the names and descriptions that are kept
+	 * become Strings, which keeps the heap used while loading in line with
+	 * the size of the world rather than the size of the file.  The sections
+	 * are parsed in the order they are in the file, just as <tt>load</tt>
+	 * parses them, so a section that names Commodities or Locations must
+	 * come after the sections that define them in both loaders.  A large PRICES
+	 * section is split at line ends and its parts are parsed in parallel on
+	 * the common ForkJoinPool; the prices are then added to their Locations
+	 * in file order, so the result is the same as parsing it in one pass.
+	 * @param filename The name of the world file to load
+	 * @return The newly loaded WorldTemplate
+	 * @throws IOException If the file can't be opened, read or mapped
+	 * @throws WorldParseException If the file isn't a valid world
+	 */
+	public static WorldTemplate loadMapped(String filename)
+		throws IOException, WorldParseException {
+		FileChannel channel = FileChannel.open(Paths.get(filename),
+			StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("World file too large to map: " +
+					filename);
+			}
+			MappedByteBuffer map =
+				channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			WorldTemplate template = new WorldTemplate();
+			template.parseMapped(map);
+			template.finish();
+			return template;
+		}
+		finally {
+			channel.close();
+		}
+	}
+	
+	private void parse(WorldParser parser) throws IOException,
+		WorldParseException {
+		int currSec = -1;
+		while (parser.nextLine()) {
+			//skip comments and blank lines
+			if (parser.isBlank() || parser.startsWith(CMT)) { continue; }
+			
+			//check if we are starting a new section
+			int sec = WorldTemplate.sectionOf(parser);
+			if (sec >= 0) {
+				currSec = sec; continue;
+			}
+			
+			//parse this line as part of the current section
+			this.handleLine(parser, currSec);
+		}
+		this.checkPlayer(parser.getLineNumber());
+	}
+	
+	private void parseMapped(ByteBuffer map) throws IOException,
+		WorldParseException {
+		List<Section> sections = WorldTemplate.findSections(map);
+		//parse the sections in file order, as parse does, so that a file
+		//loads (or fails) the same way whichever loader reads it
+		int lastLine = 0;
+		for (Section s : sections) {
+			ByteBuffer bytes = WorldTemplate.slice(map, s.start, s.end);
+			if (s.type == WorldTemplate.PRICES_SEC &&
+				s.end - s.start >= PARALLEL_PRICES_THRESHOLD &&
+				ForkJoinPool.getCommonPoolParallelism() > 1) {
+				PriceChunk prices = new PriceChunk(bytes);
+				ForkJoinPool.commonPool().invoke(prices);
+				prices.merge(s.firstLine - 1);
+			}
+			else {
+				this.parseSection(new WorldParser(bytes, s.firstLine), s.type);
+			}
+			lastLine = s.lastLine;
+		}
+		this.checkPlayer(lastLine);
+	}
+	
+	private void parseSection(WorldParser parser, int sec)
+		throws IOException, WorldParseException {
+		while (parser.nextLine()) {
+			//skip comments and blank lines
+			if (parser.isBlank() || parser.startsWith(CMT)) { continue; }
+			this.handleLine(parser, sec);
+		}
+	}
+	
+	private void handleLine(WorldParser parser, int sec)
+		throws WorldParseException {
+		switch (sec) {
+			case WorldTemplate.COMMODITIES_SEC:
+				this.handleCommodity(parser); break;
+			case WorldTemplate.LOCATIONS_SEC:
+				this.handleLocation(parser); break;
+			case WorldTemplate.PRICES_SEC:
+				this.handlePrice(parser, null); break;
+			case WorldTemplate.MISSIONS_SEC:
+				this.handleMission(parser); break;
+			case WorldTemplate.PLAYER_SEC:
+				this.handlePlayer(parser); break;
+			default:
+				throw parser.error("Line is not in any section");
+		}
+		parser.endLine();
+	}
+	
+	private void checkPlayer(int lastLine) throws WorldParseException {
+		if (this.startLocation == null) {
+			throw new WorldParseException("Missing " + PLAYER + " section",
+				lastLine, 1);
+		}
+	}
+	
+	private static ByteBuffer slice(ByteBuffer bytes, int start, int end) {
+		ByteBuffer slice = bytes.duplicate();
+		slice.limit(end);
+		slice.position(start);
+		return slice.slice();
+	}
+	
+	private static int sectionOf(WorldParser parser) {
+		for (int sec = 0; sec < SECTIONS.length; sec++) {
+			if (parser.startsWith(SECTIONS[sec])) { return sec; }
+		}
+		return -1;
+	}
+	
+	/**
+	 * A Section is the byte range of a world file holding the lines of one
+	 * section, not including its header line.
+	 */
+	private static class Section {
+		int type;
+		int start;
+		int end;
+		int firstLine;
+		int lastLine;
+	}
+	
+	/**
+	 * A PriceChunk parses a range of lines of a PRICES section.  A big chunk
+	 * splits itself in two at a line end and both halves run in parallel.  A
+	 * small one parses its lines into a flat array of prices without touching
+	 * any Location, since Locations aren't safe to change from many threads;
+	 * <tt>merge</tt> adds them afterwards.  Lines are numbered from 1 within
+	 * each chunk and only moved to their place in the file when merged.
+	 */
+	private class PriceChunk extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private ByteBuffer bytes;
+		private PriceChunk first;
+		private PriceChunk second;
+		//four ints per price: location id, ordinal, lowest and highest
+		private int[] prices;
+		private int size;
+		private int lines;
+		private WorldParseException error;
+		
+		PriceChunk(ByteBuffer bytes) {
+			this.bytes = bytes;
+		}
+		
+		@Override
+		protected void compute() {
+			int n = this.bytes.limit();
+			if (n >= 2 * MIN_PRICE_CHUNK) {
+				int mid = n / 2;
+				while (mid < n && this.bytes.get(mid - 1) != '\n') { mid++; }
+				if (mid < n) {
+					this.first = new PriceChunk(
+						WorldTemplate.slice(this.bytes, 0, mid));
+					this.second = new PriceChunk(
+						WorldTemplate.slice(this.bytes, mid, n));
+					RecursiveAction.invokeAll(this.first, this.second);
+					return;
+				}
+			}
+			this.parse();
+		}
+		
+		private void parse() {
+			WorldParser parser = new WorldParser(this.bytes, 1);
+			this.prices = new int[256];
+			try {
+				//lines from bytes can't fail to be read
+				while (parser.nextLine()) {
+					if (parser.isBlank() || parser.startsWith(CMT)) {
+						continue;
+					}
+					WorldTemplate.this.handlePrice(parser, this);
+					parser.endLine();
+				}
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			catch (WorldParseException e) {
+				this.error = e;
+			}
+			this.lines = parser.getLineNumber();
+		}
+		
+		void add(Location location, Commodity commodity, int min, int max) {
+			if (this.size == this.prices.length) {
+				this.prices = Arrays.copyOf(this.prices, this.size * 2);
+			}
+			this.prices[this.size++] = location.getId();
+			this.prices[this.size++] = commodity.getOrdinal();
+			this.prices[this.size++] = min;
+			this.prices[this.size++] = max;
+		}
+		
+		/**
+		 * Adds the parsed prices to their Locations in file order, reporting
+		 * the first problem found in file order.
+		 * @param lineOffset The number of lines in the file before this chunk
+		 * @return The number of lines in this chunk
+		 * @throws WorldParseException If any line of this chunk is invalid
+		 */
+		int merge(int lineOffset) throws WorldParseException {
+			if (this.first != null) {
+				int lines = this.first.merge(lineOffset);
+				return lines + this.second.merge(lineOffset + lines);
+			}
+			if (this.error != null) {
+				throw this.error.shiftLines(lineOffset);
+			}
+			for (int i = 0; i < this.size; i += 4) {
+				Location l = WorldTemplate.this.getLocation(this.prices[i]);
+				Commodity c =
+					WorldTemplate.this.getCommodity(this.prices[i + 1]);
+				l.addCommodity(c, this.prices[i + 2], this.prices[i + 3]);
+			}
+			return this.lines;
+		}
+	
+	}
+	
+	private static List<Section> findSections(ByteBuffer map) {
+		List<Section> sections = new ArrayList<Section>();
+		//anything before the first header is in no section at all
+		Section curr = new Section();
+		curr.type = -1;
+		curr.firstLine = 1;
+		int n = map.limit();
+		int lineStart = 0;
+		int lineNum = 1;
+		while (lineStart < n) {
+			//only the start of each line needs to be looked at
+			int i = lineStart;
+			while (i < n && map.get(i) != '\n' && (map.get(i) & 0xff) <= ' ') {
+				i++;
+			}
+			int sec = WorldTemplate.sectionAt(map, i);
+			int lineEnd = i;
+			while (lineEnd < n && map.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			int next = Math.min(lineEnd + 1, n);
+			if (sec >= 0) {
+				curr.end = lineStart;
+				curr.lastLine = lineNum - 1;
+				sections.add(curr);
+				curr = new Section();
+				curr.type = sec;
+				curr.start = next;
+				curr.firstLine = lineNum + 1;
+			}
+			lineStart = next;
+			lineNum++;
+		}
+		curr.end = n;
+		curr.lastLine = lineNum - 1;
+		sections.add(curr);
+		return sections;
+	}
+	
+	private static int sectionAt(ByteBuffer map, int i) {
+		for (int sec = 0; sec < SECTIONS.length; sec++) {
+			String header = SECTIONS[sec];
+			int len = header.length();
+			if (i + len > map.limit()) { continue; }
+			int j = 0;
+			while (j < len && map.get(i + j) == header.charAt(j)) { j++; }
+			if (j == len) { return sec; }
+		}
+		return -1;
+	}
+	
+	void finish() {
+		//nothing may change from here on
+		this.missions = Collections.unmodifiableList(this.missions);
+		this.locationList = Collections.unmodifiableList(this.locationList);
+		this.buildDistances();
+		this.buildNameIndexes();
+		this.spatialIndex = new SpatialIndex(this);
+		this.marketIndex = new MarketIndex(this);
+	}
+	
+	private void buildNameIndexes() {
+		List<String> names = new ArrayList<String>();
+		for (Location l : this.locationList) {
+			names.add(l.getName());
+		}
+		this.locationNames = new NameIndex(names);
+		names.clear();
+		for (Commodity c : this.commodities.getCommodities()) {
+			names.add(c.getName());
+		}
+		this.commodityNames = new NameIndex(names);
+	}
+	
+	private void buildDistances() {
+		int n = this.locationList.size();
+		if (n > WorldTemplate.MAX_DISTANCE_MATRIX_LOCATIONS) {
+			//too big to keep every pair, so distances come from coordinates
+			return;
+		}
+		int[] matrix = new int[n * n];
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++) {
+				int distance = this.computeDistance(i, j);
+				matrix[i * n + j] = distance;
+				matrix[j * n + i] = distance;
+			}
+		}
+		this.distances = matrix;
+	}
+	
+	//the building blocks used by every loader, which must check their input
+	
+	Commodity addCommodity(String name, String description) {
+		return this.commodities.intern(name, description);
+	}
+	
+	Location addLocation(String name, String description, int x, int y) {
+		int id = this.locationList.size();
+		Location l = new Location(this, id, name, description);
+		if (id == this.xCoords.length) {
+			this.xCoords = Arrays.copyOf(this.xCoords, id * 2);
+			this.yCoords = Arrays.copyOf(this.yCoords, id * 2);
+		}
+		this.xCoords[id] = x;
+		this.yCoords[id] = y;
+		this.locations.put(l.getName(),l);
+		this.locationList.add(l);
+		return l;
+	}
+	
+	Mission addMission(String title, String description, Location location,
+		Commodity commodity, int quantity, int reward) {
+		Mission m = new Mission(this.missions.size(), title, description,
+			location, commodity, quantity, reward);
+		this.missions.add(m);
+		return m;
+	}
+	
+	void setStart(Location location, int money, int cargoCapacity,
+		int fuelCapacity) {
+		this.startLocation = location;
+		this.startMoney = money;
+		this.startCargoCapacity = cargoCapacity;
+		this.startFuelCapacity = fuelCapacity;
+	}
+	
+	private void handleLocation(WorldParser parser) throws WorldParseException {
+		String name = parser.nextField();
+		if (this.locations.containsKey(name)) {
+			throw parser.error("Duplicate location " + name);
+		}
+		String description = parser.nextField();
+		parser.nextPair();
+		this.addLocation(name, description, parser.getPairVal1(),
+			parser.getPairVal2());
+	}
+	
+	private void handleCommodity(WorldParser parser)
+		throws WorldParseException {
+		String name = parser.nextField();
+		if (this.commodities.get(name) != null) {
+			throw parser.error("Duplicate commodity " + name);
+		}
+		this.addCommodity(name, parser.nextField());
+	}
+	
+	private void handlePrice(WorldParser parser, PriceChunk chunk)
+		throws WorldParseException {
+		//grab the location for which we're adding prices
+		Location l = this.nextLocation(parser);
+		while (parser.hasMoreFields()) {
+			Commodity c = this.nextCommodity(parser);
+			parser.nextPair();
+			int min = parser.getPairVal1();
+			int max = parser.getPairVal2();
+			if (min < 0 || max < min) {
+				throw parser.error("Bad price range " + min + "," + max);
+			}
+			if (chunk == null) {
+				l.addCommodity(c, min, max);
+			}
+			else {
+				chunk.add(l, c, min, max);
+			}
+		}
+	}
+	
+	private void handlePlayer(WorldParser parser) throws WorldParseException {
+		Location location = this.nextLocation(parser);
+		int money = parser.nextInt();
+		int cargoCapacity = parser.nextInt();
+		int fuelCapacity = parser.nextInt();
+		this.setStart(location, money, cargoCapacity, fuelCapacity);
+	}
+	
+	private void handleMission(WorldParser parser) throws WorldParseException {
+		String title = parser.nextField();
+		String description = parser.nextField();
+		Location location = this.nextLocation(parser);
+		Commodity commodity = this.nextCommodity(parser);
+		int quantity = parser.nextInt();
+		int reward = parser.nextInt();
+		this.addMission(title, description, location, commodity, quantity,
+			reward);
+	}
+	
+	private Location nextLocation(WorldParser parser)
+		throws WorldParseException {
+		String name = parser.nextField();
+		Location l = this.locations.get(name);
+		if (l == null) {
+			throw parser.error("Unknown location " + name);
+		}
+		return l;
+	}
+	
+	private Commodity nextCommodity(WorldParser parser)
+		throws WorldParseException {
+		String name = parser.nextField();
+		Commodity c = this.commodities.get(name);
+		if (c == null) {
+			throw parser.error("Unknown commodity " + name);
+		}
+		return c;
+	}
+	
+}